@@ -27,6 +27,8 @@ import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.converters.Converter;
 import com.thoughtworks.xstream.converters.UnmarshallingContext;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
 import hudson.diagnosis.OldDataMonitor;
 import hudson.model.Descriptor;
 import hudson.util.AtomicFileWriter;
@@ -46,6 +48,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.Writer;
@@ -57,6 +60,8 @@ import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.io.IOUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * Represents an XML data file that Jenkins uses as a data file.
@@ -203,6 +208,41 @@ public final class XmlFile {
         }
     }
 
+    /**
+     * Writes the same object graph as {@link #write} would, but in XStream's compact binary encoding,
+     * to a stream other than this file.
+     * Objects using {@link #replaceIfNotAtTopLevel} are treated as if this file were being written.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public void writeBinary(Object o, OutputStream out) throws IOException {
+        beingWritten.put(o, null);
+        writing.set(file);
+        try {
+            BinaryStreamWriter w = new BinaryStreamWriter(out);
+            xs.marshal(o, w);
+            w.flush();
+        } catch (RuntimeException e) {
+            throw new IOException(e);
+        } finally {
+            beingWritten.remove(o);
+            writing.set(null);
+        }
+    }
+
+    /**
+     * Loads into an existing object what {@link #writeBinary} wrote.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public Object unmarshalBinary(Object o, InputStream in) throws IOException {
+        try {
+            return xs.unmarshal(new BinaryStreamReader(in), o);
+        } catch (RuntimeException | Error e) {
+            throw new IOException("Unable to read binary form of "+file,e);
+        }
+    }
+
     /**
      * Provides an XStream replacement for an object unless a call to {@link #write} is currently in progress.
      * As per JENKINS-45892 this may be used by any class which expects to be written at top level to an XML file
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.cli;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.CauseAction;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn;
+import org.kohsuke.args4j.Argument;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Schedules builds of one or more jobs at once, with their default parameter values.
+ *
+ * <p>
+ * Unlike invoking {@link BuildCommand} repeatedly, all the builds are submitted to the queue
+ * in one go (see {@link Queue#scheduleAll}). This command does not wait for the builds to start.
+ *
+ * @since TODO
+ */
+@Extension
+public class ScheduleBuildsCommand extends CLICommand {
+
+    @Argument(usage="Name of the job(s) to build", required=true, multiValued=true)
+    private List<String> jobs;
+
+    @Override
+    public String getShortDescription() {
+        return Messages.ScheduleBuildsCommand_ShortDescription();
+    }
+
+    @Override
+    protected int run() throws Exception {
+        boolean errorOccurred = false;
+        final Jenkins jenkins = Jenkins.getInstance();
+
+        final Set<String> names = new LinkedHashSet<String>(jobs);
+        final List<String> scheduledNames = new ArrayList<String>(names.size());
+        final List<Job<?,?>> toSchedule = new ArrayList<Job<?,?>>(names.size());
+
+        for (String name : names) {
+            try {
+                Job<?,?> job = jenkins.getItemByFullName(name, Job.class);
+                if (job == null) {
+                    throw new IllegalArgumentException("No such job '" + name + "'");
+                }
+                job.checkPermission(Item.BUILD);
+                scheduledNames.add(name);
+                toSchedule.add(job);
+            } catch (Exception e) {
+                if (names.size() == 1) {
+                    throw e;
+                }
+                stderr.println(name + ": " + e.getMessage());
+                errorOccurred = true;
+            }
+        }
+
+        List<Queue.Item> items = ParameterizedJobMixIn.scheduleBuilds(toSchedule, -1,
+                new CauseAction(new BuildCommand.CLICause(Jenkins.getAuthentication().getName())));
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i) == null) {
+                if (names.size() == 1) {
+                    throw new IllegalStateException(BuildCommand.BUILD_SCHEDULING_REFUSED);
+                }
+                stderr.println(scheduledNames.get(i) + ": " + BuildCommand.BUILD_SCHEDULING_REFUSED);
+                errorOccurred = true;
+            }
+        }
+
+        if (errorOccurred) {
+            throw new AbortException(CLI_LISTPARAM_SUMMARY_ERROR_TEXT);
+        }
+        return 0;
+    }
+}
@@ -28,26 +28,42 @@ package hudson.console;
 import com.trilead.ssh2.crypto.Base64;
 import jenkins.model.Jenkins;
 import hudson.remoting.ObjectInputStreamEx;
+import hudson.util.CharSpool;
+import hudson.util.LineEndNormalizingWriter;
 import java.util.concurrent.TimeUnit;
 import jenkins.security.CryptoConfidentialKey;
+import jenkins.util.io.FramedGzipFile;
+import jenkins.util.io.FramedGzipOutputStream;
+import jenkins.util.io.ReverseLinesStream;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.framework.io.ByteBuffer;
+import org.kohsuke.stapler.framework.io.WriterOutputStream;
 import org.kohsuke.stapler.framework.io.LargeText;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.servlet.http.HttpServletResponse;
 import com.jcraft.jzlib.GZIPInputStream;
 import com.jcraft.jzlib.GZIPOutputStream;
 
@@ -77,16 +93,171 @@ public class AnnotatedLargeText<T> extends LargeText {
      */
     private T context;
 
+    /**
+     * Null unless the text is a file.
+     */
+    private final File file;
+
+    /**
+     * Non-null if the text is a file written by {@link FramedGzipOutputStream}, which can be read from any offset.
+     */
+    private final FramedGzipFile frames;
+
+    private ConsoleLogIndex index;
+    private boolean indexLoaded;
+
     public AnnotatedLargeText(File file, Charset charset, boolean completed, T context) {
         super(file, charset, completed, true);
+        this.file = file;
+        this.frames = openFrames(file);
         this.context = context;
     }
 
     public AnnotatedLargeText(ByteBuffer memory, Charset charset, boolean completed, T context) {
         super(memory, charset, completed);
+        this.file = null;
+        this.frames = null;
         this.context = context;
     }
 
+    private static FramedGzipFile openFrames(File file) {
+        if (!file.getName().endsWith(".gz")) {
+            return null;
+        }
+        try {
+            return FramedGzipFile.open(file);
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "Failed to read the frames of " + file, x);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the index kept of this text while it was written, if any.
+     *
+     * @return null if the text is not a file, or was written without an index
+     * @see ConsoleLogIndex#load
+     * @since TODO
+     */
+    public @CheckForNull ConsoleLogIndex getIndex() {
+        if (!indexLoaded && file != null) {
+            try {
+                index = ConsoleLogIndex.load(file);
+            } catch (IOException x) {
+                LOGGER.log(Level.FINE, "Failed to load the index of " + file, x);
+            }
+            indexLoaded = true;
+        }
+        return index;
+    }
+
+    /**
+     * Finds where a line starts, using the {@linkplain #getIndex() index} when there is one.
+     *
+     * @param line a 0-based line number
+     * @return the offset to pass to {@link #writeLogTo(long, Writer)} and friends, or -1 if there are not that many lines
+     * @since TODO
+     */
+    public long getLineOffset(long line) throws IOException {
+        ConsoleLogIndex index = getIndex();
+        if (index != null) {
+            return index.getLineOffset(line);
+        }
+        if (line < 0) {
+            throw new IllegalArgumentException("negative line number " + line);
+        }
+        if (line == 0) {
+            return 0;
+        }
+        if (frames == null && !isPlainFile()) {
+            return -1;
+        }
+        long offset = 0;
+        try (InputStream is = new BufferedInputStream(frames != null ? frames.read(0) : new FileInputStream(file))) {
+            int b;
+            while ((b = is.read()) != -1) {
+                offset++;
+                if (b == '\n' && --line == 0) {
+                    return offset;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds where the last lines start, using the {@linkplain #getIndex() index} when there is one.
+     *
+     * @return the offset to pass to {@link #writeLogTo(long, Writer)} and friends,
+     *         or 0 if there are no more lines than that, or they cannot be found
+     * @since TODO
+     */
+    public long getTailOffset(int lines) throws IOException {
+        ConsoleLogIndex index = getIndex();
+        if (index != null) {
+            return index.getTailOffset(lines);
+        }
+        if (lines <= 0 || !isPlainFile()) {
+            return lines <= 0 ? length() : 0;
+        }
+        try (ReverseLinesStream stream = new ReverseLinesStream(file.toPath(), charset)) {
+            int found = 0;
+            for (String line : stream) {
+                if (++found == lines) {
+                    return stream.getOffset();
+                }
+            }
+        }
+        return 0;
+    }
+
+    private boolean isPlainFile() {
+        return file != null && !file.getName().endsWith(".gz");
+    }
+
+    @Override
+    public long length() {
+        return frames != null ? frames.length() : super.length();
+    }
+
+    @Override
+    public Reader readAll() throws IOException {
+        return frames != null ? new InputStreamReader(frames.read(0), charset) : super.readAll();
+    }
+
+    /**
+     * Overridden for framed logs, as {@link LargeText} would take the length of the last frame for that of the text.
+     */
+    @Override
+    public void doProgressText(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (frames == null) {
+            super.doProgressText(req, rsp);
+            return;
+        }
+        setContentType(rsp);
+        rsp.setStatus(HttpServletResponse.SC_OK);
+
+        long start = 0;
+        String s = req.getParameter("start");
+        if (s != null) {
+            start = Long.parseLong(s);
+        }
+        if (frames.length() < start) {
+            start = 0; // text rolled over
+        }
+
+        CharSpool spool = new CharSpool();
+        long r = writeLogTo(start, spool);
+
+        rsp.addHeader("X-Text-Size", String.valueOf(r));
+        if (!isComplete()) {
+            rsp.addHeader("X-More-Data", "true");
+        }
+        Writer w = r - start > 4096 ? rsp.getCompressedWriter(req) : rsp.getWriter();
+        spool.writeTo(new LineEndNormalizingWriter(w));
+        w.close();
+    }
+
     public void doProgressiveHtml(StaplerRequest req, StaplerResponse rsp) throws IOException {
         req.setAttribute("html",true);
         doProgressText(req,rsp);
@@ -142,17 +313,32 @@ public class AnnotatedLargeText<T> extends LargeText {
     public long writeLogTo(long start, Writer w) throws IOException {
         if (isHtml())
             return writeHtmlTo(start, w);
-        else
-            return super.writeLogTo(start,w);
+        if (frames != null) {
+            WriterOutputStream os = new WriterOutputStream(w, charset);
+            long r = writeLogTo(start, os);
+            os.flush();
+            return r;
+        }
+        return super.writeLogTo(start,w);
     }
 
     /**
-     * Strips annotations using a {@link PlainTextConsoleOutputStream}.
+     * Strips annotations using a {@link NoteStrippingOutputStream}, or by skipping the notes
+     * the {@linkplain #getIndex() index} knows about.
      * {@inheritDoc}
      */
     @Override
     public long writeLogTo(long start, OutputStream out) throws IOException {
-        return super.writeLogTo(start, new PlainTextConsoleOutputStream(out));
+        // the size of the index tells whether skipping notes would pay off, without reading it
+        ConsoleLogIndex index = isComplete() && isPlainFile() && ConsoleLogIndex.hasSparseNotes(file) ? getIndex() : null;
+        if (index != null && index.isComplete()) {
+            // the index knows where every note is, so there is no need to look for them
+            return index.writePlainTextTo(start, out);
+        }
+        NoteStrippingOutputStream plain = new NoteStrippingOutputStream(out);
+        long r = writeBytesTo(start, plain);
+        plain.finish();
+        return r;
     }
 
     /**
@@ -160,19 +346,64 @@ public class AnnotatedLargeText<T> extends LargeText {
      * @since 1.577
      */
     public long writeRawLogTo(long start, OutputStream out) throws IOException {
-        return super.writeLogTo(start, out);
+        return writeBytesTo(start, out);
+    }
+
+    /**
+     * Like {@link LargeText#writeLogTo(long, OutputStream)}, but starting at the right frame of a framed log.
+     */
+    private long writeBytesTo(long start, OutputStream out) throws IOException {
+        if (frames == null) {
+            return super.writeLogTo(start, out);
+        }
+        try (InputStream in = frames.read(start)) {
+            IOUtils.copy(in, out);
+        }
+        out.flush();
+        return Math.max(start, frames.length());
+    }
+
+    /**
+     * Opens the log of a file, plain or framed, at some offset.
+     */
+    private InputStream openBytes(long start) throws IOException {
+        if (frames != null) {
+            return frames.read(start);
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(start);
+        } catch (IOException x) {
+            in.close();
+            throw x;
+        }
+        return in;
     }
 
     public long writeHtmlTo(long start, Writer w) throws IOException {
-        ConsoleAnnotationOutputStream caw = new ConsoleAnnotationOutputStream(
-                w, createAnnotator(Stapler.getCurrentRequest()), context, charset);
-        long r = super.writeLogTo(start,caw);
+        StaplerRequest req = Stapler.getCurrentRequest();
+        ConsoleAnnotator<T> initial = createAnnotator(req);
+        ConsoleAnnotator<?> last = null;
+        long r = -1;
+        String text = file != null && (frames != null || isPlainFile()) ? ConsoleHtmlCache.describe(context, req != null ? req.getContextPath() : "") : null;
+        if (text != null) {
+            ConsoleHtmlCache.Rendered rendered = ConsoleHtmlCache.render(text, this::openBytes, start, length(), isComplete(), initial, context, charset, w);
+            if (rendered != null) {
+                r = rendered.offset;
+                last = rendered.annotator;
+            }
+        }
+        if (r < 0) {
+            ConsoleAnnotationOutputStream caw = new ConsoleAnnotationOutputStream(w, initial, context, charset);
+            r = writeBytesTo(start,caw);
+            last = caw.getConsoleAnnotator();
+        }
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Cipher sym = PASSING_ANNOTATOR.encrypt();
         ObjectOutputStream oos = AnonymousClassWarnings.checkingObjectOutputStream(new GZIPOutputStream(new CipherOutputStream(baos,sym)));
         oos.writeLong(System.currentTimeMillis()); // send timestamp to prevent a replay attack
-        oos.writeObject(caw.getConsoleAnnotator());
+        oos.writeObject(last);
         oos.close();
         StaplerResponse rsp = Stapler.getCurrentResponse();
         if (rsp!=null)
@@ -184,4 +415,6 @@ public class AnnotatedLargeText<T> extends LargeText {
      * Used for sending the state of ConsoleAnnotator to the client, because we are deserializing this object later.
      */
     private static final CryptoConfidentialKey PASSING_ANNOTATOR = new CryptoConfidentialKey(AnnotatedLargeText.class,"consoleAnnotator");
+
+    private static final Logger LOGGER = Logger.getLogger(AnnotatedLargeText.class.getName());
 }
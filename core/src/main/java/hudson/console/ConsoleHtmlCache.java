@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.model.Run;
+import hudson.remoting.ObjectInputStreamEx;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PushbackInputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.remoting.util.AnonymousClassWarnings;
+
+/**
+ * Caches the HTML rendering of build logs, so that a log viewed over and over is not annotated each time.
+ *
+ * <p>
+ * Logs are rendered in chunks of about {@link #CHUNK_SIZE} bytes, ending at the first line starting after
+ * a multiple of that size, and each chunk is cached together with the state of the {@link ConsoleAnnotator}
+ * it was rendered from and the state it left. A chunk is reused only when rendering reaches its start
+ * in the same state, so the result is the same as without the cache; the last, incomplete chunk of a log still being
+ * written, and anything after a state which cannot be serialized, is just annotated as usual.
+ *
+ * <p>
+ * Chunks are keyed by the build, the set of installed {@link ConsoleAnnotatorFactory}s and {@link ConsoleAnnotationDescriptor}s,
+ * and the context path, and are evicted once they take more than {@code hudson.console.ConsoleHtmlCache.maximumWeight}
+ * bytes in all.
+ */
+final class ConsoleHtmlCache {
+
+    static /* Script Console modifiable */ boolean DISABLED = SystemProperties.getBoolean(ConsoleHtmlCache.class.getName() + ".disabled");
+
+    static /* Script Console modifiable */ int CHUNK_SIZE = SystemProperties.getInteger(ConsoleHtmlCache.class.getName() + ".chunkSize", 256 * 1024);
+
+    private static final Cache<Key, Chunk> CACHE = CacheBuilder.newBuilder()
+            .maximumWeight(SystemProperties.getLong(ConsoleHtmlCache.class.getName() + ".maximumWeight", 64L * 1024 * 1024))
+            .weigher((Key key, Chunk chunk) -> chunk.weight())
+            .build();
+
+    private ConsoleHtmlCache() {}
+
+    /**
+     * Identifies how the log of a build is rendered.
+     *
+     * @return null if the context is not a build, so its log cannot be told apart from others
+     */
+    static @CheckForNull String describe(@CheckForNull Object context, @Nonnull String contextPath) {
+        if (DISABLED || !(context instanceof Run)) {
+            return null;
+        }
+        Run<?,?> run = (Run<?,?>) context;
+        TreeSet<String> annotators = new TreeSet<>();
+        for (ConsoleAnnotatorFactory<?> f : ConsoleAnnotatorFactory.all()) {
+            annotators.add(f.getClass().getName());
+        }
+        for (ConsoleAnnotationDescriptor d : ConsoleAnnotationDescriptor.all()) {
+            annotators.add(d.getId());
+        }
+        return run.getExternalizableId() + '@' + run.getStartTimeInMillis() + ' ' + contextPath + ' '
+                + Integer.toHexString(annotators.hashCode()) + (ConsoleNote.INSECURE ? " insecure" : "");
+    }
+
+    /**
+     * What was rendered.
+     */
+    static final class Rendered {
+        /** Offset to continue from. */
+        final long offset;
+        /** Annotator to continue with. */
+        final ConsoleAnnotator<?> annotator;
+
+        Rendered(long offset, ConsoleAnnotator<?> annotator) {
+            this.offset = offset;
+            this.annotator = annotator;
+        }
+    }
+
+    /**
+     * Opens a log at an offset.
+     */
+    interface Source {
+        @Nonnull InputStream open(long offset) throws IOException;
+    }
+
+    /**
+     * Renders a log as HTML, as {@link ConsoleAnnotationOutputStream} would.
+     *
+     * @param text as from {@link #describe}
+     * @param limit the length of the log
+     * @param complete whether the log is complete, rather than possibly ending with a line still being written
+     * @return null if nothing was written because the initial annotator cannot be serialized
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static @CheckForNull Rendered render(@Nonnull String text, @Nonnull Source source, long start, long limit, boolean complete,
+                                         ConsoleAnnotator<?> annotator, Object context, Charset charset, Writer w) throws IOException {
+        byte[] state = serialize(annotator);
+        if (state == null) {
+            return null;
+        }
+        ConsoleAnnotator ann = annotator;
+        long pos = start;
+        long lineEnd = start;
+        PushbackInputStream in = null;
+        long inPos = -1;
+        byte[] buf = new byte[8192];
+        try {
+            while (pos < limit) {
+                Key key = new Key(text, pos);
+                Chunk chunk = state != null ? CACHE.getIfPresent(key) : null;
+                if (chunk != null && chunk.end <= limit && Arrays.equals(chunk.startState, state)) {
+                    w.write(chunk.html);
+                    pos = lineEnd = chunk.end;
+                    state = chunk.endState;
+                    ann = null;
+                    continue;
+                }
+                if (ann == null) {
+                    ann = deserialize(state);
+                }
+                if (in == null || inPos != pos) {
+                    if (in != null) {
+                        in.close();
+                    }
+                    in = new PushbackInputStream(source.open(pos), buf.length);
+                    inPos = pos;
+                }
+                // annotate up to the first line starting at or after the next multiple of the chunk size
+                long target = (pos / CHUNK_SIZE + 1) * CHUNK_SIZE;
+                boolean boundary = false;
+                StringWriter html = new StringWriter();
+                ConsoleAnnotationOutputStream caw = new ConsoleAnnotationOutputStream(html, ann, context, charset);
+                while (!boundary && inPos < limit) {
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, limit - inPos));
+                    if (n < 0) {
+                        break;
+                    }
+                    int used = n;
+                    for (int i = 0; i < n; i++) {
+                        if (buf[i] == '\n') {
+                            lineEnd = inPos + i + 1;
+                            if (lineEnd >= target) {
+                                used = i + 1;
+                                boundary = true;
+                                break;
+                            }
+                        }
+                    }
+                    caw.write(buf, 0, used);
+                    if (used < n) {
+                        in.unread(buf, used, n - used);
+                    }
+                    inPos += used;
+                }
+                boolean atEnd = inPos == pos; // nothing more to read, though the log was said to be longer
+                pos = inPos;
+                ann = caw.getConsoleAnnotator();
+                String rendered = html.toString();
+                w.write(rendered);
+                byte[] startState = state;
+                state = serialize(ann);
+                if (startState != null && state != null && (boundary || complete && pos == limit)) {
+                    CACHE.put(key, new Chunk(startState, state, rendered, pos));
+                }
+                if (atEnd) {
+                    break;
+                }
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+        if (ann == null) {
+            ann = deserialize(state);
+        }
+        return new Rendered(complete ? Math.max(pos, start) : lineEnd, ann);
+    }
+
+    /**
+     * Drops everything cached.
+     */
+    static void clear() {
+        CACHE.invalidateAll();
+    }
+
+    private static @CheckForNull byte[] serialize(@CheckForNull ConsoleAnnotator<?> annotator) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = AnonymousClassWarnings.checkingObjectOutputStream(baos)) {
+            oos.writeObject(annotator);
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "cannot cache renderings after " + annotator, x);
+            return null;
+        }
+        return baos.toByteArray();
+    }
+
+    private static ConsoleAnnotator<?> deserialize(byte[] state) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStreamEx(new ByteArrayInputStream(state), Jenkins.getInstance().pluginManager.uberClassLoader)) {
+            return (ConsoleAnnotator<?>) ois.readObject();
+        } catch (ClassNotFoundException x) {
+            throw new IOException(x);
+        }
+    }
+
+    private static final class Key {
+        private final String text;
+        private final long start;
+
+        Key(String text, long start) {
+            this.text = text;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return start == k.start && text.equals(k.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + Long.hashCode(start);
+        }
+    }
+
+    private static final class Chunk {
+        private final byte[] startState, endState;
+        private final String html;
+        private final long end;
+
+        Chunk(byte[] startState, byte[] endState, String html, long end) {
+            this.startState = startState;
+            this.endState = endState;
+            this.html = html;
+            this.end = end;
+        }
+
+        int weight() {
+            return 64 + startState.length + endState.length + 2 * html.length();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleHtmlCache.class.getName());
+}
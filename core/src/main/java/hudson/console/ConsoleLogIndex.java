@@ -0,0 +1,574 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import hudson.util.DelegatingOutputStream;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.LongStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sparse index of a console log, kept in a file next to it while the build writes it.
+ *
+ * <p>
+ * The index records the byte offset of every {@link #STRIDE}th line, and the byte range of every {@link ConsoleNote}
+ * embedded in the log. This lets console views find where a given line starts, or where the last lines start,
+ * by a binary search followed by a short scan, and skip straight to the notes without looking for
+ * {@link ConsoleNote#PREAMBLE} in every line.
+ *
+ * <p>
+ * Only the line offsets are held in memory; notes are read from the index file as they are needed.
+ * An index larger than its log divided by {@link #MAX_SIZE_RATIO} is not used at all,
+ * as scanning the log would then be about as fast.
+ *
+ * <p>
+ * While the build is still running the index covers the log up to its last record, see {@link #getLength()};
+ * it is {@linkplain #isComplete() complete} once the log has been closed.
+ * Logs written by older versions, or otherwise without an index, have none, so callers must fall back to scanning.
+ *
+ * @see Writer
+ * @since TODO
+ */
+public final class ConsoleLogIndex {
+
+    /**
+     * Number of lines between two line offsets recorded in the index.
+     */
+    static /* Script Console modifiable */ int STRIDE = SystemProperties.getInteger(ConsoleLogIndex.class.getName() + ".stride", 1000);
+
+    /**
+     * Set to stop writing indices for new logs.
+     */
+    static /* Script Console modifiable */ boolean DISABLED = SystemProperties.getBoolean(ConsoleLogIndex.class.getName() + ".disabled");
+
+    /**
+     * An index larger than the log divided by this is ignored; 0 to use indices of any size.
+     */
+    static /* Script Console modifiable */ int MAX_SIZE_RATIO = SystemProperties.getInteger(ConsoleLogIndex.class.getName() + ".maxSizeRatio", 16);
+
+    private static final int MAGIC = 0x4a434c49;
+    private static final int VERSION = 1;
+    private static final int RECORD_SIZE = 1 + 8 + 8;
+
+    private static final byte LINE = 'L';
+    private static final byte NOTE = 'N';
+    private static final byte END = 'E';
+
+    /**
+     * Average number of bytes between notes below which {@link #writePlainTextTo} streams rather than transfers.
+     */
+    private static final int MIN_TRANSFER = 8192;
+
+    private final File log;
+    private final File file;
+    /** Number of records read, so that notes are not looked for past them. */
+    private final long records;
+    /** Line numbers and offsets of the recorded lines, starting with line 0 at offset 0. */
+    private final long[] lineNumbers, lineOffsets;
+    private final int lineSize;
+    private final long noteCount;
+    private final long length;
+    private final long lineCount;
+
+    private ConsoleLogIndex(File log, File file, long records, long[] lineNumbers, long[] lineOffsets, int lineSize, long noteCount, long length, long lineCount) {
+        this.log = log;
+        this.file = file;
+        this.records = records;
+        this.lineNumbers = lineNumbers;
+        this.lineOffsets = lineOffsets;
+        this.lineSize = lineSize;
+        this.noteCount = noteCount;
+        this.length = length;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Gets the file the index of a log is kept in.
+     */
+    public static @Nonnull File getIndexFile(@Nonnull File log) {
+        return new File(log.getParentFile(), log.getName() + ".index");
+    }
+
+    /**
+     * Tells from the size of the index alone whether notes are sparse enough in a log
+     * for {@link #writePlainTextTo} to transfer the bytes between them, rather than stream the log.
+     *
+     * @return false as well if the log has no index
+     */
+    static boolean hasSparseNotes(@Nonnull File log) {
+        long size = getIndexFile(log).length();
+        return size > 8 && (size - 8) / RECORD_SIZE <= log.length() / MIN_TRANSFER;
+    }
+
+    /**
+     * Loads the index of a log.
+     *
+     * @return null if the log has no index, one which does not match the log, or one too large to be worth using
+     */
+    public static @CheckForNull ConsoleLogIndex load(@Nonnull File log) throws IOException {
+        File file = getIndexFile(log);
+        long size;
+        try {
+            size = Files.size(file.toPath());
+        } catch (NoSuchFileException x) {
+            return null;
+        } catch (InvalidPathException x) {
+            throw new IOException(x);
+        }
+        if (MAX_SIZE_RATIO > 0 && (size - 8) * MAX_SIZE_RATIO > log.length()) {
+            LOGGER.log(Level.FINE, "Ignoring {0}, which is too large for its log", file);
+            return null;
+        }
+        long records = Math.max(0, (size - 8) / RECORD_SIZE); // a record still being written is ignored
+        long[] lineNumbers = new long[16], lineOffsets = new long[16];
+        int lineSize = 1;
+        long noteCount = 0, length = 0, lineCount = -1;
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (size < 8 || data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return null;
+            }
+            for (long i = 0; i < records; i++) {
+                byte type = data.readByte();
+                long a = data.readLong(), b = data.readLong();
+                if (lineCount != -1) {
+                    return null; // nothing may follow the end
+                }
+                switch (type) {
+                case LINE:
+                    if (lineSize == lineNumbers.length) {
+                        lineNumbers = Arrays.copyOf(lineNumbers, lineSize * 2);
+                        lineOffsets = Arrays.copyOf(lineOffsets, lineSize * 2);
+                    }
+                    lineNumbers[lineSize] = a;
+                    lineOffsets[lineSize++] = length = b;
+                    break;
+                case NOTE:
+                    noteCount++;
+                    length = b;
+                    break;
+                case END:
+                    lineCount = a;
+                    length = b;
+                    break;
+                default:
+                    return null;
+                }
+            }
+        } catch (NoSuchFileException x) {
+            return null;
+        } catch (EOFException x) {
+            return null; // truncated since its size was taken
+        }
+        long actual = log.length();
+        if (lineCount == -1 ? actual < length : actual != length) {
+            return null; // log was rewritten or appended to by something else
+        }
+        return new ConsoleLogIndex(log, file, records, lineNumbers, lineOffsets, lineSize, noteCount, length, lineCount);
+    }
+
+    /**
+     * Whether the log was closed, so the index covers all of it.
+     */
+    public boolean isComplete() {
+        return lineCount != -1;
+    }
+
+    /**
+     * Gets the length of the log which the index covers.
+     * Every note starting before this offset is known to the index.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Counts the lines in the log, including a last line without a newline.
+     * For a log still being written this counts the lines written so far.
+     */
+    public long getLineCount() throws IOException {
+        if (isComplete()) {
+            return lineCount;
+        }
+        long[] r = scan(lineOffsets[lineSize - 1], Long.MAX_VALUE);
+        return lineNumbers[lineSize - 1] + r[0] + (r[2] > r[1] ? 1 : 0);
+    }
+
+    /**
+     * Finds where a line starts.
+     *
+     * @param line a 0-based line number
+     * @return the offset of the first byte of the line, or -1 if the log does not have that many lines
+     */
+    public long getLineOffset(long line) throws IOException {
+        if (line < 0) {
+            throw new IllegalArgumentException("negative line number " + line);
+        }
+        int i = Arrays.binarySearch(lineNumbers, 0, lineSize, line);
+        if (i < 0) {
+            i = -i - 2; // the closest recorded line before it; line 0 is always recorded
+        }
+        long wanted = line - lineNumbers[i];
+        if (wanted == 0) {
+            return lineOffsets[i];
+        }
+        long[] r = scan(lineOffsets[i], wanted);
+        return r[0] == wanted ? r[1] : -1;
+    }
+
+    /**
+     * Finds where the last lines of the log start.
+     *
+     * @return the offset of the first of the last {@code lines} lines, or 0 if the log does not have more lines than that
+     */
+    public long getTailOffset(long lines) throws IOException {
+        long first = getLineCount() - lines;
+        return first <= 0 ? 0 : getLineOffset(first);
+    }
+
+    /**
+     * Gets the offsets of the notes starting in a range of the log.
+     * Only notes starting before {@link #getLength()} are known.
+     */
+    public @Nonnull long[] getNoteOffsets(long start, long end) throws IOException {
+        LongStream.Builder offsets = LongStream.builder();
+        try (Notes notes = new Notes()) {
+            for (boolean more = notes.skipTo(start); more && notes.start < end; more = notes.next()) {
+                offsets.add(notes.start);
+            }
+        }
+        return offsets.build().toArray();
+    }
+
+    /**
+     * Copies the log from an offset to its end without the notes, like {@link PlainTextConsoleOutputStream} would.
+     * The bytes between notes are transferred straight from the file where they are long enough to be worth it;
+     * otherwise the log is streamed through a {@link NoteStrippingOutputStream}.
+     * Only valid for a {@linkplain #isComplete() complete} index.
+     *
+     * @return the offset copied up to
+     */
+    long writePlainTextTo(long start, OutputStream out) throws IOException {
+        assert isComplete();
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            if (noteCount > length / MIN_TRANSFER) {
+                // notes are dense (say one per line), so one transfer per gap would cost more than it saves
+                NoteStrippingOutputStream plain = new NoteStrippingOutputStream(out);
+                channel.position(start);
+                IOUtils.copy(Channels.newInputStream(channel), plain);
+                plain.finish();
+            } else {
+                WritableByteChannel target = Channels.newChannel(out);
+                long pos = start;
+                try (Notes notes = new Notes()) {
+                    for (boolean more = notes.skipTo(start); pos < length; more = notes.next()) {
+                        long end = more ? notes.start : length;
+                        while (pos < end) {
+                            long n = channel.transferTo(pos, end - pos, target);
+                            if (n <= 0) {
+                                throw new IOException(log + " was truncated at " + pos);
+                            }
+                            pos += n;
+                        }
+                        if (more) {
+                            pos = notes.end;
+                        }
+                    }
+                }
+            }
+        } catch (InvalidPathException x) {
+            throw new IOException(x);
+        }
+        out.flush();
+        return Math.max(start, length);
+    }
+
+    /**
+     * Reads the notes from the index file, in order.
+     */
+    private final class Notes implements Closeable {
+        private final DataInputStream data;
+        private long remaining = records;
+        /** Start (inclusive) and end (exclusive) offsets of the current note. */
+        long start, end;
+
+        Notes() throws IOException {
+            try {
+                data = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+            } catch (InvalidPathException x) {
+                throw new IOException(x);
+            }
+            data.skipBytes(8);
+        }
+
+        /**
+         * Moves to the next note.
+         * @return false if there are no more
+         */
+        boolean next() throws IOException {
+            while (remaining-- > 0) {
+                byte type = data.readByte();
+                long a = data.readLong(), b = data.readLong();
+                if (type == NOTE) {
+                    start = a;
+                    end = b;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves to the first note starting at or after an offset.
+         * @return false if there is none
+         */
+        boolean skipTo(long offset) throws IOException {
+            while (next()) {
+                if (start >= offset) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+
+    /**
+     * Scans the log for newlines.
+     *
+     * @return the number of newlines found, up to {@code max}; the offset after the last of them, or {@code from} if none;
+     *         and the offset the scan stopped at
+     */
+    private long[] scan(long from, long max) throws IOException {
+        byte[] buf = new byte[8192];
+        long found = 0, after = from, pos = from;
+        try (RandomAccessFile f = new RandomAccessFile(log, "r")) {
+            f.seek(from);
+            int n;
+            while (found < max && (n = f.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n') {
+                        after = pos + i + 1;
+                        if (++found == max) {
+                            return new long[] {found, after, after};
+                        }
+                    }
+                }
+                pos += n;
+            }
+        }
+        return new long[] {found, after, pos};
+    }
+
+    /**
+     * Passes output through to a log file while writing its index.
+     *
+     * <p>
+     * Indexing never fails the build: if the log already has content, so line numbers are unknown,
+     * or the index cannot be written, the index is deleted and output is only passed through.
+     */
+    public static final class Writer extends DelegatingOutputStream {
+
+        private final File index;
+        private final int stride;
+        private @CheckForNull DataOutputStream records;
+        private boolean dirty;
+
+        private long offset;
+        private long lines;
+        private long lineStart;
+        private int preambleMatched;
+        private int postambleMatched;
+        private long noteStart = -1;
+
+        /**
+         * @param out the stream writing {@code log}
+         * @param log the log file, to keep the index next to
+         */
+        public Writer(@Nonnull OutputStream out, @Nonnull File log) {
+            super(out);
+            index = getIndexFile(log);
+            stride = Math.max(1, STRIDE);
+            try {
+                if (DISABLED || log.length() > 0) {
+                    Files.deleteIfExists(index.toPath());
+                    return;
+                }
+                records = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index.toPath())));
+                records.writeInt(MAGIC);
+                records.writeInt(VERSION);
+                dirty = true;
+            } catch (IOException | InvalidPathException x) {
+                abandon(x);
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            out.write(b);
+            if (records != null) {
+                index((byte) b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (records != null) {
+                for (int i = off; i < off + len && records != null; i++) {
+                    index(b[i]);
+                }
+            }
+        }
+
+        private void index(byte b) {
+            if (noteStart == -1) {
+                if (b == ConsoleNote.PREAMBLE[preambleMatched]) {
+                    if (++preambleMatched == ConsoleNote.PREAMBLE.length) {
+                        noteStart = offset + 1 - preambleMatched;
+                        preambleMatched = 0;
+                    }
+                } else {
+                    preambleMatched = b == ConsoleNote.PREAMBLE[0] ? 1 : 0;
+                }
+            } else {
+                if (b == ConsoleNote.POSTAMBLE[postambleMatched]) {
+                    if (++postambleMatched == ConsoleNote.POSTAMBLE.length) {
+                        record(NOTE, noteStart, offset + 1);
+                        noteStart = -1;
+                        postambleMatched = 0;
+                    }
+                } else {
+                    postambleMatched = b == ConsoleNote.POSTAMBLE[0] ? 1 : 0;
+                }
+            }
+            offset++;
+            if (b == '\n') {
+                // notes never span lines, so an unterminated one is not a note
+                noteStart = -1;
+                preambleMatched = postambleMatched = 0;
+                lineStart = offset;
+                if (++lines % stride == 0) {
+                    record(LINE, lines, offset);
+                }
+            }
+        }
+
+        private void record(byte type, long a, long b) {
+            if (records == null) {
+                return;
+            }
+            try {
+                records.writeByte(type);
+                records.writeLong(a);
+                records.writeLong(b);
+                dirty = true;
+            } catch (IOException x) {
+                abandon(x);
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+            if (records != null && dirty) {
+                try {
+                    records.flush();
+                    dirty = false;
+                } catch (IOException x) {
+                    abandon(x);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (records != null) {
+                    record(END, lines + (offset > lineStart ? 1 : 0), offset);
+                    if (records != null) {
+                        try {
+                            records.close();
+                        } catch (IOException x) {
+                            abandon(x);
+                        }
+                        records = null;
+                    }
+                }
+            }
+        }
+
+        private void abandon(Exception x) {
+            LOGGER.log(Level.WARNING, "Giving up on writing " + index, x);
+            if (records != null) {
+                try {
+                    records.close();
+                } catch (IOException x2) {
+                    x.addSuppressed(x2);
+                }
+                records = null;
+            }
+            try {
+                Files.deleteIfExists(index.toPath());
+            } catch (IOException | InvalidPathException x2) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + index, x2);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleLogIndex.class.getName());
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.annotation.Nonnull;
+
+/**
+ * Filters out console notes, like {@link PlainTextConsoleOutputStream}, but without buffering lines.
+ *
+ * <p>
+ * Bytes outside notes are passed on in the runs they were written in, and notes are recognized by their
+ * {@link ConsoleNote#PREAMBLE} and {@link ConsoleNote#POSTAMBLE} as the bytes go by,
+ * so nothing is copied or allocated per line.
+ * A note which is not terminated before the end of its line is dropped up to there.
+ *
+ * @since TODO
+ */
+public class NoteStrippingOutputStream extends OutputStream {
+
+    private static final byte[] PREAMBLE = ConsoleNote.PREAMBLE;
+    private static final byte[] POSTAMBLE = ConsoleNote.POSTAMBLE;
+
+    private final OutputStream out;
+    private final byte[] single = new byte[1];
+
+    /** Whether we are within a note. */
+    private boolean inNote;
+    /** Bytes of the postamble matched within a note, or else of the preamble matched and held back. */
+    private int matched;
+
+    public NoteStrippingOutputStream(@Nonnull OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int run = off; // start of the bytes to pass on
+        for (int i = off; i < end; i++) {
+            byte c = b[i];
+            if (inNote) {
+                if (c == POSTAMBLE[matched]) {
+                    if (++matched == POSTAMBLE.length) {
+                        inNote = false;
+                        matched = 0;
+                    }
+                } else if (c == '\n') {
+                    inNote = false;
+                    matched = 0;
+                    run = i;
+                    continue;
+                } else {
+                    matched = c == POSTAMBLE[0] ? 1 : 0;
+                }
+                run = i + 1;
+            } else if (matched > 0) {
+                if (c == PREAMBLE[matched]) {
+                    if (++matched == PREAMBLE.length) {
+                        inNote = true;
+                        matched = 0;
+                    }
+                    run = i + 1;
+                } else {
+                    // not a note after all
+                    out.write(PREAMBLE, 0, matched);
+                    matched = c == PREAMBLE[0] ? 1 : 0;
+                    run = matched > 0 ? i + 1 : i;
+                }
+            } else if (c == PREAMBLE[0]) {
+                out.write(b, run, i - run);
+                matched = 1;
+                run = i + 1;
+            }
+        }
+        if (!inNote && matched == 0 && run < end) {
+            out.write(b, run, end - run);
+        }
+    }
+
+    /**
+     * Passes on anything held back in case it started a note, without closing the stream.
+     */
+    public void finish() throws IOException {
+        if (!inNote && matched > 0) {
+            out.write(PREAMBLE, 0, matched);
+            matched = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
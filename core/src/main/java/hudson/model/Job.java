@@ -88,8 +88,10 @@ import jenkins.model.DirectlyModifiableTopLevelItemGroup;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
 import jenkins.model.ModelObjectWithChildren;
+import jenkins.model.PermalinkCache;
 import jenkins.model.ProjectNamingStrategy;
 import jenkins.model.RunIdMigrator;
+import jenkins.model.lazy.BuildSummary;
 import jenkins.model.lazy.LazyBuildMixIn;
 import jenkins.scm.RunWithSCM;
 import jenkins.security.HexStringConfidentialKey;
@@ -164,12 +166,10 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     private volatile BuildDiscarder logRotator;
 
     /**
-     * Not all plugins are good at calculating their health report quickly.
-     * These fields are used to cache the health reports to speed up rendering
-     * the main page.
+     * Not all plugins are good at calculating their health report quickly,
+     * so they are cached along with permalinks to speed up rendering the main page.
      */
-    private transient Integer cachedBuildHealthReportsBuildNumber = null;
-    private transient List<HealthReport> cachedBuildHealthReports = null;
+    private transient volatile PermalinkCache permalinkCache;
 
     boolean keepDependencies;
 
@@ -726,7 +726,26 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported(name="allBuilds",visibility=-2)
     @WithBridgeMethods(List.class)
     public RunList<RunT> getBuilds() {
-        return RunList.<RunT>fromRuns(_getRuns().values());
+        SortedMap<Integer, ? extends RunT> runs = _getRuns();
+        if (runs instanceof RunMap) {
+            return RunList.<RunT>fromRunMap((RunMap<?>) runs);
+        }
+        return RunList.<RunT>fromRuns(runs.values());
+    }
+
+    /**
+     * Gets the result, timestamp and duration of a build, without loading it if possible.
+     *
+     * @return null if there is no such build
+     * @since TODO
+     */
+    public @CheckForNull BuildSummary getBuildSummary(int n) {
+        SortedMap<Integer, ? extends RunT> runs = _getRuns();
+        if (runs instanceof RunMap) {
+            return ((RunMap<?>) runs).getSummary(n);
+        }
+        RunT r = getBuildByNumber(n);
+        return r == null ? null : BuildSummary.of(r);
     }
 
     /**
@@ -985,11 +1004,43 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported
     @QuickSilver
     public RunT getLastCompletedBuild() {
+        PermalinkCache cache = getPermalinkCache();
+        int n = cache.getNumber(Permalink.LAST_COMPLETED_BUILD.getId());
+        boolean finishing = false;
+        if (n > 0) {
+            RunT r = getBuildByNumber(n);
+            if (r != null) {
+                if (!r.isBuilding())
+                    return r;
+                // about to be completed; do not move the cache back from it
+                finishing = true;
+            }
+        }
         RunT r = getLastBuild();
         while (r != null && r.isBuilding())
             r = r.getPreviousBuild();
+        if (!finishing)
+            cache.update(Permalink.LAST_COMPLETED_BUILD.getId(), r);
         return r;
     }
+
+    /**
+     * Gets the cache of what permalinks point to and of health reports.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public @Nonnull PermalinkCache getPermalinkCache() {
+        PermalinkCache cache = permalinkCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = permalinkCache;
+                if (cache == null) {
+                    permalinkCache = cache = new PermalinkCache(this);
+                }
+            }
+        }
+        return cache;
+    }
     
     /**
      * Returns the last {@code numberOfBuilds} builds with a build result ≥ {@code threshold}
@@ -1202,22 +1253,22 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported(name = "healthReport")
     public List<HealthReport> getBuildHealthReports() {
         List<HealthReport> reports = new ArrayList<HealthReport>();
-        RunT lastBuild = getLastBuild();
-
-        if (lastBuild != null && lastBuild.isBuilding()) {
-            // show the previous build's report until the current one is
-            // finished building.
-            lastBuild = lastBuild.getPreviousBuild();
+        // show the previous build's report until the current one is
+        // finished building.
+        PermalinkCache cache = getPermalinkCache();
+        PermalinkCache.Target last = cache.get(Permalink.LAST_COMPLETED_BUILD.getId());
+        if (last == null) {
+            return reports;
         }
 
         // check the cache
-        if (cachedBuildHealthReportsBuildNumber != null
-                && cachedBuildHealthReports != null
-                && lastBuild != null
-                && cachedBuildHealthReportsBuildNumber.intValue() == lastBuild
-                        .getNumber()) {
-            reports.addAll(cachedBuildHealthReports);
-        } else if (lastBuild != null) {
+        List<HealthReport> cached = cache.getHealthReports(last.getNumber());
+        if (cached != null) {
+            return cached;
+        }
+
+        RunT lastBuild = getBuildByNumber(last.getNumber());
+        if (lastBuild != null) {
             for (HealthReportingAction healthReportingAction : lastBuild
                     .getActions(HealthReportingAction.class)) {
                 final HealthReport report = healthReportingAction
@@ -1242,8 +1293,7 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
             Collections.sort(reports);
 
             // store the cache
-            cachedBuildHealthReportsBuildNumber = lastBuild.getNumber();
-            cachedBuildHealthReports = new ArrayList<HealthReport>(reports);
+            cache.setHealthReports(lastBuild.getNumber(), reports);
         }
 
         return reports;
@@ -1350,6 +1400,7 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
                 submit(req, rsp);
                 bc.commit();
             }
+            getPermalinkCache().invalidateHealthReports();
             ItemListener.fireOnUpdated(this);
 
             final ProjectNamingStrategy namingStrategy = Jenkins.getInstance().getProjectNamingStrategy();
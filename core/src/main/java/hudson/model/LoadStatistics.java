@@ -400,6 +400,8 @@ public abstract class LoadStatistics {
             j.unlabeledLoad.updateCounts(j.unlabeledLoad.computeSnapshot(bis));
 
             j.overallLoad.updateCounts(j.overallLoad.computeSnapshot(bis));
+
+            j.getQueue().getMetrics().tick();
         }
 
         private int count(List<Queue.BuildableItem> bis, Label l) {
@@ -27,6 +27,10 @@ package hudson.model;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.infradna.tool.bridge_method_injector.WithBridgeMethods;
 import hudson.BulkChange;
 import hudson.Extension;
@@ -43,7 +47,9 @@ import hudson.model.labels.LabelAssignmentAction;
 import hudson.model.queue.AbstractQueueTask;
 import hudson.model.queue.Executables;
 import hudson.model.queue.QueueListener;
+import hudson.model.queue.QueueListenerDispatcher;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.model.queue.ScheduleRequest;
 import hudson.model.queue.ScheduleResult;
 import hudson.model.queue.ScheduleResult.Created;
 import hudson.model.queue.SubTask;
@@ -110,6 +116,7 @@ import javax.annotation.concurrent.GuardedBy;
 import javax.servlet.ServletException;
 
 import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn;
 import jenkins.security.QueueItemAuthenticator;
 import jenkins.util.AtmostOneTaskExecutor;
 import org.acegisecurity.AccessDeniedException;
@@ -119,6 +126,7 @@ import org.jenkinsci.remoting.RoleChecker;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
@@ -126,6 +134,8 @@ import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 
 import com.thoughtworks.xstream.XStream;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import com.thoughtworks.xstream.converters.basic.AbstractSingleValueConverter;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import javax.annotation.CheckForNull;
@@ -185,6 +195,12 @@ public class Queue extends ResourceController implements Saveable {
      */
     private final Set<WaitingItem> waitingList = new TreeSet<WaitingItem>();
 
+    /**
+     * {@link #waitingList} keyed by {@link Item#task}, so that folding a duplicate submission into
+     * an existing item does not need to walk every waiting item.
+     */
+    private transient final Map<Task,List<WaitingItem>> waitingListByTask = new HashMap<Task,List<WaitingItem>>();
+
     /**
      * {@link Task}s that can be built immediately
      * but blocked because another build is in progress,
@@ -207,7 +223,12 @@ public class Queue extends ResourceController implements Saveable {
      */
     private final ItemList<BuildableItem> pendings = new ItemList<BuildableItem>();
 
-    private transient volatile Snapshot snapshot = new Snapshot(waitingList, blockedProjects, buildables, pendings);
+    /**
+     * Incremented whenever {@link #waitingList} changes, so that {@link Snapshot} can tell when it can be reused.
+     */
+    private transient int waitingListVersion;
+
+    private transient volatile Snapshot snapshot = new Snapshot(null, waitingList, waitingListVersion, blockedProjects, buildables, pendings);
 
     /**
      * Items that left queue would stay here for a while to enable tracking via {@link Item#getId()}.
@@ -273,8 +294,11 @@ public class Queue extends ResourceController implements Saveable {
             if (reason != null) {
                 return reason;
             }
+            QueueMetrics metrics = Jenkins.getInstance().getQueue().metrics;
             for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+                long start = System.nanoTime();
                 reason = d.canTake(node, item);
+                metrics.dispatcherCalled(d, "canTake", System.nanoTime() - start, reason != null);
                 if (reason != null) {
                     return reason;
                 }
@@ -318,10 +342,37 @@ public class Queue extends ResourceController implements Saveable {
 
     private volatile transient QueueSorter sorter;
 
+    /**
+     * Minimum time between the end of a maintenance pass triggered by {@link #scheduleMaintenance()} and the start of
+     * the next one. All the requests made in between are served by that next pass. 0 means no limit.
+     */
+    static /* Script Console modifiable */ long MAINTENANCE_MIN_INTERVAL_MILLIS = SystemProperties.getLong("hudson.model.Queue.maintenanceMinIntervalMillis", 0L);
+
+    /**
+     * {@link System#nanoTime} at the end of the last maintenance pass, or 0.
+     */
+    private transient volatile long lastMaintenance;
+
+    private transient volatile boolean maintaining;
+
+    private transient final Object delayedMaintenanceLock = new Object();
+
+    /**
+     * Requests for maintenance held back by {@link #MAINTENANCE_MIN_INTERVAL_MILLIS}, all served by the same pass.
+     * Guarded by {@link #delayedMaintenanceLock}.
+     */
+    private transient SettableFuture<Void> delayedMaintenance;
+
     private transient final AtmostOneTaskExecutor<Void> maintainerThread = new AtmostOneTaskExecutor<Void>(new Callable<Void>() {
         @Override
         public Void call() throws Exception {
-            maintain();
+            maintaining = true;
+            try {
+                maintain();
+            } finally {
+                lastMaintenance = System.nanoTime();
+                maintaining = false;
+            }
             return null;
         }
 
@@ -331,10 +382,18 @@ public class Queue extends ResourceController implements Saveable {
         }
     });
 
-    private transient final ReentrantLock lock = new ReentrantLock();
+    private transient final QueueMetrics metrics = new QueueMetrics();
+
+    private transient final ReentrantLock lock = metrics.new InstrumentedLock();
 
     private transient final Condition condition = lock.newCondition();
 
+    /**
+     * Set while {@link #scheduleAll(List)} is running, to collapse the maintenance requests of the batch into one.
+     */
+    @GuardedBy("lock")
+    private transient boolean deferMaintenance, maintenanceDeferred;
+
     public Queue(@Nonnull LoadBalancer loadBalancer) {
         this.loadBalancer =  loadBalancer.sanitize();
         // if all the executors are busy doing something, then the queue won't be maintained in
@@ -342,6 +401,14 @@ public class Queue extends ResourceController implements Saveable {
         new MaintainTask(this).periodic();
     }
 
+    /**
+     * Gets the timing statistics of this queue.
+     * @since TODO
+     */
+    public @Nonnull QueueMetrics getMetrics() {
+        return metrics;
+    }
+
     public LoadBalancer getLoadBalancer() {
         return loadBalancer;
     }
@@ -375,6 +442,8 @@ public class Queue extends ResourceController implements Saveable {
         try { try {
             // Clear items, for the benefit of reloading.
             waitingList.clear();
+            waitingListByTask.clear();
+            waitingListVersion++;
             blockedProjects.clear();
             buildables.clear();
             pendings.clear();
@@ -393,24 +462,44 @@ public class Queue extends ResourceController implements Saveable {
                 queueFile.delete();
             } else {
                 queueFile = getXMLQueueFile();
-                if (queueFile.exists()) {
-                    Object unmarshaledObj = new XmlFile(XSTREAM, queueFile).read();
-                    List items;
-
-                    if (unmarshaledObj instanceof State) {
-                        State state = (State) unmarshaledObj;
-                        items = state.items;
-                        WaitingItem.COUNTER.set(state.counter);
-                    } else {
-                        // backward compatibility - it's an old List queue.xml
-                        items = (List) unmarshaledObj;
-                        long maxId = 0;
+                File journalFile = getJournalFile();
+                if (queueFile.exists() || journalFile.exists()) {
+                    List items = new ArrayList();
+
+                    if (queueFile.exists()) {
+                        Object unmarshaledObj = new XmlFile(XSTREAM, queueFile).read();
+
+                        if (unmarshaledObj instanceof State) {
+                            State state = (State) unmarshaledObj;
+                            items = state.items;
+                            WaitingItem.COUNTER.set(state.counter);
+                        } else {
+                            // backward compatibility - it's an old List queue.xml
+                            items = (List) unmarshaledObj;
+                            long maxId = 0;
+                            for (Object o : items) {
+                                if (o instanceof Item) {
+                                    maxId = Math.max(maxId, ((Item)o).id);
+                                }
+                            }
+                            WaitingItem.COUNTER.set(maxId);
+                        }
+                    }
+
+                    if (journalFile.exists()) {
+                        // changes made since queue.xml was written
+                        QueueJournal.get().reset();
+                        items = QueueJournal.replay(journalFile, items);
                         for (Object o : items) {
-                            if (o instanceof Item) {
-                                maxId = Math.max(maxId, ((Item)o).id);
+                            if (o instanceof Item && ((Item) o).id > WaitingItem.COUNTER.get()) {
+                                WaitingItem.COUNTER.set(((Item) o).id);
                             }
                         }
-                        WaitingItem.COUNTER.set(maxId);
+                        // as items enter the queue below, they get recorded in a fresh journal
+                        File bk = new File(journalFile.getPath() + ".bak");
+                        bk.delete();
+                        journalFile.renameTo(bk);
+                        journalFile.delete();
                     }
 
                     for (Object o : items) {
@@ -436,15 +525,17 @@ public class Queue extends ResourceController implements Saveable {
                         }
                     }
 
-                    // I just had an incident where all the executors are dead at AbstractProject._getRuns()
-                    // because runs is null. Debugger revealed that this is caused by a MatrixConfiguration
-                    // object that doesn't appear to be de-serialized properly.
-                    // I don't know how this problem happened, but to diagnose this problem better
-                    // when it happens again, save the old queue file for introspection.
-                    File bk = new File(queueFile.getPath() + ".bak");
-                    bk.delete();
-                    queueFile.renameTo(bk);
-                    queueFile.delete();
+                    if (queueFile.exists()) {
+                        // I just had an incident where all the executors are dead at AbstractProject._getRuns()
+                        // because runs is null. Debugger revealed that this is caused by a MatrixConfiguration
+                        // object that doesn't appear to be de-serialized properly.
+                        // I don't know how this problem happened, but to diagnose this problem better
+                        // when it happens again, save the old queue file for introspection.
+                        File bk = new File(queueFile.getPath() + ".bak");
+                        bk.delete();
+                        queueFile.renameTo(bk);
+                        queueFile.delete();
+                    }
                 }
             }
         } catch (IOException e) {
@@ -452,10 +543,18 @@ public class Queue extends ResourceController implements Saveable {
         } finally { updateSnapshot(); } } finally {
             lock.unlock();
         }
+
+        if (QueueJournal.isEnabled()) {
+            // blocked and buildable items are not recorded in the journal, so checkpoint right away
+            save();
+        }
     }
 
     /**
      * Persists the queue contents to the disk.
+     *
+     * <p>
+     * When the {@link QueueJournal} is enabled, this also serves as its checkpoint.
      */
     public void save() {
         if(BulkChange.contains(this))  return;
@@ -478,6 +577,9 @@ public class Queue extends ResourceController implements Saveable {
 
             try {
                 queueFile.write(state);
+                if (QueueJournal.isEnabled()) {
+                    QueueJournal.get().checkpointed(getJournalFile());
+                }
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "Failed to write out the queue file " + getXMLQueueFile(), e);
             }
@@ -514,6 +616,10 @@ public class Queue extends ResourceController implements Saveable {
         return new File(Jenkins.get().getRootDir(), "queue.xml");
     }
 
+    /*package*/ File getJournalFile() {
+        return new File(Jenkins.get().getRootDir(), "queue.journal");
+    }
+
     /**
      * @deprecated as of 1.311
      *      Use {@link #schedule(AbstractProject)}
@@ -596,6 +702,105 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * Schedules several tasks at once.
+     *
+     * <p>
+     * This is equivalent to calling {@link #schedule2(Task, int, List)} for each request in order,
+     * except that the queue lock is acquired only once, and a single maintenance pass is scheduled for
+     * the whole batch instead of one per task. Use this when submitting many tasks together,
+     * such as when fanning out to many downstream jobs.
+     *
+     * @return
+     *      the outcome of each request, in the same order as the requests.
+     *      See {@link #schedule2(Task, int, List)} for their meaning.
+     * @since TODO
+     */
+    public @Nonnull List<ScheduleResult> scheduleAll(@Nonnull List<ScheduleRequest> requests) {
+        List<ScheduleResult> results = new ArrayList<ScheduleResult>(requests.size());
+        lock.lock();
+        try { try {
+            deferMaintenance = true;
+            for (ScheduleRequest r : requests) {
+                // QueueDecisionHandler is allowed to mutate the list
+                List<Action> actions = new ArrayList<Action>(r.getActions());
+                ScheduleResult result = null;
+                for (QueueDecisionHandler h : QueueDecisionHandler.all()) {
+                    if (!h.shouldSchedule(r.getTask(), actions)) {
+                        result = ScheduleResult.refused();    // veto
+                        break;
+                    }
+                }
+                if (result == null) {
+                    result = scheduleInternal(r.getTask(), r.getQuietPeriod(), actions);
+                }
+                results.add(result);
+            }
+        } finally {
+            deferMaintenance = false;
+            if (maintenanceDeferred) {
+                maintenanceDeferred = false;
+                scheduleMaintenance();
+            }
+            updateSnapshot();
+        } } finally {
+            lock.unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Requests a {@link #scheduleMaintenance() maintenance pass}, unless we are in the middle of
+     * {@link #scheduleAll(List)}, which requests one at the end of the batch.
+     */
+    @GuardedBy("lock")
+    private void requestMaintenance() {
+        if (deferMaintenance) {
+            maintenanceDeferred = true;
+        } else {
+            scheduleMaintenance();
+        }
+    }
+
+    /**
+     * Schedules builds of several jobs in one request, as in {@code POST queue/scheduleBuilds?job=a&job=folder/b}.
+     * Each job is scheduled with its default quiet period and parameter values.
+     *
+     * @return JSON listing, for each requested job, the queue item URL, or that the scheduling was refused
+     *      (including when the job does not exist or the user may not build it.)
+     * @since TODO
+     */
+    @RequirePOST
+    public HttpResponse doScheduleBuilds(StaplerRequest req) {
+        String[] names = req.getParameterValues("job");
+        if (names == null) {
+            names = new String[0];
+        }
+        Jenkins jenkins = Jenkins.get();
+        List<Job<?,?>> jobs = new ArrayList<Job<?,?>>(names.length);
+        for (String name : names) {
+            Job<?,?> job = jenkins.getItemByFullName(name, Job.class);
+            jobs.add(job != null && job.hasPermission(hudson.model.Item.BUILD) ? job : null);
+        }
+        List<Job<?,?>> schedulable = new ArrayList<Job<?,?>>(jobs);
+        schedulable.removeAll(Collections.singleton(null));
+        Iterator<Item> scheduled = ParameterizedJobMixIn.scheduleBuilds(schedulable, -1,
+                new CauseAction(new Cause.UserIdCause())).iterator();
+
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < names.length; i++) {
+            Item item = jobs.get(i) != null ? scheduled.next() : null;
+            JSONObject o = new JSONObject().element("job", names[i]);
+            if (item != null) {
+                o.element("id", item.getId()).element("url", item.getUrl());
+            } else {
+                o.element("refused", true);
+            }
+            items.add(o);
+        }
+        return HttpResponses.okJSON(new JSONObject().element("items", items));
+    }
+
     /**
      * Schedules an execution of a task.
      *
@@ -635,7 +840,7 @@ public class Queue extends ResourceController implements Saveable {
                 // put the item in the queue
                 WaitingItem added = new WaitingItem(due, p, actions);
                 added.enter(this);
-                scheduleMaintenance();   // let an executor know that a new item is in the queue.
+                requestMaintenance();   // let an executor know that a new item is in the queue.
                 return ScheduleResult.created(added);
             }
 
@@ -664,7 +869,7 @@ public class Queue extends ResourceController implements Saveable {
                 queueUpdated = true;
             }
 
-            if (queueUpdated) scheduleMaintenance();
+            if (queueUpdated) requestMaintenance();
 
             // REVISIT: when there are multiple existing items in the queue that matches the incoming one,
             // whether the new one should affect all existing ones or not is debatable. I for myself
@@ -723,10 +928,9 @@ public class Queue extends ResourceController implements Saveable {
         lock.lock();
         try { try {
             LOGGER.log(Level.FINE, "Cancelling {0}", p);
-            for (WaitingItem item : waitingList) {
-                if (item.task.equals(p)) {
-                    return item.cancel(this);
-                }
+            List<WaitingItem> waiting = liveGetWaitingItems(p);
+            if (!waiting.isEmpty()) {
+                return waiting.get(0).cancel(this);
             }
             // use bitwise-OR to make sure that both branches get evaluated all the time
             return blockedProjects.cancel(p) != null | buildables.cancel(p) != null;
@@ -736,7 +940,14 @@ public class Queue extends ResourceController implements Saveable {
     }
 
     private void updateSnapshot() {
-        Snapshot revised = new Snapshot(waitingList, blockedProjects, buildables, pendings);
+        Snapshot current = snapshot;
+        if (current.waitingListVersion == waitingListVersion
+                && current.blockedProjectsVersion == blockedProjects.version()
+                && current.buildablesVersion == buildables.version()
+                && current.pendingsVersion == pendings.version()) {
+            return; // nothing changed, so keep the current snapshot along with any lookup tables built on it
+        }
+        Snapshot revised = new Snapshot(snapshot, waitingList, waitingListVersion, blockedProjects, buildables, pendings);
         if (LOGGER.isLoggable(Level.FINEST)) {
             LOGGER.log(Level.FINEST, "{0} → {1}; leftItems={2}", new Object[] {snapshot, revised, leftItems.asMap()});
         }
@@ -788,18 +999,9 @@ public class Queue extends ResourceController implements Saveable {
         Snapshot s = this.snapshot;
         List<Item> r = new ArrayList<Item>();
 
-        for(WaitingItem p : s.waitingList) {
+        for (Item p : s.index().items) {
             r = checkPermissionsAndAddToList(r, p);
         }
-        for (BlockedItem p : s.blockedProjects){
-            r = checkPermissionsAndAddToList(r, p);
-        }
-        for (BuildableItem p : reverse(s.buildables)) {
-            r = checkPermissionsAndAddToList(r, p);
-        }
-        for (BuildableItem p : reverse(s.pendings)) {
-            r= checkPermissionsAndAddToList(r, p);
-        }
         Item[] items = new Item[r.size()];
         r.toArray(items);
         return items;
@@ -827,18 +1029,9 @@ public class Queue extends ResourceController implements Saveable {
         Snapshot s = this.snapshot;
         List<StubItem> r = new ArrayList<StubItem>();
 
-        for(WaitingItem p : s.waitingList) {
+        for (Item p : s.index().items) {
             r = filterDiscoverableItemListBasedOnPermissions(r, p);
         }
-        for (BlockedItem p : s.blockedProjects){
-            r = filterDiscoverableItemListBasedOnPermissions(r, p);
-        }
-        for (BuildableItem p : reverse(s.buildables)) {
-            r = filterDiscoverableItemListBasedOnPermissions(r, p);
-        }
-        for (BuildableItem p : reverse(s.pendings)) {
-            r= filterDiscoverableItemListBasedOnPermissions(r, p);
-        }
         StubItem[] items = new StubItem[r.size()];
         r.toArray(items);
         return items;
@@ -877,23 +1070,9 @@ public class Queue extends ResourceController implements Saveable {
     }
 
     public Item getItem(long id) {
-        Snapshot snapshot = this.snapshot;
-        for (Item item : snapshot.blockedProjects) {
-            if (item.id == id)
-                return item;
-        }
-        for (Item item : snapshot.buildables) {
-            if (item.id == id)
-                return item;
-        }
-        for (Item item : snapshot.pendings) {
-            if (item.id == id)
-                return item;
-        }
-        for (Item item : snapshot.waitingList) {
-            if (item.id == id) {
-                return item;
-            }
+        Item item = snapshot.index().byId.get(id);
+        if (item != null) {
+            return item;
         }
         return leftItems.getIfPresent(id);
     }
@@ -993,11 +1172,7 @@ public class Queue extends ResourceController implements Saveable {
      * Is the given task currently pending execution?
      */
     public boolean isPending(Task t) {
-        Snapshot snapshot = this.snapshot;
-        for (BuildableItem i : snapshot.pendings)
-            if (i.task.equals(t))
-                return true;
-        return false;
+        return snapshot.index().isPending(t);
     }
 
     /**
@@ -1058,25 +1233,8 @@ public class Queue extends ResourceController implements Saveable {
      * @return null if the project is not in the queue.
      */
     public Item getItem(Task t) {
-        Snapshot snapshot = this.snapshot;
-        for (Item item : snapshot.blockedProjects) {
-            if (item.task.equals(t))
-                return item;
-        }
-        for (Item item : snapshot.buildables) {
-            if (item.task.equals(t))
-                return item;
-        }
-        for (Item item : snapshot.pendings) {
-            if (item.task.equals(t))
-                return item;
-        }
-        for (Item item : snapshot.waitingList) {
-            if (item.task.equals(t)) {
-                return item;
-            }
-        }
-        return null;
+        List<Item> items = snapshot.index().byTask(t);
+        return items == null ? null : items.get(0);
     }
 
     /**
@@ -1098,15 +1256,34 @@ public class Queue extends ResourceController implements Saveable {
                     LOGGER.log(Level.FINE, "ignoring {0} during scheduleInternal", thePendings);
                 }
             }
-            for (Item item : waitingList) {
+            result.addAll(liveGetWaitingItems(t));
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the {@link WaitingItem}s of the given task, in {@link #waitingList} order.
+     * Must be called with the lock held.
+     */
+    private List<WaitingItem> liveGetWaitingItems(Task t) {
+        if (!isIndexable(t)) {
+            List<WaitingItem> result = new ArrayList<WaitingItem>();
+            for (WaitingItem item : waitingList) {
                 if (item.task.equals(t)) {
                     result.add(item);
                 }
             }
             return result;
-        } finally {
-            lock.unlock();
         }
+        List<WaitingItem> items = waitingListByTask.get(t);
+        if (items == null) {
+            return Collections.emptyList();
+        }
+        List<WaitingItem> result = new ArrayList<WaitingItem>(items);
+        Collections.sort(result);
+        return result;
     }
 
     /**
@@ -1115,36 +1292,15 @@ public class Queue extends ResourceController implements Saveable {
      * @return empty if the project is not in the queue.
      */
     public List<Item> getItems(Task t) {
-        Snapshot snapshot = this.snapshot;
-        List<Item> result = new ArrayList<Item>();
-        for (Item item : snapshot.blockedProjects) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        for (Item item : snapshot.buildables) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        for (Item item : snapshot.pendings) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        for (Item item : snapshot.waitingList) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        return result;
+        List<Item> items = snapshot.index().byTask(t);
+        return items == null ? new ArrayList<Item>() : new ArrayList<Item>(items);
     }
 
     /**
      * Returns true if this queue contains the said project.
      */
     public boolean contains(Task t) {
-        return getItem(t)!=null;
+        return snapshot.index().byTask(t) != null;
     }
 
     /**
@@ -1156,7 +1312,10 @@ public class Queue extends ResourceController implements Saveable {
         lock.lock();
         try { try {
             final WorkUnit wu = exec.getCurrentWorkUnit();
-            pendings.remove(wu.context.item);
+            if (pendings.remove(wu.context.item)) {
+                metrics.stageLeft(QueueMetrics.Stage.PENDING, wu.context.item.stageSince);
+                metrics.dispatched();
+            }
 
             LeftItem li = new LeftItem(wu.context);
             li.enter(this);
@@ -1176,7 +1335,61 @@ public class Queue extends ResourceController implements Saveable {
     @WithBridgeMethods(void.class)
     public Future<?> scheduleMaintenance() {
         // LOGGER.info("Scheduling maintenance");
-        return maintainerThread.submit();
+        long wait = getMaintenanceWait();
+        if (wait <= 0) {
+            return maintainerThread.submit();
+        }
+        synchronized (delayedMaintenanceLock) {
+            if (delayedMaintenance == null) {
+                delayedMaintenance = SettableFuture.create();
+                Timer.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submitDelayedMaintenance(this);
+                    }
+                }, wait, TimeUnit.MILLISECONDS);
+            }
+            return delayedMaintenance;
+        }
+    }
+
+    /**
+     * How long a maintenance pass must wait for {@link #MAINTENANCE_MIN_INTERVAL_MILLIS}.
+     */
+    private long getMaintenanceWait() {
+        if (MAINTENANCE_MIN_INTERVAL_MILLIS <= 0) {
+            return 0;
+        }
+        if (maintaining) {
+            return MAINTENANCE_MIN_INTERVAL_MILLIS; // at least; checked again then
+        }
+        long last = lastMaintenance;
+        return last == 0 ? 0 : MAINTENANCE_MIN_INTERVAL_MILLIS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - last);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void submitDelayedMaintenance(Runnable retry) {
+        long wait = getMaintenanceWait();
+        if (wait > 0) {
+            Timer.get().schedule(retry, wait, TimeUnit.MILLISECONDS);
+            return;
+        }
+        final SettableFuture<Void> requests;
+        synchronized (delayedMaintenanceLock) {
+            requests = delayedMaintenance;
+            delayedMaintenance = null;
+        }
+        // AtmostOneTaskExecutor hands out SettableFutures
+        Futures.addCallback((ListenableFuture<Void>) maintainerThread.submit(), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                requests.set(result);
+            }
+            @Override
+            public void onFailure(Throwable t) {
+                requests.setException(t);
+            }
+        });
     }
 
     /**
@@ -1193,7 +1406,9 @@ public class Queue extends ResourceController implements Saveable {
         }
 
         for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+            long start = System.nanoTime();
             causeOfBlockage = d.canRun(i);
+            metrics.dispatcherCalled(d, "canRun", System.nanoTime() - start, causeOfBlockage != null);
             if (causeOfBlockage != null)
                 return causeOfBlockage;
         }
@@ -1206,7 +1421,7 @@ public class Queue extends ResourceController implements Saveable {
             // If `task.isConcurrentBuild` returns `false`,
             // it should also return non-null value for `task.getCauseOfBlockage` in case of on-going execution.
             // But both are public non-final methods, so, we need to keep backward compatibility here.
-            // And check one more time across all `buildables` and `pendings` for O(N) each.
+            // And check one more time across all `buildables` and `pendings` (a hash lookup each, see ItemList).
             if (!i.task.isConcurrentBuild() && (buildables.containsKey(i.task) || pendings.containsKey(i.task))) {
                 return CauseOfBlockage.fromMessage(Messages._Queue_InProgress());
             }
@@ -1460,6 +1675,7 @@ public class Queue extends ResourceController implements Saveable {
             return;
         }
         lock.lock();
+        long started = System.nanoTime();
         try { try {
 
             LOGGER.log(Level.FINE, "Queue maintenance started on {0} with {1}", new Object[] {this, snapshot});
@@ -1581,7 +1797,10 @@ public class Queue extends ResourceController implements Saveable {
             
             // Ensure that identification of blocked tasks is using the live state: JENKINS-27708 & JENKINS-27871
             updateSnapshot();
-            
+
+            // narrow down the executors each buildable item needs to be matched against
+            JobOfferIndex parkedByLabel = new JobOfferIndex(parked.values());
+
             // allocate buildable jobs to executors
             for (BuildableItem p : new ArrayList<BuildableItem>(
                     buildables)) {// copy as we'll mutate the list in the loop
@@ -1609,9 +1828,10 @@ public class Queue extends ResourceController implements Saveable {
                     }
                 } else {
 
-                    List<JobOffer> candidates = new ArrayList<>(parked.size());
-                    List<CauseOfBlockage> reasons = new ArrayList<>(parked.size());
-                    for (JobOffer j : parked.values()) {
+                    Collection<JobOffer> offers = parkedByLabel.offersFor(p);
+                    List<JobOffer> candidates = new ArrayList<>(offers.size());
+                    List<CauseOfBlockage> reasons = new ArrayList<>(offers.size());
+                    for (JobOffer j : offers) {
                         CauseOfBlockage reason = j.getCauseOfBlockage(p);
                         if (reason == null) {
                             LOGGER.log(Level.FINEST,
@@ -1632,6 +1852,7 @@ public class Queue extends ResourceController implements Saveable {
                         // check if we can execute other projects
                         LOGGER.log(Level.FINER, "Failed to map {0} to executors. candidates={1} parked={2}",
                                 new Object[]{p, candidates, parked.values()});
+                        reasons.addAll(parkedByLabel.outOfLabelCausesFor(p));
                         p.transientCausesOfBlockage = reasons.isEmpty() ? null : reasons;
                         continue;
                     }
@@ -1663,6 +1884,7 @@ public class Queue extends ResourceController implements Saveable {
                 }
             }
         } finally { updateSnapshot(); } } finally {
+            metrics.maintained(System.nanoTime() - started);
             lock.unlock();
         }
     }
@@ -1773,6 +1995,7 @@ public class Queue extends ResourceController implements Saveable {
     private boolean makePending(BuildableItem p) {
         // LOGGER.info("Making "+p.task+" pending"); // REMOVE
         p.isPending = true;
+        p.stageSince = System.nanoTime();
         return pendings.add(p);
     }
 
@@ -1823,7 +2046,9 @@ public class Queue extends ResourceController implements Saveable {
      * <p>
      * {@link #equals(Object) Value equality} of {@link Task}s is used
      * to collapse two tasks into one. This is used to avoid infinite
-     * queue backlog.
+     * queue backlog. The queue indexes its items by task, so an implementation
+     * that overrides {@link #equals(Object)} should override {@link #hashCode()} consistently;
+     * tasks that do not are looked up by scanning the whole queue.
      *
      * <p>
      * Pending {@link Task}s are persisted when Hudson shuts down, so
@@ -2083,6 +2308,11 @@ public class Queue extends ResourceController implements Saveable {
 
         private final long inQueueSince;
 
+        /**
+         * {@link System#nanoTime()} when this item entered its current stage, or 0 if unknown, as after a restart.
+         */
+        /*package*/ transient long stageSince;
+
         /**
          * Build is blocked because another build is in progress,
          * required {@link Resource}s are not available, or otherwise blocked
@@ -2482,14 +2712,15 @@ public class Queue extends ResourceController implements Saveable {
         @Override
         /*package*/ void enter(Queue q) {
             if (q.waitingList.add(this)) {
-                for (QueueListener ql : QueueListener.all()) {
-                    try {
-                        ql.onEnterWaiting(this);
-                    } catch (Throwable e) {
-                        // don't let this kill the queue
-                        LOGGER.log(Level.WARNING, "QueueListener failed while processing "+this,e);
-                    }
+                q.waitingListVersion++;
+                List<WaitingItem> items = q.waitingListByTask.get(task);
+                if (items == null) {
+                    items = new ArrayList<WaitingItem>(1);
+                    q.waitingListByTask.put(task, items);
                 }
+                items.add(this);
+                stageSince = System.nanoTime();
+                QueueListenerDispatcher.fire(this, QueueListener::onEnterWaiting);
             }
         }
 
@@ -2497,14 +2728,16 @@ public class Queue extends ResourceController implements Saveable {
         /*package*/ boolean leave(Queue q) {
             boolean r = q.waitingList.remove(this);
             if (r) {
-                for (QueueListener ql : QueueListener.all()) {
-                    try {
-                        ql.onLeaveWaiting(this);
-                    } catch (Throwable e) {
-                        // don't let this kill the queue
-                        LOGGER.log(Level.WARNING, "QueueListener failed while processing "+this,e);
+                q.waitingListVersion++;
+                List<WaitingItem> items = q.waitingListByTask.get(task);
+                if (items != null) {
+                    items.remove(this);
+                    if (items.isEmpty()) {
+                        q.waitingListByTask.remove(task);
                     }
                 }
+                q.metrics.stageLeft(QueueMetrics.Stage.WAITING, stageSince);
+                QueueListenerDispatcher.fire(this, QueueListener::onLeaveWaiting);
             }
             return r;
         }
@@ -2573,28 +2806,16 @@ public class Queue extends ResourceController implements Saveable {
         /*package*/ void enter(Queue q) {
             LOGGER.log(Level.FINE, "{0} is blocked", this);
             blockedProjects.add(this);
-            for (QueueListener ql : QueueListener.all()) {
-                try {
-                    ql.onEnterBlocked(this);
-                } catch (Throwable e) {
-                    // don't let this kill the queue
-                    LOGGER.log(Level.WARNING, "QueueListener failed while processing "+this,e);
-                }
-            }
+            stageSince = System.nanoTime();
+            QueueListenerDispatcher.fire(this, QueueListener::onEnterBlocked);
         }
 
         /*package*/ boolean leave(Queue q) {
             boolean r = blockedProjects.remove(this);
             if (r) {
                 LOGGER.log(Level.FINE, "{0} no longer blocked", this);
-                for (QueueListener ql : QueueListener.all()) {
-                    try {
-                        ql.onLeaveBlocked(this);
-                    } catch (Throwable e) {
-                        // don't let this kill the queue
-                        LOGGER.log(Level.WARNING, "QueueListener failed while processing "+this,e);
-                    }
-                }
+                q.metrics.stageLeft(QueueMetrics.Stage.BLOCKED, stageSince);
+                QueueListenerDispatcher.fire(this, QueueListener::onLeaveBlocked);
             }
             return r;
         }
@@ -2680,14 +2901,8 @@ public class Queue extends ResourceController implements Saveable {
         @Override
         /*package*/ void enter(Queue q) {
             q.buildables.add(this);
-            for (QueueListener ql : QueueListener.all()) {
-                try {
-                    ql.onEnterBuildable(this);
-                } catch (Throwable e) {
-                    // don't let this kill the queue
-                    LOGGER.log(Level.WARNING, "QueueListener failed while processing "+this,e);
-                }
-            }
+            stageSince = System.nanoTime();
+            QueueListenerDispatcher.fire(this, QueueListener::onEnterBuildable);
         }
 
         @Override
@@ -2695,14 +2910,8 @@ public class Queue extends ResourceController implements Saveable {
             boolean r = q.buildables.remove(this);
             if (r) {
                 LOGGER.log(Level.FINE, "{0} no longer blocked", this);
-                for (QueueListener ql : QueueListener.all()) {
-                    try {
-                        ql.onLeaveBuildable(this);
-                    } catch (Throwable e) {
-                        // don't let this kill the queue
-                        LOGGER.log(Level.WARNING, "QueueListener failed while processing "+this,e);
-                    }
-                }
+                q.metrics.stageLeft(QueueMetrics.Stage.BUILDABLE, stageSince);
+                QueueListenerDispatcher.fire(this, QueueListener::onLeaveBuildable);
             }
             return r;
         }
@@ -2758,14 +2967,7 @@ public class Queue extends ResourceController implements Saveable {
         @Override
         void enter(Queue q) {
             q.leftItems.put(getId(),this);
-            for (QueueListener ql : QueueListener.all()) {
-                try {
-                    ql.onLeft(this);
-                } catch (Throwable e) {
-                    // don't let this kill the queue
-                    LOGGER.log(Level.WARNING, "QueueListener failed while processing "+this,e);
-                }
-            }
+            QueueListenerDispatcher.fire(this, QueueListener::onLeft);
         }
 
         @Override
@@ -2876,43 +3078,168 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * Whether items of this task can be looked up in the hash-based indices of the queue.
+     * A {@link Task} that overrides {@link Object#equals(Object)} but not {@link Object#hashCode()}
+     * would miss in those indices when looked up through an equal but distinct instance,
+     * so such tasks are matched by a linear scan instead, as before the indices existed.
+     */
+    private static boolean isIndexable(Task t) {
+        return HASHES_BY_VALUE.get(t.getClass());
+    }
+
+    private static final ClassValue<Boolean> HASHES_BY_VALUE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("equals", Object.class).getDeclaringClass() == Object.class
+                        || type.getMethod("hashCode").getDeclaringClass() != Object.class;
+            } catch (NoSuchMethodException x) {
+                return false;
+            }
+        }
+    };
+
     /**
      * {@link ArrayList} of {@link Item} with more convenience methods.
      */
     private class ItemList<T extends Item> extends ArrayList<T> {
+        /**
+         * Items of this list keyed by {@link Item#task}, in list order.
+         *
+         * <p>
+         * {@link #maintain()} asks "is this task already buildable/pending?" for every blocked item,
+         * so a linear scan here makes a maintenance pass quadratic in the queue size.
+         * Mutations made through {@link #add(Item)}, {@link #remove(Object)} and {@link #clear()} keep
+         * the index up to date; anything else (most notably sorting by {@link QueueSorter}) is detected
+         * through {@link #modCount} and causes the index to be rebuilt on the next lookup.
+         */
+        private final Map<Task,List<T>> byTask = new HashMap<Task,List<T>>();
+
+        /**
+         * {@link #modCount} at the time {@link #byTask} was last known to be accurate.
+         */
+        private int indexedModCount = -1;
+
+        /**
+         * Number of {@link #set(int, Item)} calls, which unlike other mutations do not bump {@link #modCount}.
+         */
+        private int sets;
+
+        /**
+         * Changes whenever the contents or the order of this list may have changed.
+         */
+        int version() {
+            return modCount + sets;
+        }
+
+        private Map<Task,List<T>> index() {
+            if (indexedModCount != modCount) {
+                byTask.clear();
+                for (T item : this) {
+                    addToIndex(item);
+                }
+                indexedModCount = modCount;
+            }
+            return byTask;
+        }
+
+        private void addToIndex(T item) {
+            List<T> items = byTask.get(item.task);
+            if (items == null) {
+                items = new ArrayList<T>(1);
+                byTask.put(item.task, items);
+            }
+            items.add(item);
+        }
+
+        private void removeFromIndex(T item) {
+            List<T> items = byTask.get(item.task);
+            if (items != null) {
+                items.remove(item);
+                if (items.isEmpty()) {
+                    byTask.remove(item.task);
+                }
+            }
+        }
+
+        @Override
+        public boolean add(T item) {
+            boolean upToDate = indexedModCount == modCount;
+            super.add(item);
+            if (upToDate) {
+                addToIndex(item);
+                indexedModCount = modCount;
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            boolean upToDate = indexedModCount == modCount;
+            boolean r = super.remove(o);
+            if (r && upToDate) {
+                removeFromIndex((T) o);
+                indexedModCount = modCount;
+            }
+            return r;
+        }
+
+        @Override
+        public T set(int index, T element) {
+            // ArrayList.set does not bump modCount, so invalidate explicitly
+            indexedModCount = -1;
+            sets++;
+            return super.set(index, element);
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            byTask.clear();
+            indexedModCount = modCount;
+        }
+
+        /**
+         * Items of the given task, in list order, or null if there are none.
+         */
+        private @CheckForNull List<T> lookup(Task task) {
+            if (isIndexable(task)) {
+                return index().get(task);
+            }
+            List<T> items = null;
+            for (T item : this) {
+                if (item.task.equals(task)) {
+                    if (items == null) {
+                        items = new ArrayList<T>(1);
+                    }
+                    items.add(item);
+                }
+            }
+            return items;
+        }
+
     	public T get(Task task) {
-    		for (T item: this) {
-    			if (item.task.equals(task)) {
-    				return item;
-    			}
-    		}
-    		return null;
+    		List<T> items = lookup(task);
+    		return items == null ? null : items.get(0);
     	}
 
     	public List<T> getAll(Task task) {
-    		List<T> result = new ArrayList<T>();
-    		for (T item: this) {
-    			if (item.task.equals(task)) {
-    				result.add(item);
-    			}
-    		}
-    		return result;
+    		List<T> items = lookup(task);
+    		return items == null ? new ArrayList<T>() : new ArrayList<T>(items);
     	}
 
     	public boolean containsKey(Task task) {
-    		return get(task) != null;
+    		return lookup(task) != null;
     	}
 
     	public T remove(Task task) {
-    		Iterator<T> it = iterator();
-    		while (it.hasNext()) {
-    			T t = it.next();
-    			if (t.task.equals(task)) {
-    				it.remove();
-    				return t;
-    			}
+    		T t = get(task);
+    		if (t != null) {
+    			remove((Object) t);
     		}
-    		return null;
+    		return t;
     	}
 
     	public void put(Task task, T item) {
@@ -2943,18 +3270,226 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * {@link JobOffer}s of parked executors, grouped by {@link Node} and memoized per {@link Label}.
+     *
+     * <p>
+     * Without this, every {@link BuildableItem} is checked against every parked executor, even though
+     * {@link Node#canTake(BuildableItem)} rejects all the executors outside the item's label anyway.
+     * Nodes whose class overrides {@link Node#canTake(BuildableItem)} may accept items outside their labels,
+     * so their executors are always offered.
+     * Only lives for a single {@link #maintain()} pass, since the set of parked executors is recomputed
+     * on each pass.
+     */
+    private static class JobOfferIndex {
+        private final Collection<JobOffer> all;
+        /** Offers on nodes which use the label check of {@link Node#canTake(BuildableItem)}. */
+        private final Map<Node,List<JobOffer>> byNode = new HashMap<>();
+        /** Offers which are checked whatever the label. */
+        private final List<JobOffer> unindexed = new ArrayList<>();
+        private final Map<Label,List<JobOffer>> byLabel = new HashMap<>();
+        private final Map<Label,List<CauseOfBlockage>> outOfLabel = new HashMap<>();
+
+        JobOfferIndex(Collection<JobOffer> all) {
+            this.all = all;
+            for (JobOffer o : all) {
+                Node n = o.getNode();
+                if (n == null || OVERRIDES_CAN_TAKE.get(n.getClass())) {
+                    unindexed.add(o);
+                    continue;
+                }
+                List<JobOffer> l = byNode.get(n);
+                if (l == null) {
+                    byNode.put(n, l = new ArrayList<>());
+                }
+                l.add(o);
+            }
+        }
+
+        /**
+         * Offers that may be able to take the given item.
+         * Offers left out are on nodes outside the item's label, which {@link Node#canTake(BuildableItem)} rejects.
+         */
+        Collection<JobOffer> offersFor(BuildableItem item) {
+            Label l = item.getAssignedLabel();
+            if (l == null || item.task.getSubTasks().size() > 1) {
+                // subtasks may be assigned to different labels, so let MappingWorksheet sort them out
+                return all;
+            }
+            List<JobOffer> r = byLabel.get(l);
+            if (r == null) {
+                r = new ArrayList<>(unindexed);
+                List<CauseOfBlockage> causes = new ArrayList<>();
+                for (Map.Entry<Node,List<JobOffer>> e : byNode.entrySet()) {
+                    Node n = e.getKey();
+                    if (l.contains(n)) {
+                        r.addAll(e.getValue());
+                    } else {
+                        // what Node.canTake would have said for each of its executors
+                        CauseOfBlockage c = CauseOfBlockage.fromMessage(Messages._Node_LabelMissing(n.getDisplayName(), l));
+                        for (int i = 0; i < e.getValue().size(); i++) {
+                            causes.add(c);
+                        }
+                    }
+                }
+                byLabel.put(l, r);
+                outOfLabel.put(l, causes);
+            }
+            return r;
+        }
+
+        /**
+         * Causes of blockage for the offers left out by {@link #offersFor}.
+         */
+        Collection<CauseOfBlockage> outOfLabelCausesFor(BuildableItem item) {
+            Label l = item.getAssignedLabel();
+            List<CauseOfBlockage> causes = l == null || item.task.getSubTasks().size() > 1 ? null : outOfLabel.get(l);
+            return causes == null ? Collections.<CauseOfBlockage>emptyList() : causes;
+        }
+
+        private static final ClassValue<Boolean> OVERRIDES_CAN_TAKE = new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                try {
+                    return type.getMethod("canTake", BuildableItem.class).getDeclaringClass() != Node.class;
+                } catch (NoSuchMethodException x) {
+                    return true;
+                }
+            }
+        };
+    }
+
+    /**
+     * Immutable view of the queue, used by readers that do not hold the lock.
+     *
+     * <p>
+     * Collections that did not change since the previous snapshot are shared with it instead of being copied,
+     * so publishing a snapshot after each step of {@link #maintain()} only pays for what actually changed.
+     * Lookup tables are built on first use, so a snapshot that nobody queries costs nothing extra.
+     */
     private static class Snapshot {
         private final Set<WaitingItem> waitingList;
         private final List<BlockedItem> blockedProjects;
         private final List<BuildableItem> buildables;
         private final List<BuildableItem> pendings;
 
-        public Snapshot(Set<WaitingItem> waitingList, List<BlockedItem> blockedProjects, List<BuildableItem> buildables,
-                        List<BuildableItem> pendings) {
-            this.waitingList = new LinkedHashSet<WaitingItem>(waitingList);
-            this.blockedProjects = new ArrayList<BlockedItem>(blockedProjects);
-            this.buildables = new ArrayList<BuildableItem>(buildables);
-            this.pendings = new ArrayList<BuildableItem>(pendings);
+        /**
+         * Versions of the live collections at the time they were copied.
+         */
+        private final int waitingListVersion, blockedProjectsVersion, buildablesVersion, pendingsVersion;
+
+        private volatile Index index;
+
+        Snapshot(@CheckForNull Snapshot previous, Set<WaitingItem> waitingList, int waitingListVersion,
+                 ItemList<BlockedItem> blockedProjects, ItemList<BuildableItem> buildables, ItemList<BuildableItem> pendings) {
+            this.waitingListVersion = waitingListVersion;
+            this.blockedProjectsVersion = blockedProjects.version();
+            this.buildablesVersion = buildables.version();
+            this.pendingsVersion = pendings.version();
+            this.waitingList = previous != null && previous.waitingListVersion == this.waitingListVersion
+                    ? previous.waitingList : Collections.unmodifiableSet(new LinkedHashSet<WaitingItem>(waitingList));
+            this.blockedProjects = previous != null && previous.blockedProjectsVersion == this.blockedProjectsVersion
+                    ? previous.blockedProjects : Collections.unmodifiableList(new ArrayList<BlockedItem>(blockedProjects));
+            this.buildables = previous != null && previous.buildablesVersion == this.buildablesVersion
+                    ? previous.buildables : Collections.unmodifiableList(new ArrayList<BuildableItem>(buildables));
+            this.pendings = previous != null && previous.pendingsVersion == this.pendingsVersion
+                    ? previous.pendings : Collections.unmodifiableList(new ArrayList<BuildableItem>(pendings));
+        }
+
+        Index index() {
+            Index i = index;
+            if (i == null) {
+                // racing readers may each build one, which is harmless
+                index = i = new Index(this);
+            }
+            return i;
+        }
+
+        /**
+         * Lookup tables over a {@link Snapshot}.
+         */
+        private static final class Index {
+            private final Snapshot snapshot;
+            /**
+             * All the items, in the order of {@link Queue#getItems()}.
+             */
+            private final List<Item> items;
+            private final Map<Long,Item> byId;
+            /**
+             * Items of each task, in the order of {@link Queue#getItems(Task)}.
+             */
+            private final Map<Task,List<Item>> byTask;
+            private final Set<Task> pendingTasks;
+
+            Index(Snapshot s) {
+                this.snapshot = s;
+                int size = s.waitingList.size() + s.blockedProjects.size() + s.buildables.size() + s.pendings.size();
+                List<Item> items = new ArrayList<Item>(size);
+                items.addAll(s.waitingList);
+                items.addAll(s.blockedProjects);
+                for (BuildableItem p : reverse(s.buildables)) {
+                    items.add(p);
+                }
+                for (BuildableItem p : reverse(s.pendings)) {
+                    items.add(p);
+                }
+                this.items = Collections.unmodifiableList(items);
+
+                Map<Long,Item> byId = new HashMap<Long,Item>(size * 2);
+                Map<Task,List<Item>> byTask = new HashMap<Task,List<Item>>(size * 2);
+                Set<Task> pendingTasks = new HashSet<Task>();
+                for (Collection<? extends Item> c : Arrays.<Collection<? extends Item>>asList(
+                        s.blockedProjects, s.buildables, s.pendings, s.waitingList)) {
+                    for (Item item : c) {
+                        byId.put(item.id, item);
+                        List<Item> l = byTask.get(item.task);
+                        if (l == null) {
+                            byTask.put(item.task, l = new ArrayList<Item>(1));
+                        }
+                        l.add(item);
+                    }
+                }
+                for (BuildableItem item : s.pendings) {
+                    pendingTasks.add(item.task);
+                }
+                this.byId = byId;
+                this.byTask = byTask;
+                this.pendingTasks = pendingTasks;
+            }
+
+            /**
+             * Items of the given task, or null if there are none.
+             */
+            @CheckForNull List<Item> byTask(Task t) {
+                if (isIndexable(t)) {
+                    return byTask.get(t);
+                }
+                List<Item> items = null;
+                for (Collection<? extends Item> c : Arrays.<Collection<? extends Item>>asList(
+                        snapshot.blockedProjects, snapshot.buildables, snapshot.pendings, snapshot.waitingList)) {
+                    for (Item item : c) {
+                        if (item.task.equals(t)) {
+                            if (items == null) {
+                                items = new ArrayList<Item>(1);
+                            }
+                            items.add(item);
+                        }
+                    }
+                }
+                return items;
+            }
+
+            boolean isPending(Task t) {
+                if (isIndexable(t)) {
+                    return pendingTasks.contains(t);
+                }
+                for (BuildableItem item : snapshot.pendings) {
+                    if (item.task.equals(t)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
         }
 
         @Override
@@ -3073,6 +3608,7 @@ public class Queue extends ResourceController implements Saveable {
 
         private void push() {
             if (DELAY_SECONDS < 0) return;
+            if (QueueJournal.isEnabled()) return; // the journal takes care of it
 
             synchronized (lock) {
                 // Can be done or canceled in case of a bug or external intervention - do not allow it to hang there forever
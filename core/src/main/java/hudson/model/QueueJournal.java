@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Queue.LeftItem;
+import hudson.model.Queue.WaitingItem;
+import hudson.model.queue.QueueListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Append-only log of the items that enter and leave the {@link Queue}.
+ *
+ * <p>
+ * Without the journal, every change to the queue eventually causes {@link Queue#save()} to rewrite all of
+ * {@code queue.xml}, which with a large queue is expensive both in time and in I/O. With the journal enabled,
+ * each change only appends a small record to {@code queue.journal}, and {@code queue.xml} is only rewritten as
+ * a checkpoint once enough records have accumulated (or enough time has passed), at which point the journal
+ * is discarded. {@link Queue#load()} replays the journal on top of the last checkpoint.
+ *
+ * <p>
+ * Only entering the waiting list and leaving the queue are recorded. Items that were blocked or buildable
+ * at the time of a crash therefore come back as waiting items, and get reevaluated on the first
+ * {@link Queue#maintain()}, just like items restored from {@code queue.xml} do.
+ *
+ * <p>
+ * Each record is a type byte, the {@link Queue.Item#getId() item ID}, and, for items entering the queue,
+ * the length-prefixed XML form of the item.
+ *
+ * @since TODO
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class QueueJournal extends QueueListener {
+
+    /**
+     * Whether the journal is used at all. When disabled, {@link Queue.Saver} persists the queue instead.
+     */
+    /*package*/ static /*final*/ boolean ENABLED = SystemProperties.getBoolean(QueueJournal.class.getName() + ".enabled");
+
+    /**
+     * Number of records after which a checkpoint is taken.
+     */
+    /*package*/ static /*final*/ int CHECKPOINT_RECORDS = SystemProperties.getInteger(QueueJournal.class.getName() + ".checkpointRecords", 1000);
+
+    /**
+     * Maximum delay between the first record after a checkpoint and the next checkpoint.
+     */
+    /*package*/ static /*final*/ int CHECKPOINT_SECONDS = SystemProperties.getInteger(QueueJournal.class.getName() + ".checkpointSeconds", 300);
+
+    private static final byte ENTER = 'E';
+    private static final byte LEFT = 'L';
+    private static final byte CANCELLED = 'C';
+
+    @GuardedBy("this")
+    private DataOutputStream out;
+
+    /**
+     * Number of records written since the last checkpoint.
+     */
+    @GuardedBy("this")
+    private int records;
+
+    @GuardedBy("this")
+    private Future<?> nextCheckpoint;
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /*package*/ static QueueJournal get() {
+        return ExtensionList.lookupSingleton(QueueJournal.class);
+    }
+
+    /**
+     * Records have to be appended in step with {@link Queue#save()}, which truncates the journal.
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return false;
+    }
+
+    @Override
+    public void onEnterWaiting(WaitingItem wi) {
+        if (ENABLED && !(wi.task instanceof Queue.TransientTask)) {
+            append(ENTER, wi.getId(), Queue.XSTREAM.toXML(wi));
+        }
+    }
+
+    @Override
+    public void onLeft(LeftItem li) {
+        if (ENABLED && !(li.task instanceof Queue.TransientTask)) {
+            append(li.isCancelled() ? CANCELLED : LEFT, li.getId(), null);
+        }
+    }
+
+    private synchronized void append(byte type, long id, @CheckForNull String xml) {
+        Jenkins j = Jenkins.getInstanceOrNull();
+        if (j == null) {
+            return;
+        }
+        File file = j.getQueue().getJournalFile();
+        try {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            out.writeByte(type);
+            out.writeLong(id);
+            if (xml != null) {
+                byte[] data = xml.getBytes(UTF_8);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to append to " + file + "; falling back to a full save of the queue", e);
+            close();
+            records = CHECKPOINT_RECORDS;
+        }
+
+        if (records >= CHECKPOINT_RECORDS) {
+            scheduleCheckpoint(0);
+        } else {
+            scheduleCheckpoint(CHECKPOINT_SECONDS);
+        }
+    }
+
+    /**
+     * Makes sure a checkpoint happens within the given delay.
+     */
+    @GuardedBy("this")
+    private void scheduleCheckpoint(long delaySeconds) {
+        if (nextCheckpoint != null && !nextCheckpoint.isDone()) {
+            if (delaySeconds > 0 || !nextCheckpoint.cancel(false)) {
+                return; // already scheduled
+            }
+        }
+        nextCheckpoint = Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                Jenkins j = Jenkins.getInstanceOrNull();
+                if (j != null) {
+                    j.getQueue().save();
+                }
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Called by {@link Queue#save()}, with the queue lock held, once the whole queue has been written out.
+     * From then on, the existing records are redundant.
+     */
+    /*package*/ synchronized void checkpointed(File file) {
+        reset();
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete " + file, e);
+        }
+    }
+
+    /**
+     * Stops writing to the current journal file, for example because {@link Queue#load()} is about to replay it.
+     */
+    /*package*/ synchronized void reset() {
+        close();
+        records = 0;
+        if (nextCheckpoint != null) {
+            nextCheckpoint.cancel(false);
+            nextCheckpoint = null;
+        }
+    }
+
+    @GuardedBy("this")
+    private void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the queue journal", e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Applies the records of a journal on top of the items of the last checkpoint.
+     *
+     * @param checkpoint
+     *      items read from {@code queue.xml}, which may also contain legacy {@link Queue.Task} entries.
+     * @return
+     *      the items that are still in the queue according to the journal, in the order they entered it.
+     */
+    /*package*/ static List<Object> replay(File file, List<?> checkpoint) throws IOException {
+        List<Object> result = new ArrayList<Object>();
+        Map<Long,Object> items = new LinkedHashMap<Long,Object>();
+        for (Object o : checkpoint) {
+            if (o instanceof Queue.Item) {
+                items.put(((Queue.Item) o).getId(), o);
+            } else {
+                result.add(o);
+            }
+        }
+
+        int count = 0;
+        try (InputStream is = Files.newInputStream(file.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                long id = in.readLong();
+                switch (type) {
+                case ENTER:
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    items.remove(id);
+                    try {
+                        items.put(id, Queue.XSTREAM.fromXML(new String(data, UTF_8)));
+                    } catch (RuntimeException e) {
+                        // for example the job got deleted
+                        LOGGER.log(Level.WARNING, "Failed to restore queue item #" + id + " from " + file, e);
+                    }
+                    break;
+                case LEFT:
+                case CANCELLED:
+                    items.remove(id);
+                    break;
+                default:
+                    throw new IOException("Unexpected record type " + type + " in " + file);
+                }
+                count++;
+            }
+        } catch (EOFException e) {
+            // we crashed in the middle of writing the last record
+            LOGGER.log(Level.WARNING, "Ignoring the incomplete last record of {0}", file);
+        }
+        LOGGER.log(Level.FINE, "Replayed {0} records of {1}", new Object[] {count, file});
+
+        result.addAll(items.values());
+        return result;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(QueueJournal.class.getName());
+}
@@ -0,0 +1,438 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import hudson.model.MultiStageTimeSeries.TimeScale;
+import hudson.model.MultiStageTimeSeries.TrendChart;
+import hudson.model.queue.QueueListenerDispatcher;
+import hudson.model.queue.QueueTaskDispatcher;
+import hudson.util.ColorPalette;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where the {@link Queue} spends its time: how long items stay in each stage, how long maintenance passes
+ * and {@link QueueTaskDispatcher}s take, how long the queue lock is waited for and held, and how many
+ * items get dispatched to executors.
+ *
+ * <p>
+ * Totals are kept since startup, and averages are also recorded as {@link MultiStageTimeSeries}
+ * along with {@link LoadStatistics}, so that they can be charted over time.
+ *
+ * @see Queue#getMetrics()
+ * @see QueueMetricsAction
+ * @since TODO
+ */
+public final class QueueMetrics {
+
+    /**
+     * The stages of the queue, as far as timing is concerned.
+     */
+    public enum Stage {
+        WAITING, BLOCKED, BUILDABLE, PENDING
+    }
+
+    private final Map<Stage,Stat> stages = new ConcurrentHashMap<Stage,Stat>();
+    private final Stat maintenance = new Stat();
+    private final Stat lockWait = new Stat();
+    private final Stat lockHold = new Stat();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final ConcurrentMap<String,Stat> dispatchers = new ConcurrentHashMap<String,Stat>();
+
+    /**
+     * Average time spent in a stage by the items that left it, per {@link LoadStatistics#CLOCK} interval.
+     */
+    public final MultiStageTimeSeries waitingTime, blockedTime, buildableTime, pendingTime;
+
+    /**
+     * Average duration of {@link Queue#maintain()}, per interval.
+     */
+    public final MultiStageTimeSeries maintenanceTime;
+
+    /**
+     * Average time the queue lock was waited for and held, per interval.
+     */
+    public final MultiStageTimeSeries lockWaitTime, lockHoldTime;
+
+    /**
+     * Items handed over to executors per second, per interval.
+     */
+    public final MultiStageTimeSeries dispatchRate;
+
+    private long lastDispatched;
+
+    QueueMetrics() {
+        for (Stage s : Stage.values()) {
+            stages.put(s, new Stat());
+        }
+        waitingTime = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_WaitingTime(), ColorPalette.GREY, 0, LoadStatistics.DECAY);
+        blockedTime = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_BlockedTime(), ColorPalette.RED, 0, LoadStatistics.DECAY);
+        buildableTime = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_BuildableTime(), ColorPalette.YELLOW, 0, LoadStatistics.DECAY);
+        pendingTime = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_PendingTime(), ColorPalette.BLUE, 0, LoadStatistics.DECAY);
+        maintenanceTime = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_MaintenanceTime(), ColorPalette.BLUE, 0, LoadStatistics.DECAY);
+        lockWaitTime = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_LockWaitTime(), ColorPalette.RED, 0, LoadStatistics.DECAY);
+        lockHoldTime = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_LockHoldTime(), ColorPalette.YELLOW, 0, LoadStatistics.DECAY);
+        dispatchRate = new MultiStageTimeSeries(Messages._QueueMetrics_Legends_DispatchRate(), ColorPalette.BLUE, 0, LoadStatistics.DECAY);
+    }
+
+    /*package*/ void stageLeft(@Nonnull Stage stage, long since) {
+        if (since != 0) {
+            stages.get(stage).record(System.nanoTime() - since);
+        }
+    }
+
+    /*package*/ void maintained(long nanos) {
+        maintenance.record(nanos);
+    }
+
+    /*package*/ void dispatched() {
+        dispatched.incrementAndGet();
+    }
+
+    /*package*/ void dispatcherCalled(@Nonnull QueueTaskDispatcher d, @Nonnull String method, long nanos, boolean vetoed) {
+        Stat s = dispatchers.computeIfAbsent(d.getClass().getName() + '.' + method, k -> new Stat());
+        s.record(nanos);
+        if (vetoed) {
+            s.vetoes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the time statistics of a stage.
+     */
+    public @Nonnull Stat getStage(@Nonnull Stage stage) {
+        return stages.get(stage);
+    }
+
+    public @Nonnull Stat getMaintenance() {
+        return maintenance;
+    }
+
+    public @Nonnull Stat getLockWait() {
+        return lockWait;
+    }
+
+    public @Nonnull Stat getLockHold() {
+        return lockHold;
+    }
+
+    /**
+     * Number of items handed over to executors since startup.
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * Time statistics of {@link QueueTaskDispatcher} calls, keyed by class and method name,
+     * such as {@code org.acme.Dispatcher.canRun}.
+     */
+    public @Nonnull Map<String,Stat> getDispatchers() {
+        return dispatchers;
+    }
+
+    /**
+     * Records the averages of the last interval in the time series.
+     * Called by {@link LoadStatistics.LoadStatisticsUpdater} every {@link LoadStatistics#CLOCK} milliseconds.
+     */
+    /*package*/ synchronized void tick() {
+        waitingTime.update(stages.get(Stage.WAITING).interval());
+        blockedTime.update(stages.get(Stage.BLOCKED).interval());
+        buildableTime.update(stages.get(Stage.BUILDABLE).interval());
+        pendingTime.update(stages.get(Stage.PENDING).interval());
+        maintenanceTime.update(maintenance.interval());
+        lockWaitTime.update(lockWait.interval());
+        lockHoldTime.update(lockHold.interval());
+        long d = dispatched.get();
+        dispatchRate.update((d - lastDispatched) * 1000f / LoadStatistics.CLOCK);
+        lastDispatched = d;
+    }
+
+    /**
+     * Charts one group of the time series: {@code stages}, {@code lock} (including maintenance) or {@code dispatch}.
+     */
+    public @Nonnull TrendChart createTrendChart(@Nonnull TimeScale timeScale, String group) {
+        if ("stages".equals(group)) {
+            return MultiStageTimeSeries.createTrendChart(timeScale, waitingTime, blockedTime, buildableTime, pendingTime);
+        }
+        if ("lock".equals(group)) {
+            return MultiStageTimeSeries.createTrendChart(timeScale, maintenanceTime, lockWaitTime, lockHoldTime);
+        }
+        return MultiStageTimeSeries.createTrendChart(timeScale, dispatchRate);
+    }
+
+    /**
+     * Renders all the totals as JSON.
+     */
+    public @Nonnull JSONObject toJSON() {
+        JSONObject stagesJson = new JSONObject();
+        for (Stage s : Stage.values()) {
+            stagesJson.element(s.name().toLowerCase(Locale.ENGLISH), stages.get(s).toJSON());
+        }
+        JSONObject dispatchersJson = new JSONObject();
+        for (Map.Entry<String,Stat> e : dispatchers.entrySet()) {
+            dispatchersJson.element(e.getKey(), e.getValue().toJSON().element("vetoes", e.getValue().getVetoes()));
+        }
+        JSONArray listenersJson = new JSONArray();
+        for (QueueListenerDispatcher.Statistics s : QueueListenerDispatcher.getStatistics()) {
+            listenersJson.add(new JSONObject()
+                    .element("listener", s.getListener())
+                    .element("pending", s.getPending())
+                    .element("delivered", s.getDelivered())
+                    .element("dropped", s.getDropped())
+                    .element("lastLagMillis", s.getLastLagMillis())
+                    .element("maxLagMillis", s.getMaxLagMillis()));
+        }
+        return new JSONObject()
+                .element("stages", stagesJson)
+                .element("maintenance", maintenance.toJSON())
+                .element("lockWait", lockWait.toJSON())
+                .element("lockHold", lockHold.toJSON())
+                .element("dispatched", getDispatched())
+                .element("dispatchesPerSecond", dispatchRate.getLatest(TimeScale.SEC10))
+                .element("dispatchers", dispatchersJson)
+                .element("listeners", listenersJson);
+    }
+
+    /**
+     * Count, total and maximum of a recurring duration.
+     */
+    public static final class Stat {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong vetoes = new AtomicLong();
+        private long lastCount, lastTotal;
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * Average in milliseconds of the durations recorded since the previous call.
+         */
+        float interval() {
+            long c = count.get(), t = total.get();
+            float r = c == lastCount ? 0 : (t - lastTotal) / 1e6f / (c - lastCount);
+            lastCount = c;
+            lastTotal = t;
+            return r;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(total.get());
+        }
+
+        public double getMeanMillis() {
+            long c = count.get();
+            return c == 0 ? 0 : total.get() / 1e6 / c;
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(max.get());
+        }
+
+        /**
+         * For {@link QueueTaskDispatcher} calls, how many returned a cause of blockage.
+         */
+        public long getVetoes() {
+            return vetoes.get();
+        }
+
+        JSONObject toJSON() {
+            return new JSONObject()
+                    .element("count", getCount())
+                    .element("totalMillis", getTotalMillis())
+                    .element("meanMillis", getMeanMillis())
+                    .element("maxMillis", getMaxMillis());
+        }
+    }
+
+    /**
+     * {@link ReentrantLock} that records how long it is waited for and held, from the first acquisition
+     * by a thread to its last release. Time spent in {@link Condition#await} does not count as held.
+     */
+    /*package*/ final class InstrumentedLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * When the current owner acquired the lock, or got it back from a {@link Condition}. Only accessed by the owner.
+         */
+        private long acquired;
+
+        @Override
+        public void lock() {
+            long start = System.nanoTime();
+            super.lock();
+            acquired(start);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            long start = System.nanoTime();
+            super.lockInterruptibly();
+            acquired(start);
+        }
+
+        @Override
+        public boolean tryLock() {
+            long start = System.nanoTime();
+            if (!super.tryLock()) {
+                return false;
+            }
+            acquired(start);
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            long start = System.nanoTime();
+            if (!super.tryLock(timeout, unit)) {
+                return false;
+            }
+            acquired(start);
+            return true;
+        }
+
+        private void acquired(long start) {
+            if (getHoldCount() == 1) {
+                acquired = System.nanoTime();
+                lockWait.record(acquired - start);
+            }
+        }
+
+        @Override
+        public void unlock() {
+            if (getHoldCount() == 1) {
+                lockHold.record(System.nanoTime() - acquired);
+            }
+            super.unlock();
+        }
+
+        @Override
+        public Condition newCondition() {
+            return new InstrumentedCondition(super.newCondition());
+        }
+
+        /**
+         * Stops the hold timer while waiting, as the lock is then released whatever the hold count.
+         */
+        private final class InstrumentedCondition implements Condition {
+            private final Condition delegate;
+
+            InstrumentedCondition(Condition delegate) {
+                this.delegate = delegate;
+            }
+
+            private void released() {
+                if (isHeldByCurrentThread()) {
+                    lockHold.record(System.nanoTime() - acquired);
+                }
+            }
+
+            private void reacquired() {
+                if (isHeldByCurrentThread()) {
+                    acquired = System.nanoTime();
+                }
+            }
+
+            @Override
+            public void await() throws InterruptedException {
+                released();
+                try {
+                    delegate.await();
+                } finally {
+                    reacquired();
+                }
+            }
+
+            @Override
+            public void awaitUninterruptibly() {
+                released();
+                try {
+                    delegate.awaitUninterruptibly();
+                } finally {
+                    reacquired();
+                }
+            }
+
+            @Override
+            public long awaitNanos(long nanosTimeout) throws InterruptedException {
+                released();
+                try {
+                    return delegate.awaitNanos(nanosTimeout);
+                } finally {
+                    reacquired();
+                }
+            }
+
+            @Override
+            public boolean await(long time, TimeUnit unit) throws InterruptedException {
+                released();
+                try {
+                    return delegate.await(time, unit);
+                } finally {
+                    reacquired();
+                }
+            }
+
+            @Override
+            public boolean awaitUntil(Date deadline) throws InterruptedException {
+                released();
+                try {
+                    return delegate.awaitUntil(deadline);
+                } finally {
+                    reacquired();
+                }
+            }
+
+            @Override
+            public void signal() {
+                delegate.signal();
+            }
+
+            @Override
+            public void signalAll() {
+                delegate.signalAll();
+            }
+        }
+    }
+}
@@ -38,9 +38,10 @@ import hudson.FeedAdapter;
 import hudson.Functions;
 import hudson.console.AnnotatedLargeText;
 import hudson.console.ConsoleLogFilter;
+import hudson.console.ConsoleLogIndex;
 import hudson.console.ConsoleNote;
 import hudson.console.ModelHyperlinkNote;
-import hudson.console.PlainTextConsoleOutputStream;
+import hudson.console.NoteStrippingOutputStream;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.StandardOpenOption;
@@ -72,7 +73,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Serializable;
 import java.nio.charset.Charset;
@@ -103,23 +103,25 @@ import javax.servlet.http.HttpServletResponse;
 import jenkins.model.ArtifactManager;
 import jenkins.model.ArtifactManagerConfiguration;
 import jenkins.model.ArtifactManagerFactory;
+import jenkins.model.BackgroundBuildDiscarder;
 import jenkins.model.BuildDiscarder;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
 import jenkins.model.PeepholePermalink;
 import jenkins.model.RunAction2;
 import jenkins.model.StandardArtifactManager;
+import jenkins.model.lazy.BinaryBuildRecord;
 import jenkins.model.lazy.BuildReference;
 import jenkins.model.lazy.LazyBuildMixIn;
 import jenkins.security.MasterToSlaveCallable;
 import jenkins.util.VirtualFile;
 import jenkins.util.io.OnMaster;
+import jenkins.util.io.ReverseLinesStream;
 import net.sf.json.JSONObject;
 import org.acegisecurity.AccessDeniedException;
 import org.acegisecurity.Authentication;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.jelly.XMLOutput;
-import org.apache.commons.lang.ArrayUtils;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.HttpResponse;
@@ -337,7 +339,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         this.state = State.COMPLETED;
         // TODO ABORTED would perhaps make more sense than FAILURE:
         this.result = Result.FAILURE;  // defensive measure. value should be overwritten by unmarshal, but just in case the saved data is inconsistent
-        getDataFile().unmarshal(this); // load the rest of the data
+        XmlFile dataFile = getDataFile();
+        if (!BinaryBuildRecord.read(dataFile, this)) {
+            dataFile.unmarshal(this); // load the rest of the data
+            BinaryBuildRecord.write(dataFile, this);
+        }
 
         if (state == State.COMPLETED) {
             LOGGER.log(FINER, "reload {0} @{1}", new Object[] {this, hashCode()});
@@ -598,6 +604,16 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         return getWhyKeepLog()!=null;
     }
 
+    /**
+     * Returns true if this build was explicitly marked to be kept, as by {@link #keepLog()}.
+     * Unlike {@link #isKeepLog()}, this does not consider other reasons to keep it, so it is cheap to call.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public final boolean isKeepLogMarked() {
+        return keepLog;
+    }
+
     /**
      * If {@link #isKeepLog()} returns true, returns a short, human-readable
      * sentence that explains why it's being kept.
@@ -1479,6 +1495,33 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         getLogText().writeHtmlTo(offset, out.asWriter());
     }
 
+    /**
+     * Used from <tt>console.jelly</tt> to find where to start showing the log.
+     * The request may ask for the log from a given 1-based {@code line}, or for its last {@code tail} lines;
+     * otherwise the last {@code hudson.consoleTailKB} kilobytes are shown.
+     *
+     * @return the offset to pass to {@link #writeLogTo(long, XMLOutput)}, which may be negative
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public long getConsoleOffset(@Nonnull StaplerRequest req) throws IOException {
+        AnnotatedLargeText<?> text = getLogText();
+        try {
+            String line = req.getParameter("line");
+            if (line != null) {
+                long offset = text.getLineOffset(Math.max(Long.parseLong(line) - 1, 0));
+                return offset < 0 ? text.length() : offset;
+            }
+            String tail = req.getParameter("tail");
+            if (tail != null) {
+                return text.getTailOffset(Integer.parseInt(tail));
+            }
+        } catch (NumberFormatException x) {
+            // fall back to the default
+        }
+        return text.length() - SystemProperties.getInteger("hudson.consoleTailKB", 150) * 1024L;
+    }
+
     /**
      * Writes the complete log from the start to finish to the {@link OutputStream}.
      *
@@ -1867,7 +1910,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
             }
 
             try {
-                getParent().logRotate();
+                if (BackgroundBuildDiscarder.ENABLED) {
+                    BackgroundBuildDiscarder.get().schedule(getParent());
+                } else {
+                    getParent().logRotate();
+                }
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Failed to rotate log",e);
             }
@@ -1888,7 +1935,8 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         // gets reflected to the file immediately, which can then be
         // served to the browser immediately
         try {
-            return Files.newOutputStream(getLogFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            File logFile = getLogFile();
+            return new ConsoleLogIndex.Writer(Files.newOutputStream(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND), logFile);
         } catch (InvalidPathException e) {
             throw new IOException(e);
         }
@@ -1999,8 +2047,10 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     public synchronized void save() throws IOException {
         if(BulkChange.contains(this))   return;
-        getDataFile().write(this);
-        SaveableListener.fireOnChange(this, getDataFile());
+        XmlFile dataFile = getDataFile();
+        dataFile.write(this);
+        BinaryBuildRecord.write(dataFile, this);
+        SaveableListener.fireOnChange(this, dataFile);
     }
 
     private @Nonnull XmlFile getDataFile() {
@@ -2046,32 +2096,20 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
             return Collections.emptyList();
         }
 
-        int lines = 0;
-        long filePointer;
         final List<String> lastLines = new ArrayList<>(Math.min(maxLines, 128));
-        final List<Byte> bytes = new ArrayList<>();
-
-        try (RandomAccessFile fileHandler = new RandomAccessFile(getLogFile(), "r")) {
-            long fileLength = fileHandler.length() - 1;
-
-            for (filePointer = fileLength; filePointer != -1 && maxLines != lines; filePointer--) {
-                fileHandler.seek(filePointer);
-                byte readByte = fileHandler.readByte();
-
-                if (readByte == 0x0A) {
-                    if (filePointer < fileLength) {
-                        lines = lines + 1;
-                        lastLines.add(convertBytesToString(bytes));
-                        bytes.clear();
-                    }
-                } else if (readByte != 0xD) {
-                    bytes.add(readByte);
+        long offset;
+        try (ReverseLinesStream lines = new ReverseLinesStream(getLogFile().toPath(), getCharset())) {
+            for (String line : lines) {
+                lastLines.add(line.indexOf('\r') >= 0 ? line.replace("\r", "") : line);
+                if (lastLines.size() == maxLines) {
+                    break;
                 }
             }
+            offset = lines.getOffset();
         }
 
-        if (lines != maxLines) {
-            lastLines.add(convertBytesToString(bytes));
+        if (lastLines.isEmpty()) {
+            lastLines.add("");
         }
 
         Collections.reverse(lastLines);
@@ -2079,19 +2117,13 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         // If the log has been truncated, include that information.
         // Use set (replaces the first element) rather than add so that
         // the list doesn't grow beyond the specified maximum number of lines.
-        if (lines == maxLines) {
-            lastLines.set(0, "[...truncated " + Functions.humanReadableByteSize(filePointer)+ "...]");
+        if (lastLines.size() == maxLines && offset > 0) {
+            lastLines.set(0, "[...truncated " + Functions.humanReadableByteSize(offset - 2)+ "...]");
         }
 
         return ConsoleNote.removeNotes(lastLines);
     }
 
-    private String convertBytesToString(List<Byte> bytes) {
-        Collections.reverse(bytes);
-        Byte[] byteArray = bytes.toArray(new Byte[bytes.size()]);
-        return new String(ArrayUtils.toPrimitive(byteArray), getCharset());
-    }
-
     public void doBuildStatus( StaplerRequest req, StaplerResponse rsp ) throws IOException {
         rsp.sendRedirect2(req.getContextPath()+"/images/48x48/"+getBuildStatusUrl());
     }
@@ -2220,9 +2252,16 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     public void doConsoleText(StaplerRequest req, StaplerResponse rsp) throws IOException {
         rsp.setContentType("text/plain;charset=UTF-8");
+        if (!isLogUpdated() && getLogFile().exists()) {
+            // a completed log may have an index of its notes, letting the bytes between them be transferred as is
+            try (OutputStream os = rsp.getCompressedOutputStream(req)) {
+                getLogText().writeLogTo(0, os);
+            }
+            return;
+        }
         try (InputStream input = getLogInputStream();
              OutputStream os = rsp.getCompressedOutputStream(req);
-             PlainTextConsoleOutputStream out = new PlainTextConsoleOutputStream(os)) {
+             NoteStrippingOutputStream out = new NoteStrippingOutputStream(os)) {
             IOUtils.copy(input, out);
         }
     }
@@ -23,6 +23,15 @@
  */
 package hudson.model;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
@@ -39,11 +48,16 @@ import jenkins.model.RunIdMigrator;
 import jenkins.model.lazy.AbstractLazyLoadRunMap;
 import static jenkins.model.lazy.AbstractLazyLoadRunMap.Direction.*;
 import jenkins.model.lazy.BuildReference;
+import jenkins.model.lazy.BuildSummary;
+import jenkins.model.lazy.BuildSummaryIndex;
 import jenkins.model.lazy.LazyBuildMixIn;
 import org.apache.commons.collections.comparators.ReverseComparator;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
 /**
  * {@link Map} from build number to {@link Run}.
  *
@@ -62,6 +76,8 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
 
     private Constructor<R> cons;
 
+    private final BuildSummaryIndex summaries = new BuildSummaryIndex(() -> dir);
+
     /** Normally overwritten by {@link LazyBuildMixIn#onLoad} or {@link LazyBuildMixIn#onCreatedFromScratch}, in turn created during {@link Job#onLoad}. */
     @Restricted(NoExternalUse.class)
     public RunIdMigrator runIdMigrator = new RunIdMigrator();
@@ -125,9 +141,101 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
     public boolean removeValue(R run) {
         run.dropLinks();
         runIdMigrator.delete(dir, run.getId());
+        summaries.remove(run.getNumber());
         return super.removeValue(run);
     }
 
+    /**
+     * Gets the summary of a build, from the {@link BuildSummaryIndex} if possible, or else by loading the build.
+     *
+     * @return null if there is no such build, or it failed to load
+     * @since TODO
+     */
+    public @CheckForNull BuildSummary getSummary(int n) {
+        if (!runExists(n)) {
+            return null;
+        }
+        BuildSummary s = summaries.get(n);
+        if (s != null) {
+            return s;
+        }
+        R r = getByNumber(n);
+        if (r == null) {
+            return null;
+        }
+        s = BuildSummary.of(r);
+        summaries.put(s);
+        return s;
+    }
+
+    /**
+     * Walks through the numbers of builds whose summaries match, within a range, without loading builds
+     * other than those missing from the {@link BuildSummaryIndex}.
+     *
+     * @param include
+     *      Which builds to return.
+     * @param stop
+     *      When walking towards older builds, stops the walk at the first build this matches.
+     *      When walking towards newer builds, merely skips the builds this matches.
+     * @param oldest
+     *      Smallest build number to consider.
+     * @param newest
+     *      Biggest build number to consider.
+     * @param ascending
+     *      Whether to walk towards newer builds rather than older ones.
+     * @see #getSummary(int)
+     * @see #builds(Iterable)
+     */
+    @Restricted(NoExternalUse.class)
+    public @Nonnull Iterable<Integer> numbers(@Nonnull final Predicate<BuildSummary> include, @Nonnull final Predicate<BuildSummary> stop,
+                                              int oldest, int newest, final boolean ascending) {
+        final Iterable<Integer> numbers = numbersOnDisk(oldest, newest, ascending);
+        if (include == Predicates.<BuildSummary>alwaysTrue() && stop == Predicates.<BuildSummary>alwaysFalse()) {
+            return numbers; // no need to look anything up
+        }
+        return new Iterable<Integer>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                final Iterator<Integer> it = numbers.iterator();
+                return new AbstractIterator<Integer>() {
+                    @Override
+                    protected Integer computeNext() {
+                        while (it.hasNext()) {
+                            int n = it.next();
+                            BuildSummary s = getSummary(n);
+                            if (s == null) {
+                                continue; // failed to load
+                            }
+                            if (stop.apply(s)) {
+                                if (ascending) {
+                                    continue;
+                                }
+                                break;
+                            }
+                            if (include.apply(s)) {
+                                return n;
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Loads builds one by one as the walk through their numbers proceeds, skipping those which fail to load.
+     */
+    @Restricted(NoExternalUse.class)
+    public @Nonnull Iterable<R> builds(@Nonnull Iterable<Integer> numbers) {
+        return Iterables.filter(Iterables.transform(numbers, new Function<Integer, R>() {
+            @Override
+            public R apply(Integer n) {
+                return getByNumber(n);
+            }
+        }), Predicates.notNull());
+    }
+
     /**
      * Gets the read-only view of this map.
      */
@@ -192,6 +300,7 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
             proposeNewNumber(r.getNumber());
         }
         rootDir.mkdirs();
+        summaries.remove(r.getNumber()); // in case the number was used by a build deleted behind our back
         return super._put(r);
     }
 
@@ -223,6 +332,9 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
             try {
                 R b = cons.create(d);
                 b.onLoad();
+                if (!b.isBuilding()) {
+                    summaries.put(BuildSummary.of(b)); // fill in the index for builds that completed before it existed
+                }
                 if (LOGGER.isLoggable(FINEST)) {
                     LOGGER.log(FINEST, "Loaded " + b.getFullDisplayName() + " in " + Thread.currentThread().getName(), new ThisIsHowItsLoaded());
                 }
@@ -257,6 +369,45 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
         initBaseDir(job.getBuildDir());
     }
 
+    /**
+     * Updates the {@link BuildSummaryIndex} of the job of a build.
+     */
+    private static void updateSummary(Run<?,?> r) {
+        if (r.isBuilding()) {
+            return;
+        }
+        SortedMap<Integer,?> runs = r.getParent()._getRuns();
+        if (runs instanceof RunMap) {
+            ((RunMap<?>) runs).summaries.put(BuildSummary.of(r));
+        }
+    }
+
+    /**
+     * Records builds in the {@link BuildSummaryIndex} as they complete.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class SummaryRecorder extends RunListener<Run<?,?>> {
+        @Override
+        public void onFinalized(Run<?,?> r) {
+            updateSummary(r);
+        }
+    }
+
+    /**
+     * Keeps the {@link BuildSummaryIndex} up to date when completed builds are changed, as by a new display name.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class SummaryUpdater extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run) {
+                updateSummary((Run<?,?>) o);
+            }
+        }
+    }
+
     private static final Logger LOGGER = Logger.getLogger(RunMap.class.getName());
 
     private static class ThisIsHowItsLoaded extends Exception {}
@@ -8,6 +8,7 @@ import hudson.model.Executor;
 import jenkins.model.Jenkins;
 import hudson.model.InvisibleAction;
 import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.Task;
 import hudson.model.queue.MappingWorksheet.ExecutorChunk;
 import hudson.model.queue.MappingWorksheet.ExecutorSlot;
 import hudson.model.queue.MappingWorksheet.Mapping;
@@ -22,11 +23,29 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 /**
- * Experimental.
+ * {@link LoadPredictor} that reserves executors for buildable items that cannot start yet,
+ * so that shorter items behind them in the queue only get to use those executors
+ * if they are predicted to be done by the time the reservation starts.
+ *
+ * <p>
+ * Each buildable item gets a {@link TentativePlan}: the executors it needs on each computer,
+ * and the earliest time they are predicted to be free, based on the estimated durations of the
+ * running builds and of the plans of the items ahead of it in the queue. When an item is considered
+ * for execution, the plans of the items ahead of it count as future load, so an item whose
+ * {@link Task#getEstimatedDuration() estimated duration} overlaps with such a reservation
+ * is held back, while one that ends before it fills the gap.
+ *
+ * <p>
+ * Experimental. Enabled with {@code -Dhudson.model.queue.BackFiller=true}.
  *
  * @author Kohsuke Kawaguchi
  */
 public class BackFiller extends LoadPredictor {
+    /**
+     * How far ahead, in milliseconds, executors are predicted to be busy when making a tentative plan.
+     */
+    private static /* not final */ long HORIZON = SystemProperties.getLong(BackFiller.class.getName()+".horizon", TimeUnit.HOURS.toMillis(24));
+
     private boolean recursion = false;
 
     @Override
@@ -45,11 +64,12 @@ public class BackFiller extends LoadPredictor {
                 // if the tentative plan is stale, just keep on pushing it to the current time
                 // (if we recreate the plan, it'll be put at the end of the queue, whereas this job
                 // should actually get priority over others)
-                tp.range.shiftTo(System.currentTimeMillis());
+                tp.range = tp.range.shiftTo(System.currentTimeMillis());
             }
 
-            // don't let its own tentative plan count when considering a scheduling for a job
-            if (plan.item==bi)  continue;
+            // only the items ahead of this one get to reserve executors, so that
+            // a later item never delays an earlier one, including its own plan
+            if (plan.item==bi)  break;
 
 
             // no overlap in the time span, meaning this plan is for a distant future
@@ -59,7 +79,7 @@ public class BackFiller extends LoadPredictor {
             Integer i = tp.footprint.get(computer);
             if (i==null)    continue;
 
-            return Collections.singleton(tp.range.toFutureLoad(i));
+            loads.add(tp.range.toFutureLoad(i));
         }
 
         return loads;
@@ -126,23 +146,34 @@ public class BackFiller extends LoadPredictor {
             long d = bi.task.getEstimatedDuration();
             if (d<=0)    d = TimeUnit.MINUTES.toMillis(5);
 
-            TimeRange slot = new TimeRange(System.currentTimeMillis(), d);
+            long now = System.currentTimeMillis();
+            TimeRange slot = new TimeRange(now, d);
 
             // now, based on the real predicted loads, figure out the approximation of when we can
-            // start executing this guy.
-            for (Entry<Computer, Integer> e : footprint.entrySet()) {
-                Computer computer = e.getKey();
+            // start executing this guy. The predictions look ahead well past the duration of this item,
+            // as the executors it needs may well be occupied for much longer than that.
+            long horizon = now + Math.max(HORIZON, 2*d);
+            Map<Computer,Timeline> timelines = new HashMap<Computer,Timeline>();
+            for (Computer computer : footprint.keySet()) {
                 Timeline timeline = new Timeline();
                 for (LoadPredictor lp : LoadPredictor.all()) {
-                    for (FutureLoad fl : Iterables.limit(lp.predict(worksheet, computer, slot.start, slot.end),100)) {
+                    for (FutureLoad fl : Iterables.limit(lp.predict(worksheet, computer, now, horizon),100)) {
                         timeline.insert(fl.startTime, fl.startTime+fl.duration, fl.numExecutors);
                     }
                 }
+                timelines.put(computer, timeline);
+            }
 
-                Long x = timeline.fit(slot.start, slot.duration, computer.countExecutors()-e.getValue());
-                // if no suitable range was found in [slot.start,slot.end), slot.end would be a good approximation
-                if (x==null)    x = slot.end;
-                slot = slot.shiftTo(x);
+            // shifting the slot to fit one computer may make it collide on another one, so repeat
+            // until the slot fits all of them, or give up and assume it can start once the horizon is past
+            for (int attempt=0; attempt<10; attempt++) {
+                long start = slot.start;
+                for (Entry<Computer, Integer> e : footprint.entrySet()) {
+                    Long x = timelines.get(e.getKey()).fit(slot.start, slot.duration, e.getKey().countExecutors()-e.getValue());
+                    if (x==null)    x = Math.max(slot.start, horizon);
+                    slot = slot.shiftTo(x);
+                }
+                if (slot.start==start)  break;
             }
 
             TentativePlan tp = new TentativePlan(footprint, slot);
@@ -184,7 +215,7 @@ public class BackFiller extends LoadPredictor {
 
     public static final class TentativePlan extends InvisibleAction {
         private final Map<Computer,Integer> footprint;
-        public final TimeRange range;
+        public volatile TimeRange range;
 
         public TentativePlan(Map<Computer, Integer> footprint, TimeRange range) {
             this.footprint = footprint;
@@ -0,0 +1,285 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Cause;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.Task;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * {@link QueueSorter} that shares executors fairly between top-level folders and between users.
+ *
+ * <p>
+ * Every build charges the executor time it consumes to the account of its top-level {@link ItemGroup}
+ * (all the jobs directly under {@link Jenkins} share one account), and, if it was started by a user,
+ * to the account of that user. Charges decay exponentially with a configurable half-life, so that
+ * only recent usage counts. Buildable items are then ordered by the usage of their accounts relative
+ * to the weight of their folder, least used first, and in FIFO order among equals.
+ *
+ * <p>
+ * Builds are charged their estimated duration when they start, corrected to the actual duration
+ * when they complete, so that a folder running many long builds does not keep its priority
+ * until they are done. Usage is kept in memory and starts from zero after a restart.
+ *
+ * <p>
+ * Enabled with {@code -Dhudson.model.queue.FairShareQueueSorter.enabled=true}. Folder weights
+ * default to 1 and can be set with
+ * {@code -Dhudson.model.queue.FairShareQueueSorter.weights=folderA=2,folderB=0.5}
+ * or {@link #setWeight(String, double)}.
+ *
+ * @since TODO
+ */
+public class FairShareQueueSorter extends QueueSorter {
+
+    /**
+     * Time after which usage counts for half as much, in seconds.
+     */
+    private static /* not final */ long HALF_LIFE_SECONDS = SystemProperties.getLong(FairShareQueueSorter.class.getName() + ".halfLifeSeconds", TimeUnit.HOURS.toSeconds(1));
+
+    /**
+     * Account of the jobs that are not inside any folder.
+     */
+    static final String ROOT = "";
+
+    private final Map<String,Usage> folders = new ConcurrentHashMap<String,Usage>();
+    private final Map<String,Usage> users = new ConcurrentHashMap<String,Usage>();
+    private final Map<String,Double> weights = new ConcurrentHashMap<String,Double>();
+
+    /**
+     * What was charged for builds in progress, so that it can be corrected once they complete.
+     */
+    private final Map<Run<?,?>,Long> charged = Collections.synchronizedMap(new HashMap<Run<?,?>,Long>());
+
+    public FairShareQueueSorter() {
+        for (String entry : Util.fixNull(SystemProperties.getString(FairShareQueueSorter.class.getName() + ".weights")).split(",")) {
+            int idx = entry.lastIndexOf('=');
+            if (idx <= 0) {
+                continue;
+            }
+            try {
+                setWeight(entry.substring(0, idx).trim(), Double.parseDouble(entry.substring(idx + 1).trim()));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("Ignoring invalid folder weight: " + entry);
+            }
+        }
+    }
+
+    /**
+     * Sets the share of executor time a top-level folder is entitled to, relative to the other folders.
+     *
+     * @param folder
+     *      Full name of the top-level folder, or the empty string for the jobs that are not in any folder.
+     * @param weight
+     *      Positive weight. The default is 1.
+     */
+    public void setWeight(@Nonnull String folder, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        weights.put(folder, weight);
+    }
+
+    /**
+     * Gets the weight of a top-level folder.
+     *
+     * @see #setWeight(String, double)
+     */
+    public double getWeight(@Nonnull String folder) {
+        Double w = weights.get(folder);
+        return w == null ? 1 : w;
+    }
+
+    @Override
+    public void sortBuildableItems(List<BuildableItem> buildables) {
+        long now = System.currentTimeMillis();
+        // compute each key once, so that sorting is O(n log n) regardless of the number of accounts
+        final Map<BuildableItem,Double> keys = new HashMap<BuildableItem,Double>(buildables.size());
+        for (BuildableItem bi : buildables) {
+            keys.put(bi, priority(bi, now));
+        }
+        Collections.sort(buildables, new Comparator<BuildableItem>() {
+            @Override
+            public int compare(BuildableItem lhs, BuildableItem rhs) {
+                int r = Double.compare(keys.get(lhs), keys.get(rhs));
+                if (r != 0) {
+                    return r;
+                }
+                return Long.compare(lhs.buildableStartMilliseconds, rhs.buildableStartMilliseconds);
+            }
+        });
+    }
+
+    /**
+     * Decayed usage of the accounts of an item, relative to its folder weight. Lower is served first.
+     */
+    double priority(@Nonnull BuildableItem bi, long now) {
+        String folder = folderOf(bi.task);
+        double usage = usage(folders, folder, now);
+        String user = userOf(bi.getCauses());
+        if (user != null) {
+            usage += usage(users, user, now);
+        }
+        return usage / getWeight(folder);
+    }
+
+    private static double usage(Map<String,Usage> accounts, String key, long now) {
+        Usage u = accounts.get(key);
+        return u == null ? 0 : u.get(now);
+    }
+
+    /**
+     * Charges executor time to the accounts of a build.
+     *
+     * @param millis
+     *      Executor time, or a correction to a previous charge if negative.
+     */
+    void charge(@Nonnull String folder, @CheckForNull String user, long millis) {
+        long now = System.currentTimeMillis();
+        charge(folders, folder, millis, now);
+        if (user != null) {
+            charge(users, user, millis, now);
+        }
+    }
+
+    private static void charge(Map<String,Usage> accounts, String key, long millis, long now) {
+        accounts.computeIfAbsent(key, k -> new Usage()).add(millis, now);
+    }
+
+    void onStarted(@Nonnull Run<?,?> r) {
+        long estimate = Math.max(0, r.getEstimatedDuration());
+        charged.put(r, estimate);
+        charge(folderOf(r.getParent()), userOf(r.getCauses()), estimate);
+    }
+
+    void onCompleted(@Nonnull Run<?,?> r) {
+        Long estimate = charged.remove(r);
+        charge(folderOf(r.getParent()), userOf(r.getCauses()), r.getDuration() - (estimate == null ? 0 : estimate));
+    }
+
+    /**
+     * Finds the account of the top-level folder of a task or job.
+     */
+    static @Nonnull String folderOf(@Nonnull Object o) {
+        if (!(o instanceof Item) && o instanceof Task) {
+            o = ((Task) o).getOwnerTask();
+        }
+        if (!(o instanceof Item)) {
+            return ROOT;
+        }
+        Item item = (Item) o;
+        while (item.getParent() instanceof Item) {
+            item = (Item) item.getParent();
+        }
+        return item instanceof ItemGroup ? item.getFullName() : ROOT;
+    }
+
+    private static @CheckForNull String userOf(List<Cause> causes) {
+        for (Cause c : causes) {
+            if (c instanceof Cause.UserIdCause) {
+                return ((Cause.UserIdCause) c).getUserId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Executor time that decays exponentially.
+     */
+    private static final class Usage {
+        private double value;
+        private long timestamp;
+
+        synchronized void add(long millis, long now) {
+            value = Math.max(0, get(now) + millis / 1000.0);
+            timestamp = now;
+        }
+
+        synchronized double get(long now) {
+            if (value == 0) {
+                return 0;
+            }
+            return value * Math.pow(0.5, (now - timestamp) / (HALF_LIFE_SECONDS * 1000.0));
+        }
+    }
+
+    @Extension
+    public static FairShareQueueSorter newInstance() {
+        if (SystemProperties.getBoolean(FairShareQueueSorter.class.getName() + ".enabled"))
+            return new FairShareQueueSorter();
+        return null;
+    }
+
+    /**
+     * Charges builds to the {@link FairShareQueueSorter} in use, if any.
+     */
+    @Extension
+    public static final class UsageTracker extends RunListener<Run<?,?>> {
+        @Override
+        public void onStarted(Run<?,?> r, TaskListener listener) {
+            FairShareQueueSorter sorter = sorter();
+            if (sorter != null) {
+                sorter.onStarted(r);
+            }
+        }
+
+        @Override
+        public void onCompleted(Run<?,?> r, @Nonnull TaskListener listener) {
+            FairShareQueueSorter sorter = sorter();
+            if (sorter != null) {
+                sorter.onCompleted(r);
+            }
+        }
+
+        private static @CheckForNull FairShareQueueSorter sorter() {
+            Jenkins j = Jenkins.getInstanceOrNull();
+            if (j == null) {
+                return null;
+            }
+            QueueSorter s = j.getQueue().getSorter();
+            return s instanceof FairShareQueueSorter ? (FairShareQueueSorter) s : null;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(FairShareQueueSorter.class.getName());
+}
@@ -0,0 +1,294 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.LoadBalancer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Queue.Task;
+import hudson.model.Run;
+import hudson.model.queue.MappingWorksheet.ExecutorChunk;
+import hudson.model.queue.MappingWorksheet.Mapping;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link LoadBalancer} that ranks the candidate {@link ExecutorChunk}s of each {@link WorkChunk}
+ * by where the task is likely to run best, instead of spreading tasks by a hash of the node names
+ * like {@link LoadBalancer#CONSISTENT_HASH} does.
+ *
+ * <p>
+ * Each candidate node is scored by:
+ * <ul>
+ * <li>locality: the share of the recent builds of the task that ran on that node, as those nodes
+ *     most likely still have a workspace and so avoid a cold checkout;
+ * <li>speed: how fast the recent builds of the task were on that node, relative to the fastest node;
+ * <li>load: the fraction of the executors of that node that are busy right now, to avoid hot-spotting.
+ * </ul>
+ * Ties are broken by a hash of the task and node names, so that equally good nodes are still spread
+ * across tasks the same way every time.
+ *
+ * <p>
+ * The history part of the score requires loading builds, which is too expensive to do on every queue
+ * maintenance, so it is cached per task until another build of it completes, or for at most a minute.
+ * The load part is always computed fresh.
+ *
+ * <p>
+ * Enabled with {@code -Dhudson.model.queue.LocalityAwareLoadBalancer.enabled=true}, or installed
+ * with {@link Queue#setLoadBalancer(LoadBalancer)}.
+ *
+ * @since TODO
+ */
+public class LocalityAwareLoadBalancer extends LoadBalancer {
+
+    /**
+     * Whether {@link jenkins.model.Jenkins} should install this load balancer instead of {@link LoadBalancer#CONSISTENT_HASH}.
+     */
+    public static final boolean ENABLED = SystemProperties.getBoolean(LocalityAwareLoadBalancer.class.getName() + ".enabled");
+
+    /**
+     * Number of recent builds looked at when profiling a task.
+     */
+    private static /* not final */ int HISTORY = SystemProperties.getInteger(LocalityAwareLoadBalancer.class.getName() + ".history", 10);
+
+    /**
+     * How long the build history profile of a task is reused before being computed again.
+     */
+    private static /* not final */ long PROFILE_TTL_SECONDS = SystemProperties.getLong(LocalityAwareLoadBalancer.class.getName() + ".profileTtlSeconds", 60L);
+
+    private static /* not final */ double LOCALITY_WEIGHT = Double.parseDouble(SystemProperties.getString(LocalityAwareLoadBalancer.class.getName() + ".localityWeight", "1.0"));
+    private static /* not final */ double SPEED_WEIGHT = Double.parseDouble(SystemProperties.getString(LocalityAwareLoadBalancer.class.getName() + ".speedWeight", "0.5"));
+    private static /* not final */ double LOAD_WEIGHT = Double.parseDouble(SystemProperties.getString(LocalityAwareLoadBalancer.class.getName() + ".loadWeight", "1.0"));
+
+    private final Cache<Task, TaskProfile> profiles = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(1000)
+            .expireAfterWrite(PROFILE_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    @Override
+    public Mapping map(final Task task, MappingWorksheet ws) {
+        TaskProfile profile = getProfile(task);
+
+        List<List<ExecutorChunk>> candidates = new ArrayList<List<ExecutorChunk>>(ws.works.size());
+        for (int i=0; i<ws.works.size(); i++) {
+            List<ExecutorChunk> chunks = new ArrayList<ExecutorChunk>(ws.works(i).applicableExecutorChunks());
+            final Map<ExecutorChunk,Double> scores = new HashMap<ExecutorChunk,Double>(chunks.size());
+            for (ExecutorChunk ec : chunks) {
+                scores.put(ec, score(ec, profile));
+            }
+            final String key = task.getFullDisplayName() + (i>0 ? String.valueOf(i) : "");
+            Collections.sort(chunks, new Comparator<ExecutorChunk>() {
+                @Override
+                public int compare(ExecutorChunk a, ExecutorChunk b) {
+                    int r = Double.compare(scores.get(b), scores.get(a));
+                    if (r != 0) {
+                        return r;
+                    }
+                    return Integer.compare((key + a.getName()).hashCode(), (key + b.getName()).hashCode());
+                }
+            });
+            candidates.add(chunks);
+        }
+
+        // do a greedy assignment, trying the best scored chunks first
+        Mapping m = ws.new Mapping();
+        assert m.size()==ws.works.size();
+
+        if (assignGreedily(m,candidates,0)) {
+            assert m.isCompletelyValid();
+            return m;
+        } else
+            return null;
+    }
+
+    private boolean assignGreedily(Mapping m, List<List<ExecutorChunk>> candidates, int i) {
+        if (i==candidates.size())   return true;    // fully assigned
+
+        for (ExecutorChunk ec : candidates.get(i)) {
+            m.assign(i,ec);
+
+            if (m.isPartiallyValid() && assignGreedily(m,candidates,i+1))
+                return true;
+        }
+
+        m.assign(i,null);
+        return false;
+    }
+
+    /**
+     * Scores a candidate executor chunk for a task. Higher is better.
+     *
+     * @param ec
+     *      The candidate.
+     * @param profile
+     *      Where and how fast the recent builds of the task ran.
+     */
+    protected double score(@Nonnull ExecutorChunk ec, @Nonnull TaskProfile profile) {
+        double score = 0;
+        String name = ec.getName();
+        if (profile.getBuilds() > 0) {
+            score += LOCALITY_WEIGHT * profile.getBuilds(name) / profile.getBuilds();
+            long average = profile.getAverageDuration(name);
+            if (average > 0) {
+                score += SPEED_WEIGHT * profile.getFastestAverageDuration() / average;
+            }
+        } else if (name.equals(profile.getLastBuiltOn())) {
+            score += LOCALITY_WEIGHT;
+        }
+        Computer c = ec.computer;
+        int executors = c.countExecutors();
+        if (executors > 0) {
+            score -= LOAD_WEIGHT * c.countBusy() / executors;
+        }
+        return score;
+    }
+
+    private @Nonnull TaskProfile getProfile(final Task task) {
+        try {
+            final int lastCompleted = lastCompletedBuild(task);
+            TaskProfile profile = profiles.getIfPresent(task);
+            if (profile == null || profile.lastCompleted != lastCompleted) {
+                profile = computeProfile(task);
+                profile.lastCompleted = lastCompleted;
+                profiles.put(task, profile);
+            }
+            return profile;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to compute the build history of " + task.getFullDisplayName(), e);
+            return new TaskProfile(null);
+        }
+    }
+
+    private static int lastCompletedBuild(Task task) {
+        if (task instanceof Job) {
+            Run<?,?> r = ((Job<?,?>) task).getLastCompletedBuild();
+            return r == null ? 0 : r.getNumber();
+        }
+        return 0;
+    }
+
+    /**
+     * Computes the profile of a task from its recent builds.
+     * Only {@link AbstractBuild}s record the node they ran on; other tasks only get {@link SubTask#getLastBuiltOn()}.
+     */
+    protected @Nonnull TaskProfile computeProfile(@Nonnull Task task) {
+        Node lastBuiltOn = task.getLastBuiltOn();
+        TaskProfile profile = new TaskProfile(lastBuiltOn == null ? null : lastBuiltOn.getNodeName());
+        if (task instanceof Job) {
+            for (Run<?,?> r : ((Job<?,?>) task).getBuilds().limit(HISTORY)) {
+                if (r instanceof AbstractBuild && !r.isBuilding()) {
+                    profile.add(Util.fixNull(((AbstractBuild<?,?>) r).getBuiltOnStr()), r.getDuration());
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Where and how fast the recent builds of a task ran, keyed by {@link Node#getNodeName()}.
+     */
+    protected static final class TaskProfile {
+        private final String lastBuiltOn;
+        private final Map<String,Integer> builds = new HashMap<String,Integer>();
+        private final Map<String,Long> durations = new HashMap<String,Long>();
+        private int total;
+        private int lastCompleted;
+
+        TaskProfile(@CheckForNull String lastBuiltOn) {
+            this.lastBuiltOn = lastBuiltOn;
+        }
+
+        void add(@Nonnull String node, long duration) {
+            Integer n = builds.get(node);
+            builds.put(node, n == null ? 1 : n + 1);
+            Long d = durations.get(node);
+            durations.put(node, d == null ? duration : d + duration);
+            total++;
+        }
+
+        /**
+         * Name of the node the task was last built on, if known.
+         */
+        public @CheckForNull String getLastBuiltOn() {
+            return lastBuiltOn;
+        }
+
+        /**
+         * Number of recent builds looked at.
+         */
+        public int getBuilds() {
+            return total;
+        }
+
+        /**
+         * Number of recent builds that ran on the given node.
+         */
+        public int getBuilds(@Nonnull String node) {
+            Integer n = builds.get(node);
+            return n == null ? 0 : n;
+        }
+
+        /**
+         * Average duration of the recent builds on the given node, or 0 if none ran there.
+         */
+        public long getAverageDuration(@Nonnull String node) {
+            Long d = durations.get(node);
+            return d == null ? 0 : d / builds.get(node);
+        }
+
+        /**
+         * Lowest {@link #getAverageDuration(String)} among the nodes the task recently ran on.
+         */
+        public long getFastestAverageDuration() {
+            long fastest = 0;
+            for (String node : builds.keySet()) {
+                long average = getAverageDuration(node);
+                if (average > 0 && (fastest == 0 || average < fastest)) {
+                    fastest = average;
+                }
+            }
+            return fastest;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LocalityAwareLoadBalancer.class.getName());
+}
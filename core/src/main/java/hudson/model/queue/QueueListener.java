@@ -19,7 +19,8 @@ import java.util.concurrent.Executor;
  * {@link Queue} is highly synchronized objects, and these callbacks are invoked synchronously.
  * To avoid the risk of deadlocks and general slow down, please minimize the amount of work callbacks
  * will perform, and push any sizable work to asynchronous execution via {@link Executor}, such as
- * {@link Computer#threadPoolForRemoting}.
+ * {@link Computer#threadPoolForRemoting}, or have the events delivered asynchronously
+ * by overriding {@link #isAsynchronous()}.
  *
  * <p>
  * For the state transition of {@link hudson.model.Queue.Item} in {@link Queue}, please refer to the Queue javadoc.
@@ -75,6 +76,25 @@ public abstract class QueueListener implements ExtensionPoint {
      */
     public void onLeft(LeftItem li) {}
 
+    /**
+     * Whether this listener is notified asynchronously, from a background thread and without the {@link Queue} lock,
+     * instead of synchronously by the thread that changes the queue.
+     *
+     * <p>
+     * Asynchronous listeners get their events in order, but some time after the change happened, so the item may
+     * have moved on by then. Events are held in a bounded buffer per listener, and events that do not fit are dropped,
+     * so that a slow listener cannot hold the queue up.
+     *
+     * <p>
+     * The default is {@code false}, unless {@code -Dhudson.model.queue.QueueListener.async=true} is set.
+     * Listeners that must see every event, or see it before the change is visible to others, should return {@code false}.
+     *
+     * @since TODO
+     */
+    public boolean isAsynchronous() {
+        return QueueListenerDispatcher.ASYNC;
+    }
+
     /**
      * Returns all the registered {@link QueueListener}s.
      */
@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Queue;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers {@link QueueListener} events.
+ *
+ * <p>
+ * {@linkplain QueueListener#isAsynchronous() Synchronous} listeners are called right away by the thread
+ * changing the queue. Asynchronous ones get the event appended to their own bounded mailbox, which is drained
+ * in order on a background thread: a burst of events results in a single drain, and while a listener is busy
+ * its events just pile up in its mailbox, up to {@link #CAPACITY}, past which they are dropped and counted.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class QueueListenerDispatcher {
+
+    /**
+     * Whether {@link QueueListener}s are asynchronous unless they say otherwise.
+     */
+    static final boolean ASYNC = SystemProperties.getBoolean(QueueListener.class.getName() + ".async");
+
+    /**
+     * Maximum number of undelivered events per asynchronous listener.
+     */
+    private static /* not final */ int CAPACITY = SystemProperties.getInteger(QueueListener.class.getName() + ".asyncCapacity", 10000);
+
+    /**
+     * Calls one {@link QueueListener} method.
+     */
+    public interface Event<I extends Queue.Item> {
+        void deliver(@Nonnull QueueListener listener, @Nonnull I item);
+    }
+
+    private static final ExecutorService executor = new ImpersonatingExecutorService(Executors.newCachedThreadPool(
+            new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "QueueListener delivery"))), ACL.SYSTEM);
+
+    private static final Map<QueueListener,Mailbox> mailboxes = new ConcurrentHashMap<QueueListener,Mailbox>();
+
+    private QueueListenerDispatcher() {}
+
+    /**
+     * Notifies all the {@link QueueListener}s of an event.
+     */
+    public static <I extends Queue.Item> void fire(@Nonnull I item, @Nonnull Event<I> event) {
+        for (QueueListener ql : QueueListener.all()) {
+            if (ql.isAsynchronous()) {
+                mailboxes.computeIfAbsent(ql, Mailbox::new).offer(item, event);
+            } else {
+                deliver(ql, item, event);
+            }
+        }
+    }
+
+    private static <I extends Queue.Item> void deliver(QueueListener ql, I item, Event<I> event) {
+        try {
+            event.deliver(ql, item);
+        } catch (Throwable e) {
+            // don't let this kill the queue
+            LOGGER.log(Level.WARNING, "QueueListener failed while processing "+item,e);
+        }
+    }
+
+    /**
+     * Delivery statistics of the asynchronous listeners.
+     */
+    public static @Nonnull List<Statistics> getStatistics() {
+        List<Statistics> r = new ArrayList<Statistics>();
+        for (Mailbox m : mailboxes.values()) {
+            r.add(m.statistics());
+        }
+        return r;
+    }
+
+    /**
+     * Snapshot of how far behind an asynchronous listener is.
+     */
+    public static final class Statistics {
+        private final String listener;
+        private final int pending;
+        private final long delivered, dropped, lastLagMillis, maxLagMillis;
+
+        Statistics(String listener, int pending, long delivered, long dropped, long lastLagMillis, long maxLagMillis) {
+            this.listener = listener;
+            this.pending = pending;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.lastLagMillis = lastLagMillis;
+            this.maxLagMillis = maxLagMillis;
+        }
+
+        /**
+         * Class name of the listener.
+         */
+        public String getListener() {
+            return listener;
+        }
+
+        /**
+         * Number of events waiting to be delivered.
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * Number of events delivered so far.
+         */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * Number of events dropped because the mailbox was full.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Time between the last delivered event and its delivery.
+         */
+        public long getLastLagMillis() {
+            return lastLagMillis;
+        }
+
+        /**
+         * Longest time an event waited to be delivered.
+         */
+        public long getMaxLagMillis() {
+            return maxLagMillis;
+        }
+    }
+
+    private static final class Pending<I extends Queue.Item> {
+        final I item;
+        final Event<I> event;
+        final long enqueued = System.nanoTime();
+
+        Pending(I item, Event<I> event) {
+            this.item = item;
+            this.event = event;
+        }
+
+        void deliver(QueueListener ql) {
+            QueueListenerDispatcher.deliver(ql, item, event);
+        }
+    }
+
+    private static final class Mailbox implements Runnable {
+        private final QueueListener listener;
+        @GuardedBy("this")
+        private final ArrayDeque<Pending<?>> pending = new ArrayDeque<Pending<?>>();
+        @GuardedBy("this")
+        private boolean draining;
+        @GuardedBy("this")
+        private long delivered, dropped, lastLag, maxLag;
+
+        Mailbox(QueueListener listener) {
+            this.listener = listener;
+        }
+
+        synchronized <I extends Queue.Item> void offer(I item, Event<I> event) {
+            if (pending.size() >= CAPACITY) {
+                if (dropped++ == 0) {
+                    LOGGER.log(Level.WARNING, "{0} is not keeping up with the queue; dropping events", listener);
+                }
+                return;
+            }
+            pending.add(new Pending<I>(item, event));
+            if (!draining) {
+                draining = true;
+                executor.submit(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Pending<?> p;
+                synchronized (this) {
+                    p = pending.poll();
+                    if (p == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                p.deliver(listener);
+                long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - p.enqueued);
+                synchronized (this) {
+                    delivered++;
+                    lastLag = lag;
+                    maxLag = Math.max(maxLag, lag);
+                }
+            }
+        }
+
+        synchronized Statistics statistics() {
+            return new Statistics(listener.getClass().getName(), pending.size(), delivered, dropped, lastLag, maxLag);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(QueueListenerDispatcher.class.getName());
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Action;
+import hudson.model.Queue;
+import hudson.model.Queue.Task;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single submission to {@link Queue#scheduleAll(List)}, carrying the same information
+ * as the arguments to {@link Queue#schedule2(Task, int, List)}.
+ *
+ * @since TODO
+ */
+public final class ScheduleRequest {
+    private final Task task;
+    private final int quietPeriod;
+    private final List<Action> actions;
+
+    /**
+     * @param actions
+     *      See {@link Queue#schedule2(Task, int, List)}. May contain null, which is ignored.
+     */
+    public ScheduleRequest(@Nonnull Task task, int quietPeriod, @Nonnull List<? extends Action> actions) {
+        this.task = task;
+        this.quietPeriod = quietPeriod;
+        List<Action> l = new ArrayList<Action>(actions.size());
+        for (Action a : actions) {
+            if (a != null) {
+                l.add(a);
+            }
+        }
+        this.actions = Collections.unmodifiableList(l);
+    }
+
+    public ScheduleRequest(@Nonnull Task task, int quietPeriod, Action... actions) {
+        this(task, quietPeriod, Arrays.asList(actions));
+    }
+
+    public @Nonnull Task getTask() {
+        return task;
+    }
+
+    public int getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    /**
+     * @return the non-null actions of this request; read-only
+     */
+    public @Nonnull List<Action> getActions() {
+        return actions;
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduleRequest[" + task + ", quietPeriod=" + quietPeriod + ", actions=" + actions + "]";
+    }
+}
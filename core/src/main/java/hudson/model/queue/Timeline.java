@@ -43,10 +43,9 @@ final class Timeline {
     /**
      * Obtains q(t) for the given t.
      */
-    private int at(long t) {
-        SortedMap<Long, int[]> head = data.subMap(t,Long.MAX_VALUE);
-        if (head.isEmpty()) return 0;
-        return data.get(head.firstKey())[0];
+    int at(long t) {
+        Map.Entry<Long, int[]> e = data.floorEntry(t);
+        return e == null ? 0 : e.getValue()[0];
     }
 
     /**
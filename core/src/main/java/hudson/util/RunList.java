@@ -23,7 +23,9 @@
  */
 package hudson.util;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import hudson.model.AbstractBuild;
@@ -31,9 +33,14 @@ import hudson.model.Job;
 import hudson.model.Node;
 import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.RunMap;
 import hudson.model.TopLevelItem;
 import hudson.model.View;
 import hudson.util.Iterators.CountingPredicate;
+import jenkins.model.lazy.BuildSummary;
+import javax.annotation.CheckForNull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import java.util.*;
 
@@ -49,12 +56,34 @@ public class RunList<R extends Run> extends AbstractList<R> {
     private R first;
     private Integer size;
 
+    /**
+     * Set while this list is all the builds of one job, only narrowed down by filters that can be
+     * checked against {@link BuildSummary}s or build numbers, so that builds are only loaded once known to match.
+     * {@link #include} and {@link #stop} are the accumulated conditions of those filters,
+     * {@link #oldest} and {@link #newest} the range of build numbers, and {@link #max} the limit on their count.
+     */
+    private RunMap<?> source;
+    private Predicate<BuildSummary> include = Predicates.alwaysTrue();
+    private Predicate<BuildSummary> stop = Predicates.alwaysFalse();
+    private int oldest = Integer.MIN_VALUE;
+    private int newest = Integer.MAX_VALUE;
+    private int max = Integer.MAX_VALUE;
+
     public RunList() {
         base = Collections.emptyList();
     }
 
     public RunList(Job j) {
-        base = j.getBuilds();
+        RunList<R> builds = j.getBuilds();
+        base = builds;
+        if (builds.source != null) {
+            source = builds.source;
+            include = builds.include;
+            stop = builds.stop;
+            oldest = builds.oldest;
+            newest = builds.newest;
+            max = builds.max;
+        }
     }
 
     public RunList(View view) {// this is a type unsafe operation
@@ -120,6 +149,9 @@ public class RunList<R extends Run> extends AbstractList<R> {
     @Override
     @Deprecated
     public int size() {
+        if (size==null && source!=null) {
+            size = Iterables.size(loadableNumbers()); // counts build records without loading those in the summary index
+        }
         if (size==null) {
             int sz=0;
             for (R r : this) {
@@ -149,6 +181,11 @@ public class RunList<R extends Run> extends AbstractList<R> {
     @Override
     public List<R> subList(int fromIndex, int toIndex) {
         List<R> r = new ArrayList<R>();
+        if (source != null) {
+            // only load the requested window, as for a {@code builds{from,to}} tree in the REST API
+            Iterables.addAll(r, (Iterable) source.builds(Iterables.limit(Iterables.skip(loadableNumbers(), fromIndex), toIndex - fromIndex)));
+            return r;
+        }
         Iterator<R> itr = iterator();
         hudson.util.Iterators.skip(itr, fromIndex);
         for (int i=toIndex-fromIndex; i>0; i--) {
@@ -188,6 +225,13 @@ public class RunList<R extends Run> extends AbstractList<R> {
     /** @deprecated see {@link #size()} for why this violates lazy-loading */
     @Deprecated
     public R getFirstBuild() {
+        if (source != null) {
+            R last = null;
+            for (R r : this) {
+                last = r;
+            }
+            return last;
+        }
         size();
         return first;
     }
@@ -202,6 +246,105 @@ public class RunList<R extends Run> extends AbstractList<R> {
         return new RunList<R>((Iterable)runs);
     }
 
+    /**
+     * Lists all the builds of a job, so that the filters that can be served from {@link BuildSummary}s
+     * do not need to load the builds they exclude.
+     */
+    @Restricted(NoExternalUse.class)
+    public static <R extends Run>
+    RunList<R> fromRunMap(RunMap<?> runs) {
+        RunList<R> r = new RunList<R>((Iterable)runs.values());
+        r.source = runs;
+        return r;
+    }
+
+    /**
+     * Whether filters can still be applied to {@link #source}, which is not the case once
+     * the list is {@linkplain #limit(int) limited}, as filtering must then happen after limiting.
+     */
+    private boolean isNarrowable() {
+        return source != null && max == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Narrows down a list still backed by {@link #source}.
+     */
+    private RunList<R> narrow(Predicate<BuildSummary> include, Predicate<BuildSummary> stop) {
+        this.include = Predicates.and(this.include, include);
+        this.stop = Predicates.or(this.stop, stop);
+        return rebuild();
+    }
+
+    /**
+     * The numbers of the builds in a list still backed by {@link #source}, newer ones first.
+     */
+    private Iterable<Integer> numbers() {
+        Iterable<Integer> numbers = source.numbers(include, stop, oldest, newest, false);
+        return max == Integer.MAX_VALUE ? numbers : Iterables.limit(numbers, max);
+    }
+
+    /**
+     * Like {@link #numbers}, but skipping builds which fail to load, as iteration does.
+     */
+    private Iterable<Integer> loadableNumbers() {
+        final RunMap<?> runs = source;
+        return Iterables.filter(numbers(), new Predicate<Integer>() {
+            public boolean apply(Integer n) {
+                return runs.getSummary(n) != null;
+            }
+        });
+    }
+
+    private RunList<R> rebuild() {
+        size = null;
+        first = null;
+        base = (Iterable) source.builds(numbers());
+        return this;
+    }
+
+    /**
+     * Walks through the builds of a list still backed by a job's builds, starting from a given number,
+     * without going through the builds on the other side of it.
+     *
+     * @param from
+     *      Build number to start from, inclusive.
+     * @param ascending
+     *      Whether to walk towards newer builds rather than older ones.
+     * @return null if the list does not support it, in which case it should simply be iterated
+     */
+    @Restricted(NoExternalUse.class)
+    public @CheckForNull Iterable<R> walk(int from, boolean ascending) {
+        if (!isNarrowable()) {
+            return null;
+        }
+        Iterable<Integer> numbers = ascending
+                ? source.numbers(include, stop, Math.max(oldest, from), newest, true)
+                : source.numbers(include, stop, oldest, Math.min(newest, from), false);
+        return (Iterable) source.builds(numbers);
+    }
+
+    /**
+     * Walks through the summaries of the builds of a list still backed by a job's builds, without loading them
+     * unless they are missing from the index.
+     *
+     * @param ascending
+     *      Whether to walk from the oldest build to the newest rather than the other way around.
+     * @return null if the list does not support it, in which case it should simply be iterated
+     * @see Job#getBuildSummary(int)
+     */
+    @Restricted(NoExternalUse.class)
+    public @CheckForNull Iterable<BuildSummary> summaries(boolean ascending) {
+        if (!isNarrowable()) {
+            return null;
+        }
+        final RunMap<?> runs = source;
+        return Iterables.filter(Iterables.transform(source.numbers(include, stop, oldest, newest, ascending), new Function<Integer, BuildSummary>() {
+            public BuildSummary apply(Integer n) {
+                return runs.getSummary(n);
+            }
+        }), Predicates.notNull());
+    }
+
     /**
      * Returns elements that satisfy the given predicate.
      * <em>Warning:</em> this method mutates the original list and then returns it.
@@ -210,6 +353,7 @@ public class RunList<R extends Run> extends AbstractList<R> {
     public RunList<R> filter(Predicate<R> predicate) {
         size = null;
         first = null;
+        source = null;
         base = Iterables.filter(base,predicate);
         return this;
     }
@@ -222,6 +366,7 @@ public class RunList<R extends Run> extends AbstractList<R> {
     private RunList<R> limit(final CountingPredicate<R> predicate) {
         size = null;
         first = null;
+        source = null;
         final Iterable<R> nested = base;
         base = new Iterable<R>() {
             public Iterator<R> iterator() {
@@ -244,6 +389,10 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * @since 1.507
      */
     public RunList<R> limit(final int n) {
+        if (source != null) {
+            max = Math.min(max, n);
+            return rebuild();
+        }
         return limit(new CountingPredicate<R>() {
             public boolean apply(int index, R input) {
                 return index<n;
@@ -256,6 +405,13 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * <em>Warning:</em> this method mutates the original list and then returns it.
      */
     public RunList<R> failureOnly() {
+        if (isNarrowable()) {
+            return narrow(new Predicate<BuildSummary>() {
+                public boolean apply(BuildSummary s) {
+                    return s.getResult()!=Result.SUCCESS;
+                }
+            }, Predicates.<BuildSummary>alwaysFalse());
+        }
         return filter(new Predicate<R>() {
             public boolean apply(R r) {
                 return r.getResult()!=Result.SUCCESS;
@@ -269,6 +425,13 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * @since 1.517
      */
     public RunList<R> overThresholdOnly(final Result threshold) {
+        if (isNarrowable()) {
+            return narrow(new Predicate<BuildSummary>() {
+                public boolean apply(BuildSummary s) {
+                    return (s.getResult() != null && s.getResult().isBetterOrEqualTo(threshold));
+                }
+            }, Predicates.<BuildSummary>alwaysFalse());
+        }
         return filter(new Predicate<R>() {
             public boolean apply(R r) {
                 return (r.getResult() != null && r.getResult().isBetterOrEqualTo(threshold));
@@ -282,6 +445,13 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * @since 1.561
      */
     public RunList<R> completedOnly() {
+        if (isNarrowable()) {
+            return narrow(new Predicate<BuildSummary>() {
+                public boolean apply(BuildSummary s) {
+                    return !s.isBuilding();
+                }
+            }, Predicates.<BuildSummary>alwaysFalse());
+        }
         return filter(new Predicate<R>() {
             public boolean apply(R r) {
                 return !r.isBuilding();
@@ -320,6 +490,17 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * <em>Warning:</em> this method mutates the original list and then returns it.
      */
     public RunList<R> byTimestamp(final long start, final long end) {
+        if (isNarrowable()) {
+            return narrow(new Predicate<BuildSummary>() {
+                public boolean apply(BuildSummary s) {
+                    return s.getTimeInMillis()<end;
+                }
+            }, new Predicate<BuildSummary>() {
+                public boolean apply(BuildSummary s) {
+                    return s.getTimeInMillis()<start;
+                }
+            });
+        }
         return
         limit(new CountingPredicate<R>() {
             public boolean apply(int index, R r) {
@@ -332,6 +513,34 @@ public class RunList<R extends Run> extends AbstractList<R> {
         });
     }
 
+    /**
+     * Filter the list by build number.
+     *
+     * {@code start&lt;=n&lt;end}.
+     * Unlike other filters, this does not need to go through the builds outside the range
+     * when the list is still backed by a job's builds.
+     * <em>Warning:</em> this method mutates the original list and then returns it.
+     * @since TODO
+     */
+    public RunList<R> byNumber(final int start, final int end) {
+        if (isNarrowable()) {
+            oldest = Math.max(oldest, start);
+            newest = (int) Math.min(newest, (long) end - 1);
+            if (newest < oldest) {
+                // nothing left; make sure the range is empty without overflowing
+                oldest = Integer.MAX_VALUE;
+                newest = Integer.MIN_VALUE;
+            }
+            return rebuild();
+        }
+        return filter(new Predicate<R>() {
+            public boolean apply(R r) {
+                int n = r.getNumber();
+                return start<=n && n<end;
+            }
+        });
+    }
+
     /**
      * Reduce the size of the list by only leaving relatively new ones.
      * This also removes on-going builds, as RSS cannot be used to publish information
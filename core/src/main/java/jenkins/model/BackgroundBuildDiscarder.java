@@ -0,0 +1,479 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Job;
+import hudson.model.RootAction;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.tasks.LogRotator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import jenkins.model.lazy.BuildSummary;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONObject;
+import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+
+/**
+ * Applies {@link BuildDiscarder}s in the background rather than at the tail of each build,
+ * when enabled with {@code -Djenkins.model.BackgroundBuildDiscarder.enabled=true}.
+ *
+ * <p>
+ * Jobs are queued for evaluation as their builds complete, several completions of the same job being coalesced.
+ * For a plain {@link LogRotator}, which builds to delete or purge of artifacts is worked out from {@link BuildSummary}s,
+ * so that the builds being kept need not be loaded; other discarders are just {@linkplain BuildDiscarder#perform run}
+ * on the background thread.
+ *
+ * <p>
+ * Deletions are queued and carried out one at a time, pausing after each so as to stay within a budget of
+ * files and bytes deleted per second, set by {@code jenkins.model.BackgroundBuildDiscarder.filesPerSecond}
+ * and {@code jenkins.model.BackgroundBuildDiscarder.bytesPerSecond} (0 for no limit).
+ * Progress and backlog are available to administrators as JSON from {@code /backgroundBuildDiscarder/}.
+ *
+ * @since TODO
+ */
+@Extension @Symbol("backgroundBuildDiscarder")
+@Restricted(NoExternalUse.class)
+public class BackgroundBuildDiscarder implements RootAction {
+
+    public static /* Script Console modifiable */ boolean ENABLED = SystemProperties.getBoolean(BackgroundBuildDiscarder.class.getName() + ".enabled");
+
+    public static /* Script Console modifiable */ int FILES_PER_SECOND = SystemProperties.getInteger(BackgroundBuildDiscarder.class.getName() + ".filesPerSecond", 2000);
+
+    public static /* Script Console modifiable */ long BYTES_PER_SECOND = SystemProperties.getLong(BackgroundBuildDiscarder.class.getName() + ".bytesPerSecond", 100L * 1024 * 1024);
+
+    public static @Nonnull BackgroundBuildDiscarder get() {
+        return ExtensionList.lookupSingleton(BackgroundBuildDiscarder.class);
+    }
+
+    private final ExecutorService executor = new ImpersonatingExecutorService(Executors.newCachedThreadPool(
+            new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "BackgroundBuildDiscarder"))), ACL.SYSTEM);
+
+    /** Full names of the jobs to evaluate. */
+    @GuardedBy("this")
+    private final Set<String> pendingJobs = new LinkedHashSet<>();
+    @GuardedBy("this")
+    private final Deque<Deletion> deletions = new ArrayDeque<>();
+    @GuardedBy("this")
+    private final Set<Deletion> queued = new HashSet<>();
+    @GuardedBy("this")
+    private boolean running;
+    @GuardedBy("this")
+    private Deletion current;
+
+    @GuardedBy("this")
+    private long evaluations, buildsDeleted, artifactsPurged, skipped, failures, filesDeleted, bytesDeleted, throttledMillis;
+
+    /**
+     * Queues a job for evaluation of its {@link BuildDiscarder}, unless it already is.
+     */
+    public void schedule(@Nonnull Job<?,?> job) {
+        if (job.getBuildDiscarder() == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!pendingJobs.add(job.getFullName()) || running) {
+                return;
+            }
+            running = true;
+        }
+        executor.submit(this::run);
+    }
+
+    private void run() {
+        while (true) {
+            String job = null;
+            Deletion d;
+            synchronized (this) {
+                Iterator<String> it = pendingJobs.iterator();
+                if (it.hasNext()) {
+                    // evaluating is cheap, and may spare us needless deletions
+                    job = it.next();
+                    it.remove();
+                    d = null;
+                } else {
+                    d = current = deletions.poll();
+                    if (d == null) {
+                        running = false;
+                        return;
+                    }
+                    queued.remove(d);
+                }
+            }
+            try {
+                if (job != null) {
+                    evaluate(job);
+                } else {
+                    delete(d);
+                }
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, "Failed to discard builds of " + (job != null ? job : d.job), x);
+                synchronized (this) {
+                    failures++;
+                }
+            } finally {
+                synchronized (this) {
+                    current = null;
+                }
+            }
+        }
+    }
+
+    private void evaluate(String name) {
+        Job<?,?> job = Jenkins.getInstance().getItemByFullName(name, Job.class);
+        if (job == null) {
+            return;
+        }
+        BuildDiscarder bd = job.getBuildDiscarder();
+        if (bd == null) {
+            return;
+        }
+        synchronized (this) {
+            evaluations++;
+        }
+        List<Deletion> planned = bd.getClass() == LogRotator.class ? plan(job, (LogRotator) bd) : null;
+        if (planned == null) {
+            try {
+                bd.perform(job);
+            } catch (IOException | InterruptedException x) {
+                LOGGER.log(Level.WARNING, "Failed to rotate log of " + name, x);
+                synchronized (this) {
+                    failures++;
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            for (Deletion d : planned) {
+                if (queued.add(d)) {
+                    deletions.add(d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out from build summaries what {@link LogRotator#perform} would delete.
+     *
+     * @return null if the builds of this job cannot be summarized
+     */
+    @CheckForNull List<Deletion> plan(Job<?,?> job, LogRotator lr) {
+        Iterable<BuildSummary> newestFirst = job.getBuilds().summaries(false);
+        Iterable<BuildSummary> oldestFirst = job.getBuilds().summaries(true);
+        if (newestFirst == null || oldestFirst == null) {
+            return null;
+        }
+        // always keep the last successful and the last stable builds
+        Run<?,?> lsb = job.getLastSuccessfulBuild();
+        Run<?,?> lstb = job.getLastStableBuild();
+        Set<Integer> keep = new HashSet<>();
+        if (lsb != null) {
+            keep.add(lsb.getNumber());
+        }
+        if (lstb != null) {
+            keep.add(lstb.getNumber());
+        }
+
+        Set<Integer> delete = new TreeSet<>();
+        if (lr.getNumToKeep() != -1) {
+            int i = 0;
+            for (BuildSummary s : newestFirst) {
+                if (i++ >= lr.getNumToKeep() && !shouldKeep(s, keep)) {
+                    delete.add(s.getNumber());
+                }
+            }
+        }
+        if (lr.getDaysToKeep() != -1) {
+            long cutoff = cutoff(lr.getDaysToKeep());
+            for (BuildSummary s : oldestFirst) {
+                if (s.getTimeInMillis() >= cutoff) {
+                    break;
+                }
+                if (!shouldKeep(s, keep)) {
+                    delete.add(s.getNumber());
+                }
+            }
+        }
+
+        // as in LogRotator, artifacts are counted among the builds which are left
+        Set<Integer> purge = new TreeSet<>();
+        if (lr.getArtifactNumToKeep() != -1) {
+            int i = 0;
+            for (BuildSummary s : newestFirst) {
+                if (!delete.contains(s.getNumber()) && i++ >= lr.getArtifactNumToKeep() && !shouldKeep(s, keep)) {
+                    purge.add(s.getNumber());
+                }
+            }
+        }
+        if (lr.getArtifactDaysToKeep() != -1) {
+            long cutoff = cutoff(lr.getArtifactDaysToKeep());
+            for (BuildSummary s : oldestFirst) {
+                if (s.getTimeInMillis() >= cutoff) {
+                    break;
+                }
+                if (!delete.contains(s.getNumber()) && !shouldKeep(s, keep)) {
+                    purge.add(s.getNumber());
+                }
+            }
+        }
+
+        List<Deletion> planned = new ArrayList<>();
+        for (int n : delete) {
+            planned.add(new Deletion(job.getFullName(), n, false));
+        }
+        for (int n : purge) {
+            planned.add(new Deletion(job.getFullName(), n, true));
+        }
+        return planned;
+    }
+
+    private static boolean shouldKeep(BuildSummary s, Set<Integer> keep) {
+        // other reasons for Run.isKeepLog are checked once the build is loaded for deletion
+        return s.isKeepLogMarked() || s.isBuilding() || keep.contains(s.getNumber());
+    }
+
+    private static long cutoff(int days) {
+        Calendar cal = new GregorianCalendar();
+        cal.add(Calendar.DAY_OF_YEAR, -days);
+        return cal.getTimeInMillis();
+    }
+
+    private void delete(Deletion d) {
+        Job<?,?> job = Jenkins.getInstance().getItemByFullName(d.job, Job.class);
+        Run<?,?> r = job == null ? null : job.getBuildByNumber(d.number);
+        if (r == null) {
+            return; // already gone
+        }
+        if (r.isKeepLog() || r.isBuilding() || r == job.getLastSuccessfulBuild() || r == job.getLastStableBuild()) {
+            LOGGER.log(Level.FINE, "{0} is not to be removed or purged of artifacts after all", r);
+            synchronized (this) {
+                skipped++;
+            }
+            return;
+        }
+        File dir = d.artifactsOnly ? r.getArtifactsDir() : r.getRootDir();
+        long[] size = measure(dir);
+        long start = System.nanoTime();
+        try {
+            if (d.artifactsOnly) {
+                LOGGER.log(Level.FINE, "{0} is to be purged of artifacts", r);
+                r.deleteArtifacts();
+            } else {
+                LOGGER.log(Level.FINE, "{0} is to be removed", r);
+                r.delete();
+            }
+            synchronized (this) {
+                if (d.artifactsOnly) {
+                    artifactsPurged++;
+                } else {
+                    buildsDeleted++;
+                }
+                filesDeleted += size[0];
+                bytesDeleted += size[1];
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to discard " + r, x);
+            synchronized (this) {
+                failures++;
+            }
+        }
+        throttle(size[0], size[1], start);
+    }
+
+    /**
+     * Counts the files and bytes under a directory.
+     */
+    private static long[] measure(File dir) {
+        final long[] size = new long[2];
+        if (!dir.isDirectory()) {
+            return size;
+        }
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0]++;
+                    size[1] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "Failed to measure " + dir, x);
+        }
+        return size;
+    }
+
+    /**
+     * Pauses long enough for the deletion that started at {@code start} to fit within the I/O budget.
+     */
+    private void throttle(long files, long bytes, long start) {
+        long budget = 0;
+        if (FILES_PER_SECOND > 0) {
+            budget = Math.max(budget, files * 1000 / FILES_PER_SECOND);
+        }
+        if (BYTES_PER_SECOND > 0) {
+            budget = Math.max(budget, bytes * 1000 / BYTES_PER_SECOND);
+        }
+        long wait = budget - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (wait <= 0) {
+            return;
+        }
+        synchronized (this) {
+            throttledMillis += wait;
+        }
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Number of deletions waiting to be carried out.
+     */
+    public synchronized int getBacklog() {
+        return deletions.size();
+    }
+
+    /**
+     * Whether there is nothing left to evaluate or delete.
+     */
+    public synchronized boolean isIdle() {
+        return !running;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject o = new JSONObject();
+        o.put("enabled", ENABLED);
+        o.put("pendingEvaluations", pendingJobs.size());
+        o.put("backlog", deletions.size());
+        o.put("current", current == null ? null : current.toString());
+        o.put("evaluations", evaluations);
+        o.put("buildsDeleted", buildsDeleted);
+        o.put("artifactsPurged", artifactsPurged);
+        o.put("skipped", skipped);
+        o.put("failures", failures);
+        o.put("filesDeleted", filesDeleted);
+        o.put("bytesDeleted", bytesDeleted);
+        o.put("throttledMillis", throttledMillis);
+        o.put("filesPerSecond", FILES_PER_SECOND);
+        o.put("bytesPerSecond", BYTES_PER_SECOND);
+        return o;
+    }
+
+    public HttpResponse doIndex() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return HttpResponses.okJSON(toJSON());
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.BackgroundBuildDiscarder_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "backgroundBuildDiscarder";
+    }
+
+    /**
+     * A build to delete, or to purge of its artifacts.
+     */
+    static final class Deletion {
+        final String job;
+        final int number;
+        final boolean artifactsOnly;
+
+        Deletion(String job, int number, boolean artifactsOnly) {
+            this.job = job;
+            this.number = number;
+            this.artifactsOnly = artifactsOnly;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Deletion)) {
+                return false;
+            }
+            Deletion that = (Deletion) o;
+            return job.equals(that.job) && number == that.number && artifactsOnly == that.artifactsOnly;
+        }
+
+        @Override
+        public int hashCode() {
+            return job.hashCode() * 31 + number;
+        }
+
+        @Override
+        public String toString() {
+            return job + " #" + number + (artifactsOnly ? " (artifacts)" : "");
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BackgroundBuildDiscarder.class.getName());
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.console.ConsoleLogIndex;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import jenkins.security.ImpersonatingScheduledExecutorService;
+import jenkins.util.SystemProperties;
+import jenkins.util.io.FramedGzipFile;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Compresses the logs of completed builds in the background, when enabled with
+ * {@code -Djenkins.model.BackgroundLogCompressor.enabled=true}.
+ *
+ * <p>
+ * Builds keep writing a plain {@code log}, so that it can be followed while they run;
+ * some time after a build completes ({@code jenkins.model.BackgroundLogCompressor.delaySeconds}),
+ * its log is replaced by a {@code log.gz} made of {@linkplain FramedGzipFile frames},
+ * which console views can still start reading at any offset.
+ * Logs smaller than {@code jenkins.model.BackgroundLogCompressor.minimumSize} bytes are left alone.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public class BackgroundLogCompressor {
+
+    public static /* Script Console modifiable */ boolean ENABLED = SystemProperties.getBoolean(BackgroundLogCompressor.class.getName() + ".enabled");
+
+    public static /* Script Console modifiable */ long DELAY_SECONDS = SystemProperties.getLong(BackgroundLogCompressor.class.getName() + ".delaySeconds", 60L);
+
+    public static /* Script Console modifiable */ long MINIMUM_SIZE = SystemProperties.getLong(BackgroundLogCompressor.class.getName() + ".minimumSize", 64L * 1024);
+
+    private static final ScheduledExecutorService executor = new ImpersonatingScheduledExecutorService(Executors.newSingleThreadScheduledExecutor(
+            new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "BackgroundLogCompressor"))), ACL.SYSTEM);
+
+    private BackgroundLogCompressor() {}
+
+    /**
+     * Schedules the compression of the log of a build.
+     */
+    public static void schedule(@Nonnull Run<?,?> run) {
+        executor.schedule(() -> {
+            try {
+                compress(run);
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "Failed to compress the log of " + run, x);
+            }
+        }, DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Compresses the log of a completed build, unless it is too small or already compressed.
+     *
+     * @return whether the log was compressed
+     */
+    public static boolean compress(@Nonnull Run<?,?> run) throws IOException {
+        if (run.isLogUpdated()) {
+            return false;
+        }
+        File log = new File(run.getRootDir(), "log");
+        File gz = new File(run.getRootDir(), "log.gz");
+        if (!log.isFile() || log.length() < MINIMUM_SIZE || gz.exists()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        long size = log.length();
+        FramedGzipFile.compress(log, gz);
+        // from now on Run.getLogFile finds log.gz; the line index does not apply to it
+        Files.delete(log.toPath());
+        Files.deleteIfExists(ConsoleLogIndex.getIndexFile(log).toPath());
+        LOGGER.log(Level.FINE, "Compressed the log of {0} from {1} to {2} bytes in {3}ms",
+                new Object[] {run, size, gz.length(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        return true;
+    }
+
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Run<?,?>> {
+        @Override
+        public void onFinalized(Run<?,?> r) {
+            if (ENABLED) {
+                schedule(r);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BackgroundLogCompressor.class.getName());
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.RootAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Records how long each top-level item took to load, summarizes it in the log after startup,
+ * and lists the slowest items to administrators as JSON from {@code /itemLoadStatistics/?count=20}.
+ *
+ * @since TODO
+ */
+@Extension @Symbol("itemLoadStatistics")
+@Restricted(NoExternalUse.class)
+public class ItemLoadStatistics implements RootAction {
+
+    /**
+     * Number of slowest items named in the log.
+     */
+    private static final int LOGGED = 5;
+
+    public static @Nonnull ItemLoadStatistics get() {
+        return ExtensionList.lookupSingleton(ItemLoadStatistics.class);
+    }
+
+    /** Load time in nanoseconds, by item name. */
+    private final Map<String,Long> times = new ConcurrentHashMap<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int threads;
+    private volatile long started, wallNanos;
+
+    /**
+     * Called before loading items from disk.
+     */
+    void started(int threads) {
+        times.clear();
+        failures.set(0);
+        this.threads = threads;
+        wallNanos = 0;
+        started = System.nanoTime();
+    }
+
+    /**
+     * Records the loading of an item, whether it happened during startup or later on demand.
+     */
+    void record(@Nonnull String name, long nanos, boolean failed) {
+        times.put(name, nanos);
+        if (failed) {
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called once items have been loaded from disk, to log a summary.
+     */
+    void finished() {
+        wallNanos = System.nanoTime() - started;
+        if (times.isEmpty() || !LOGGER.isLoggable(Level.INFO)) {
+            return;
+        }
+        StringBuilder slowest = new StringBuilder();
+        for (Map.Entry<String,Long> e : slowest(LOGGED)) {
+            slowest.append(slowest.length() == 0 ? "" : ", ").append(e.getKey()).append(" (").append(TimeUnit.NANOSECONDS.toMillis(e.getValue())).append("ms)");
+        }
+        LOGGER.log(Level.INFO, "Loaded {0} items in {1}ms using {2} threads ({3}ms in total, {4} failed); slowest: {5}",
+                new Object[] {times.size(), TimeUnit.NANOSECONDS.toMillis(wallNanos), threads, TimeUnit.NANOSECONDS.toMillis(total()), failures.get(), slowest});
+    }
+
+    private long total() {
+        long total = 0;
+        for (long t : times.values()) {
+            total += t;
+        }
+        return total;
+    }
+
+    @Nonnull List<Map.Entry<String,Long>> slowest(int count) {
+        List<Map.Entry<String,Long>> entries = new ArrayList<>(times.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String,Long>>() {
+            @Override
+            public int compare(Map.Entry<String,Long> a, Map.Entry<String,Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        return entries.subList(0, Math.min(Math.max(count, 0), entries.size()));
+    }
+
+    public @Nonnull JSONObject toJSON(int count) {
+        JSONObject o = new JSONObject();
+        o.put("items", times.size());
+        o.put("failures", failures.get());
+        o.put("threads", threads);
+        o.put("wallMillis", TimeUnit.NANOSECONDS.toMillis(wallNanos));
+        o.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(total()));
+        JSONArray slowest = new JSONArray();
+        for (Map.Entry<String,Long> e : slowest(count)) {
+            JSONObject item = new JSONObject();
+            item.put("name", e.getKey());
+            item.put("millis", TimeUnit.NANOSECONDS.toMillis(e.getValue()));
+            slowest.add(item);
+        }
+        o.put("slowest", slowest);
+        return o;
+    }
+
+    public HttpResponse doIndex(@QueryParameter int count) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return HttpResponses.okJSON(toJSON(count > 0 ? count : 20));
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.ItemLoadStatistics_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "itemLoadStatistics";
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ItemLoadStatistics.class.getName());
+}
@@ -106,6 +106,7 @@ import hudson.model.labels.LabelAtom;
 import hudson.model.listeners.ItemListener;
 import hudson.model.listeners.SCMListener;
 import hudson.model.listeners.SaveableListener;
+import hudson.model.queue.LocalityAwareLoadBalancer;
 import hudson.remoting.Callable;
 import hudson.remoting.LocalChannel;
 import hudson.remoting.VirtualChannel;
@@ -115,6 +116,7 @@ import hudson.search.CollectionSearchIndex;
 import hudson.search.SearchIndexBuilder;
 import hudson.search.SearchItem;
 import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.security.AccessControlled;
 import hudson.security.AuthorizationStrategy;
 import hudson.security.BasicAuthenticationFilter;
@@ -184,6 +186,7 @@ import jenkins.model.ProjectNamingStrategy.DefaultProjectNamingStrategy;
 import jenkins.security.ClassFilterImpl;
 import jenkins.security.ConfidentialKey;
 import jenkins.security.ConfidentialStore;
+import jenkins.security.ImpersonatingExecutorService;
 import jenkins.security.SecurityListener;
 import jenkins.security.MasterToSlaveCallable;
 import jenkins.slaves.WorkspaceLocator;
@@ -275,6 +278,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -434,6 +438,12 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      */
     /*package*/ transient final Map<String,TopLevelItem> items = new CopyOnWriteMap.Tree<String,TopLevelItem>(CaseInsensitiveComparator.INSTANCE);
 
+    /**
+     * {@link Item}s not yet loaded from disk, if they were not all loaded at startup.
+     * @see LazyItems
+     */
+    private transient volatile LazyItems lazyItems;
+
     /**
      * The sole instance.
      */
@@ -857,7 +867,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
             final InitStrategy is = InitStrategy.get(Thread.currentThread().getContextClassLoader());
 
             Trigger.timer = new java.util.Timer("Jenkins cron thread");
-            queue = new Queue(LoadBalancer.CONSISTENT_HASH);
+            queue = new Queue(LocalityAwareLoadBalancer.ENABLED ? new LocalityAwareLoadBalancer() : LoadBalancer.CONSISTENT_HASH);
 
             try {
                 dependencyGraph = DependencyGraph.EMPTY;
@@ -966,16 +976,19 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
                 }
             }
 
-            for (ItemListener l : ItemListener.all()) {
-                long itemListenerStart = System.currentTimeMillis();
-                try {
-                    l.onLoaded();
-                } catch (RuntimeException x) {
-                    LOGGER.log(Level.WARNING, null, x);
-                }
-                if (LOG_STARTUP_PERFORMANCE)
-                    LOGGER.info(String.format("Took %dms for item listener %s startup",
-                            System.currentTimeMillis()-itemListenerStart,l.getClass().getName()));
+            LazyItems lazy = lazyItems;
+            if (lazy != null) {
+                // listeners expect to see all items
+                lazy.whenLoaded(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                            fireOnLoaded();
+                        }
+                    }
+                });
+            } else {
+                fireOnLoaded();
             }
 
             if (LOG_STARTUP_PERFORMANCE)
@@ -1332,6 +1345,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      */
     @Deprecated
     public boolean hasPeople() {
+        loadAllItems();
         return View.People.isApplicable(items.values());
     }
 
@@ -1696,6 +1710,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      */
     @Exported(name="jobs")
     public List<TopLevelItem> getItems() {
+        loadAllItems();
         List<TopLevelItem> viewableItems = new ArrayList<TopLevelItem>();
         for (TopLevelItem item : items.values()) {
             if (item.hasPermission(Item.READ))
@@ -1713,9 +1728,33 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      * @since 1.296
      */
     public Map<String,TopLevelItem> getItemMap() {
+        loadAllItems();
         return Collections.unmodifiableMap(items);
     }
 
+    /**
+     * Loads any items which were not loaded at startup yet.
+     * @see LazyItems
+     */
+    private void loadAllItems() {
+        LazyItems lazy = lazyItems;
+        if (lazy != null) {
+            lazy.loadAll();
+        }
+    }
+
+    /**
+     * Looks up an item by name, loading it if it was not loaded at startup yet.
+     */
+    private @CheckForNull TopLevelItem lookUpItem(@Nonnull String name) {
+        TopLevelItem item = items.get(name);
+        LazyItems lazy = lazyItems;
+        if (item == null && lazy != null) {
+            item = lazy.load(name);
+        }
+        return item;
+    }
+
     /**
      * Gets just the immediate children of {@link Jenkins} but of the given type.
      */
@@ -1738,6 +1777,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      */
     @Deprecated
     public List<Project> getProjects() {
+        loadAllItems();
         return Util.createSubList(items.values(), Project.class);
     }
 
@@ -1763,6 +1803,13 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
         List<String> names = new ArrayList<String>();
         for (TopLevelItem j : items.values())
             names.add(j.getName());
+        LazyItems lazy = lazyItems;
+        if (lazy != null) {
+            // no need to load items just for their names
+            for (String name : lazy.getPendingNames())
+                if (!items.containsKey(name))
+                    names.add(name);
+        }
         return names;
     }
 
@@ -2709,7 +2756,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      */
     @Override public TopLevelItem getItem(String name) throws AccessDeniedException {
         if (name==null)    return null;
-        TopLevelItem item = items.get(name);
+        TopLevelItem item = lookUpItem(name);
         if (item==null)
             return null;
         if (!item.hasPermission(Item.READ)) {
@@ -2869,7 +2916,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      */
     public synchronized void putItem(TopLevelItem item) throws IOException, InterruptedException {
         String name = item.getName();
-        TopLevelItem old = items.get(name);
+        TopLevelItem old = lookUpItem(name);
         if (old ==item)  return; // noop
 
         checkPermission(Item.CREATE);
@@ -2922,7 +2969,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
     }
 
     @Override synchronized public <I extends TopLevelItem> I add(I item, String name) throws IOException, IllegalArgumentException {
-        if (items.containsKey(name)) {
+        if (lookUpItem(name) != null) {
             throw new IllegalArgumentException("already an item '" + name + "'");
         }
         items.put(name, item);
@@ -3097,6 +3144,11 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
         File[] subdirs = projectsDir.listFiles();
 
         final Set<String> loadedNames = Collections.synchronizedSet(new HashSet<String>());
+        // only the initial load may be lazy; a reload finishes whatever is still pending
+        final LazyItems lazy = LazyItems.ENABLED && lazyItems == null && items.isEmpty() ? new LazyItems(this) : null;
+        if (lazy != null) {
+            lazyItems = lazy;
+        }
 
         TaskGraphBuilder g = new TaskGraphBuilder();
         Handle loadJenkins = g.requires(EXTENSIONS_AUGMENTED).attains(JOB_LOADED).add("Loading global config", new Executable() {
@@ -3114,22 +3166,13 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
             }
         });
 
-        List<Handle> loadJobs = new ArrayList<>();
-        for (final File subdir : subdirs) {
-            loadJobs.add(g.requires(loadJenkins).attains(JOB_LOADED).notFatal().add("Loading item " + subdir.getName(), new Executable() {
-                public void run(Reactor session) throws Exception {
-                    if(!Items.getConfigFile(subdir).exists()) {
-                        //Does not have job config file, so it is not a jenkins job hence skip it
-                        return;
-                    }
-                    TopLevelItem item = (TopLevelItem) Items.load(Jenkins.this, subdir);
-                    items.put(item.getName(), item);
-                    loadedNames.add(item.getName());
-                }
-            }));
-        }
+        Handle loadJobs = g.requires(loadJenkins).attains(JOB_LOADED).add("Loading items", new Executable() {
+            public void run(Reactor session) throws Exception {
+                loadItems(subdirs, lazy, loadedNames);
+            }
+        });
 
-        g.requires(loadJobs.toArray(new Handle[loadJobs.size()])).attains(JOB_LOADED).add("Cleaning up obsolete items deleted from the disk", new Executable() {
+        g.requires(loadJobs).attains(JOB_LOADED).add("Cleaning up obsolete items deleted from the disk", new Executable() {
             public void run(Reactor reactor) throws Exception {
                 // anything we didn't load from disk, throw them away.
                 // doing this after loading from disk allows newly loaded items
@@ -3141,12 +3184,28 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
                     if (!loadedNames.contains(name))
                         items.remove(name);
                 }
+                if (lazy != null) {
+                    lazy.startWarming();
+                }
             }
         });
 
         g.requires(JOB_LOADED).attains(COMPLETED).add("Finalizing set up",new Executable() {
             public void run(Reactor session) throws Exception {
-                rebuildDependencyGraph();
+                if (lazy != null) {
+                    // building the graph loads every item, so leave it empty until the warmer is done
+                    if (dependencyGraph == null) {
+                        dependencyGraph = DependencyGraph.EMPTY;
+                    }
+                    lazy.whenLoaded(new Runnable() {
+                        @Override
+                        public void run() {
+                            rebuildDependencyGraph();
+                        }
+                    });
+                } else {
+                    rebuildDependencyGraph();
+                }
 
                 {// recompute label objects - populates the labels mapping.
                     for (Node slave : nodes.getNodes())
@@ -3205,6 +3264,98 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
         return g;
     }
 
+    /**
+     * Loads the items in the given directories, or just indexes them if lazy, on a dedicated pool of
+     * {@link #ITEM_LOAD_THREADS} threads rather than as one reactor task each.
+     * The largest configurations go first, so that the slowest items do not get to hold up the end.
+     */
+    private void loadItems(File[] subdirs, final @CheckForNull LazyItems lazy, final Set<String> loadedNames) throws InterruptedException {
+        final Map<File,Long> sizes = new HashMap<>();
+        for (File subdir : subdirs) {
+            sizes.put(subdir, Items.getConfigFile(subdir).getFile().length());
+        }
+        List<File> dirs = new ArrayList<>(sizes.keySet());
+        Collections.sort(dirs, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(sizes.get(b), sizes.get(a));
+            }
+        });
+
+        int threads = PARALLEL_LOAD ? Math.max(1, ITEM_LOAD_THREADS) : 1;
+        final ItemLoadStatistics stats = ItemLoadStatistics.get();
+        stats.started(threads);
+        ExecutorService es = new ImpersonatingExecutorService(Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Jenkins.loadItems")), ACL.SYSTEM);
+        try {
+            List<Future<?>> loads = new ArrayList<>();
+            for (final File subdir : dirs) {
+                if (sizes.get(subdir) == 0 && !Items.getConfigFile(subdir).exists()) {
+                    //Does not have job config file, so it is not a jenkins job hence skip it
+                    continue;
+                }
+                loads.add(es.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadItem(subdir, lazy, loadedNames, stats);
+                    }
+                }));
+            }
+            for (Future<?> load : loads) {
+                try {
+                    load.get();
+                } catch (ExecutionException x) {
+                    throw new AssertionError(x); // loadItem does not throw
+                }
+            }
+        } finally {
+            es.shutdownNow();
+        }
+        if (lazy == null) {
+            stats.finished();
+        }
+    }
+
+    private void loadItem(File subdir, @CheckForNull LazyItems lazy, Set<String> loadedNames, ItemLoadStatistics stats) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            if (lazy != null) {
+                lazy.index(subdir);
+                loadedNames.add(subdir.getName());
+                failed = false;
+                return;
+            }
+            TopLevelItem item = lazyItems != null ? lazyItems.load(subdir.getName()) : null;
+            if (item == null) {
+                item = (TopLevelItem) Items.load(Jenkins.this, subdir);
+                items.put(item.getName(), item);
+            }
+            loadedNames.add(item.getName());
+            failed = false;
+        } catch (Exception | LinkageError x) {
+            LOGGER.log(SEVERE, "Failed Loading item " + subdir.getName(), x);
+        } finally {
+            if (lazy == null) {
+                stats.record(subdir.getName(), System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    private void fireOnLoaded() {
+        for (ItemListener l : ItemListener.all()) {
+            long itemListenerStart = System.currentTimeMillis();
+            try {
+                l.onLoaded();
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, null, x);
+            }
+            if (LOG_STARTUP_PERFORMANCE)
+                LOGGER.info(String.format("Took %dms for item listener %s startup",
+                        System.currentTimeMillis()-itemListenerStart,l.getClass().getName()));
+        }
+    }
+
     /**
      * Save the settings to a file.
      */
@@ -4716,6 +4867,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      * @param currentJobName
      */
     boolean isDisplayNameUnique(String displayName, String currentJobName) {
+        loadAllItems();
         Collection<TopLevelItem> itemCollection = items.values();
 
         // if there are a lot of projects, we'll have to store their
@@ -5075,6 +5227,13 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
     public static String VIEW_RESOURCE_PATH = "/resources/TBD";
 
     public static boolean PARALLEL_LOAD = Configuration.getBooleanConfigParameter("parallelLoad", true);
+    /**
+     * Number of threads loading items at startup, when {@link #PARALLEL_LOAD}.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* Script Console modifiable */ int ITEM_LOAD_THREADS = SystemProperties.getInteger(Jenkins.class.getName() + ".itemLoadThreads",
+            Runtime.getRuntime().availableProcessors() * 2);
     public static boolean KILL_AFTER_LOAD = Configuration.getBooleanConfigParameter("killAfterLoad", false);
     /**
      * @deprecated No longer used.
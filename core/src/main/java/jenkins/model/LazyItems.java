@@ -0,0 +1,284 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.model.Items;
+import hudson.model.TopLevelItem;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.util.CaseInsensitiveComparator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.SystemProperties;
+
+/**
+ * Loads the top-level items of {@link Jenkins} on demand rather than during startup,
+ * when enabled with {@code -Djenkins.model.Jenkins.lazyLoadItems=true}.
+ *
+ * <p>
+ * Startup only records the name, directory and type (the root element of {@code config.xml}) of each item.
+ * An item is then loaded in full the first time it is looked up by name, or the first time all items are listed,
+ * and otherwise by a background warmer using {@code jenkins.model.Jenkins.lazyLoadItems.threads} threads,
+ * so that triggers get started in any case.
+ * {@link ItemListener#onLoaded} is only fired once every item has been loaded.
+ *
+ * <p>
+ * Items within folders are loaded along with their folder, as before.
+ */
+final class LazyItems {
+
+    static /* Script Console modifiable */ boolean ENABLED = SystemProperties.getBoolean(Jenkins.class.getName() + ".lazyLoadItems");
+
+    static /* Script Console modifiable */ int THREADS = SystemProperties.getInteger(Jenkins.class.getName() + ".lazyLoadItems.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final Jenkins jenkins;
+
+    /**
+     * Items not loaded yet, by name.
+     */
+    private final Map<String,Stub> pending = new ConcurrentSkipListMap<>(CaseInsensitiveComparator.INSTANCE);
+
+    private final AtomicInteger onDemand = new AtomicInteger();
+
+    @GuardedBy("this")
+    private final List<Runnable> whenLoaded = new ArrayList<>();
+
+    @GuardedBy("this")
+    private boolean loaded;
+
+    LazyItems(@Nonnull Jenkins jenkins) {
+        this.jenkins = jenkins;
+    }
+
+    /**
+     * Records an item found on disk, without loading it.
+     */
+    void index(@Nonnull File dir) throws IOException {
+        Stub s = new Stub(dir, sniffType(new File(dir, "config.xml")));
+        pending.put(s.getName(), s);
+        LOGGER.log(Level.FINER, "Found {0}", s);
+    }
+
+    /**
+     * Whether an item of this name is yet to be loaded.
+     */
+    boolean isPending(@Nonnull String name) {
+        return pending.containsKey(name);
+    }
+
+    /**
+     * Names of the items yet to be loaded.
+     */
+    @Nonnull Collection<String> getPendingNames() {
+        return pending.keySet();
+    }
+
+    /**
+     * Loads an item now, unless it already is.
+     *
+     * @return null if there is no such item pending, or it failed to load
+     */
+    @CheckForNull TopLevelItem load(@Nonnull String name) {
+        Stub s = pending.get(name);
+        if (s == null) {
+            return null;
+        }
+        return s.load(true);
+    }
+
+    /**
+     * Loads all pending items now, in this thread, waiting for those another thread is already loading.
+     */
+    void loadAll() {
+        for (Stub s : pending.values()) {
+            s.load(true);
+        }
+    }
+
+    /**
+     * Starts loading all pending items in the background.
+     */
+    void startWarming() {
+        final long start = System.currentTimeMillis();
+        final int count = pending.size();
+        final ExecutorService executor = new ImpersonatingExecutorService(Executors.newFixedThreadPool(Math.max(1, THREADS),
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "LazyItems.warmer"))), ACL.SYSTEM);
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (final Stub s : pending.values()) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        s.load(false);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            LOGGER.log(Level.FINE, "Loaded {0} items in {1}ms, {2} of them on demand",
+                                    new Object[] {count, System.currentTimeMillis() - start, onDemand.get()});
+                            executor.shutdown();
+                            ItemLoadStatistics.get().finished();
+                            done();
+                        }
+                    }
+                }
+            });
+        }
+        if (count == 0) {
+            executor.shutdown();
+            ItemLoadStatistics.get().finished();
+            done();
+        }
+    }
+
+    /**
+     * Runs something once all items have been loaded, or now if they already are.
+     */
+    void whenLoaded(@Nonnull Runnable r) {
+        synchronized (this) {
+            if (!loaded) {
+                whenLoaded.add(r);
+                return;
+            }
+        }
+        r.run();
+    }
+
+    private void done() {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            loaded = true;
+            callbacks = new ArrayList<>(whenLoaded);
+            whenLoaded.clear();
+        }
+        for (Runnable r : callbacks) {
+            try {
+                r.run();
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, null, x);
+            }
+        }
+    }
+
+    /**
+     * Reads the name of the root element of an XML file, skipping over the prolog.
+     */
+    static @CheckForNull String sniffType(@Nonnull File config) throws IOException {
+        try (Reader r = new InputStreamReader(Files.newInputStream(config.toPath()), StandardCharsets.UTF_8)) {
+            int c;
+            while ((c = r.read()) != -1) {
+                if (c != '<') {
+                    continue;
+                }
+                c = r.read();
+                if (c == '?' || c == '!') {
+                    // declaration, comment or DOCTYPE: skip to its end, assuming no '>' inside
+                    while ((c = r.read()) != -1 && c != '>') {
+                        // skip
+                    }
+                    continue;
+                }
+                StringBuilder name = new StringBuilder();
+                while (c != -1 && !Character.isWhitespace(c) && c != '>' && c != '/') {
+                    name.append((char) c);
+                    c = r.read();
+                }
+                return name.length() > 0 ? name.toString() : null;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An item on disk which has not been loaded yet.
+     */
+    private final class Stub {
+        private final File dir;
+        private final @CheckForNull String type;
+        @GuardedBy("this")
+        private boolean attempted;
+
+        Stub(File dir, String type) {
+            this.dir = dir;
+            this.type = type;
+        }
+
+        String getName() {
+            return dir.getName();
+        }
+
+        /**
+         * Loads the item, or waits for another thread doing so.
+         */
+        synchronized TopLevelItem load(boolean demanded) {
+            if (!attempted) {
+                attempted = true;
+                if (demanded) {
+                    onDemand.incrementAndGet();
+                }
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    TopLevelItem item = (TopLevelItem) Items.load(jenkins, dir);
+                    // publish before forgetting the stub, so that lookups always find one or the other
+                    jenkins.items.put(item.getName(), item);
+                    failed = false;
+                } catch (IOException | RuntimeException | LinkageError x) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + this, x);
+                } finally {
+                    pending.remove(getName());
+                    ItemLoadStatistics.get().record(getName(), System.nanoTime() - start, failed);
+                }
+            }
+            return jenkins.items.get(getName());
+        }
+
+        @Override
+        public String toString() {
+            return getName() + " (" + type + ") at job/" + getName() + "/";
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LazyItems.class.getName());
+}
@@ -43,6 +43,8 @@ import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.model.listeners.ItemListener;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.model.queue.ScheduleRequest;
+import hudson.model.queue.ScheduleResult;
 import hudson.search.SearchIndexBuilder;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
@@ -56,6 +58,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 import static javax.servlet.http.HttpServletResponse.SC_CREATED;
 import static javax.servlet.http.HttpServletResponse.SC_CONFLICT;
@@ -145,7 +148,55 @@ public abstract class ParameterizedJobMixIn<JobT extends Job<JobT, RunT> & Param
         }.scheduleBuild2(quietPeriod == -1 ? ((ParameterizedJob) job).getQuietPeriod() : quietPeriod, Arrays.asList(actions));
     }
 
+    /**
+     * Convenience method to schedule builds of several jobs at once.
+     * Works like {@link #scheduleBuild2(Job, int, Action...)} called for each job,
+     * but submits all the builds to the queue in a single {@link Queue#scheduleAll} call.
+     * @param jobs jobs which might be schedulable
+     * @param quietPeriod seconds to wait before starting; use {@code -1} to use each job’s default settings
+     * @param actions various actions to associate with each of the builds, such as {@link CauseAction}
+     * @return for each job, in the same order, what {@link #scheduleBuild2(Job, int, Action...)} would have returned
+     * @since TODO
+     */
+    public static @Nonnull List<Queue.Item> scheduleBuilds(@Nonnull List<? extends Job<?,?>> jobs, int quietPeriod, Action... actions) {
+        List<ScheduleRequest> requests = new ArrayList<ScheduleRequest>(jobs.size());
+        List<Integer> positions = new ArrayList<Integer>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            final Job<?,?> job = jobs.get(i);
+            if (!(job instanceof ParameterizedJob)) {
+                continue;
+            }
+            ScheduleRequest r = new ParameterizedJobMixIn() {
+                @Override protected Job asJob() {
+                    return job;
+                }
+            }.scheduleRequest(quietPeriod == -1 ? ((ParameterizedJob) job).getQuietPeriod() : quietPeriod, Arrays.asList(actions));
+            if (r != null) {
+                requests.add(r);
+                positions.add(i);
+            }
+        }
+
+        List<Queue.Item> items = new ArrayList<Queue.Item>(Collections.<Queue.Item>nCopies(jobs.size(), null));
+        List<ScheduleResult> results = Jenkins.getInstance().getQueue().scheduleAll(requests);
+        for (int i = 0; i < results.size(); i++) {
+            items.set(positions.get(i), results.get(i).getItem());
+        }
+        return items;
+    }
+
     @CheckForNull Queue.Item scheduleBuild2(int quietPeriod, List<Action> actions) {
+        ScheduleRequest r = scheduleRequest(quietPeriod, actions);
+        if (r == null)
+            return null;
+        return Jenkins.getInstance().getQueue().schedule2(r.getTask(), r.getQuietPeriod(), r.getActions()).getItem();
+    }
+
+    /**
+     * Prepares the submission of a build of this job to the queue.
+     * @return null if the job is not {@link Job#isBuildable}
+     */
+    @CheckForNull ScheduleRequest scheduleRequest(int quietPeriod, List<Action> actions) {
         if (!asJob().isBuildable())
             return null;
 
@@ -153,7 +204,7 @@ public abstract class ParameterizedJobMixIn<JobT extends Job<JobT, RunT> & Param
         if (isParameterized() && Util.filter(queueActions, ParametersAction.class).isEmpty()) {
             queueActions.add(new ParametersAction(getDefaultParametersValues()));
         }
-        return Jenkins.getInstance().getQueue().schedule2(asJob(), quietPeriod, queueActions).getItem();
+        return new ScheduleRequest(asJob(), quietPeriod, queueActions);
     }
 
     private List<ParameterValue> getDefaultParametersValues() {
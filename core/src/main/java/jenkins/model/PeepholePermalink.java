@@ -48,6 +48,7 @@ import org.apache.commons.io.FileUtils;
  * This base class provides a file-based caching mechanism that avoids
  * walking the long build history. The cache is a symlink to the build directory
  * where symlinks are supported, and text file that contains the build number otherwise.
+ * The target is also recorded in the {@link PermalinkCache} of the job, which is consulted first.
  *
  * <p>
  * The implementation transparently tolerates G(B) that goes from true to false over time
@@ -87,7 +88,8 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
         Run<?,?> b=null;
 
         try {
-            String target = readSymlink(f);
+            int cached = job.getPermalinkCache().getNumber(getId());
+            String target = cached == -1 ? readSymlink(f) : String.valueOf(cached == 0 ? RESOLVES_TO_NONE : cached);
             if (target!=null) {
                 int n = Integer.parseInt(Util.getFileName(target));
                 if (n==RESOLVES_TO_NONE)  return null;
@@ -137,6 +139,7 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
      */
     protected void updateCache(@Nonnull Job<?,?> job, @Nullable Run<?,?> b) {
         final int n = b==null ? RESOLVES_TO_NONE : b.getNumber();
+        job.getPermalinkCache().update(getId(), b);
 
         File cache = getPermalinkFile(job);
         cache.getParentFile().mkdirs();
@@ -0,0 +1,340 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.HealthReport;
+import hudson.model.Job;
+import hudson.model.PermalinkProjectAction.Permalink;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Remembers, per job, what each {@link Permalink} points to along with what the dashboard shows about it,
+ * so that list views need not load any builds.
+ * The health reports of the last completed build are also remembered, but only in memory,
+ * as they depend on the configuration of the job and on the installed plugins.
+ *
+ * <p>
+ * It is kept in {@value #FILE_NAME} in the build directory, and maintained from {@link RunListener} events:
+ * {@link PeepholePermalink}s record their targets here, and {@link Permalink#LAST_COMPLETED_BUILD} is advanced
+ * as builds are finalized. Permalinks which are not known yet, as after an upgrade, are resolved once the usual way.
+ * {@link Permalink#LAST_BUILD} is not recorded, as it is already known from the build numbers on disk.
+ *
+ * @see Job#getPermalinkCache
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class PermalinkCache {
+
+    static final String FILE_NAME = "permalinks.xml";
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("permalinks", PermalinkCache.class);
+        XSTREAM.alias("target", Target.class);
+    }
+
+    /**
+     * Number of the build a permalink pointed to when it was known to resolve to none.
+     */
+    private static final int NONE = 0;
+
+    /**
+     * Target of each permalink known so far, by ID.
+     */
+    private final Map<String,Target> targets = new HashMap<>();
+
+    /**
+     * Number of the build {@link #health} was computed for.
+     */
+    private transient int healthBuild;
+
+    private transient List<HealthReport> health;
+
+    private transient final Job<?,?> job;
+
+    private transient boolean loaded;
+
+    public PermalinkCache(@Nonnull Job<?,?> job) {
+        this.job = job;
+    }
+
+    private XmlFile getFile() {
+        return new XmlFile(XSTREAM, new File(job.getBuildDir(), FILE_NAME));
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        XmlFile file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            file.unmarshal(this);
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to load " + file, x);
+            targets.clear();
+        }
+    }
+
+    private void save() {
+        XmlFile file = getFile();
+        try {
+            file.write(this);
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, x);
+        }
+    }
+
+    /**
+     * Gets the build number a permalink is recorded to point to, without resolving it.
+     *
+     * @return 0 if it is known to resolve to none, -1 if not known
+     */
+    public synchronized int getNumber(@Nonnull String id) {
+        load();
+        Target t = targets.get(id);
+        return t == null ? -1 : t.number;
+    }
+
+    /**
+     * Gets what a permalink points to, resolving it only if not known yet.
+     *
+     * @return null if it resolves to none, or there is no such permalink
+     */
+    public @CheckForNull Target get(@Nonnull String id) {
+        synchronized (this) {
+            load();
+            Target t = targets.get(id);
+            if (t != null) {
+                return t.number == NONE ? null : t;
+            }
+        }
+        Permalink p = job.getPermalinks().get(id);
+        if (p == null) {
+            return null;
+        }
+        Run<?,?> r = p.resolve(job);
+        update(id, r);
+        return r == null ? null : Target.of(r);
+    }
+
+    /**
+     * Records what a permalink points to.
+     */
+    public synchronized void update(@Nonnull String id, @CheckForNull Run<?,?> r) {
+        load();
+        Target t = r == null ? new Target(NONE, 0, 0, null) : Target.of(r);
+        if (!t.equals(targets.put(id, t))) {
+            save();
+        }
+    }
+
+    /**
+     * Forgets what a permalink points to, so that it gets resolved again next time.
+     */
+    public synchronized void invalidate(@Nonnull String id) {
+        load();
+        if (targets.remove(id) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Gets the health reports recorded for a build.
+     *
+     * @return null unless they were computed for that build
+     */
+    public synchronized @CheckForNull List<HealthReport> getHealthReports(int build) {
+        load();
+        return build == healthBuild && health != null ? new ArrayList<>(health) : null;
+    }
+
+    public synchronized void setHealthReports(int build, @Nonnull List<HealthReport> reports) {
+        load();
+        healthBuild = build;
+        health = new ArrayList<>(reports);
+    }
+
+    /**
+     * Forgets the health reports, so that they get computed again next time, as after the job was reconfigured.
+     */
+    public synchronized void invalidateHealthReports() {
+        health = null;
+    }
+
+    /**
+     * Refreshes what is shown about a build which permalinks point to, as after it got a new display name.
+     */
+    synchronized void refresh(@Nonnull Run<?,?> r) {
+        load();
+        Target t = Target.of(r);
+        boolean changed = false;
+        for (Map.Entry<String,Target> e : targets.entrySet()) {
+            if (e.getValue().number == t.number && !e.getValue().equals(t)) {
+                e.setValue(t);
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * What the dashboard shows about the build a permalink points to,
+     * with the same property names as on {@link Run}.
+     */
+    public static final class Target {
+        private final int number;
+        private final long timestamp;
+        private final long duration;
+        /** Null unless customized. */
+        private final String displayName;
+
+        Target(int number, long timestamp, long duration, String displayName) {
+            this.number = number;
+            this.timestamp = timestamp;
+            this.duration = duration;
+            this.displayName = displayName;
+        }
+
+        static Target of(Run<?,?> r) {
+            return new Target(r.getNumber(), r.getTimeInMillis(), r.getDuration(), r.hasCustomDisplayName() ? r.getDisplayName() : null);
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public long getTimeInMillis() {
+            return timestamp;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public @Nonnull String getDisplayName() {
+            return displayName != null ? displayName : "#" + number;
+        }
+
+        /** @see Run#getTimestampString */
+        public @Nonnull String getTimestampString() {
+            return Util.getPastTimeString(System.currentTimeMillis() - timestamp);
+        }
+
+        /** @see Run#getTimestampString2 */
+        public @Nonnull String getTimestampString2() {
+            return Util.XS_DATETIME_FORMATTER.format(new Date(timestamp));
+        }
+
+        /** @see Run#getDurationString */
+        public @Nonnull String getDurationString() {
+            return Util.getTimeSpanString(duration);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Target)) {
+                return false;
+            }
+            Target that = (Target) o;
+            return number == that.number && timestamp == that.timestamp && duration == that.duration
+                    && (displayName == null ? that.displayName == null : displayName.equals(that.displayName));
+        }
+
+        @Override
+        public int hashCode() {
+            return number;
+        }
+
+        @Override
+        public String toString() {
+            return getDisplayName();
+        }
+    }
+
+    /**
+     * Advances {@link Permalink#LAST_COMPLETED_BUILD}; {@link PeepholePermalink}s take care of themselves.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Run<?,?>> {
+        @Override
+        public void onFinalized(Run<?,?> r) {
+            PermalinkCache cache = r.getParent().getPermalinkCache();
+            String id = Permalink.LAST_COMPLETED_BUILD.getId();
+            if (cache.getNumber(id) < r.getNumber()) {
+                cache.update(id, r);
+            }
+        }
+
+        @Override
+        public void onDeleted(Run<?,?> r) {
+            PermalinkCache cache = r.getParent().getPermalinkCache();
+            String id = Permalink.LAST_COMPLETED_BUILD.getId();
+            if (cache.getNumber(id) == r.getNumber()) {
+                cache.invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Notices changes to completed builds, such as a new display name.
+     */
+    @Extension
+    public static final class SaveableListenerImpl extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run && !((Run) o).isBuilding()) {
+                ((Run<?,?>) o).getParent().getPermalinkCache().refresh((Run<?,?>) o);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PermalinkCache.class.getName());
+}
@@ -29,14 +29,21 @@ import hudson.model.RunMap;
 import java.io.File;
 import java.io.IOException;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.ListIterator;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
@@ -76,11 +83,13 @@ import static jenkins.model.lazy.AbstractLazyLoadRunMap.Direction.DESC;
  * Some of the {@link SortedMap} operations are inefficiently implemented, by
  * {@linkplain #all() loading all the build records eagerly}. We hope to replace
  * these implementations by more efficient lazy-loading ones as we go.
+ * Range views such as {@link #subMap} are lazy: they only load the builds actually looked up or iterated.
  *
  * <p>
- * Object lock of {@code this} is used to make sure mutation occurs sequentially.
- * That is, ensure that only one thread is actually calling {@link #retrieve(File)} and
- * updating {@link jenkins.model.lazy.AbstractLazyLoadRunMap.Index#byNumber}.
+ * Loaded builds are kept in a concurrent map, so lookups never block.
+ * Builds with different numbers may be {@linkplain #retrieve(File) retrieved} by several threads at once,
+ * whereas concurrent requests for the same build wait for a single retrieval to complete.
+ * Object lock of {@code this} is only used to make sure that additions and removals of builds occur sequentially.
  *
  * @author Kohsuke Kawaguchi
  * @since 1.485
@@ -89,42 +98,31 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     /**
      * Used in {@link #all()} to quickly determine if we've already loaded everything.
      */
-    private boolean fullyLoaded;
+    private volatile boolean fullyLoaded;
 
     /**
-     * Currently visible index.
-     * Updated atomically. Once set to this field, the index object may not be modified.
+     * Stores the mapping from build number to build, for builds that are already loaded.
+     * A {@link BuildReference} with null referent just means the record was GCed.
      */
-    private volatile Index index = new Index();
-    private LazyLoadRunMapEntrySet<R> entrySet = new LazyLoadRunMapEntrySet<R>(this);
+    private final ConcurrentNavigableMap<Integer,BuildReference<R>> byNumber = new ConcurrentSkipListMap<Integer,BuildReference<R>>(Collections.reverseOrder());
 
     /**
-     * Historical holder for map.
-     * 
-     * TODO all this mess including {@link #numberOnDisk} could probably be simplified to a single {@code TreeMap<Integer,BuildReference<R>>}
-     * where a null value means not yet loaded and a broken entry just uses {@code NoHolder}.
-     *
-     * The idiom is that you put yourself in a synchronized block, {@linkplain #copy() make a copy of this},
-     * update the copy, then set it to {@link #index}.
+     * Build numbers known to fail to load, as found by {@link #all()}.
      */
-    private class Index {
-        /**
-         * Stores the mapping from build number to build, for builds that are already loaded.
-         *
-         * If we have known load failure of the given ID, we record that in the map
-         * by using the null value (not to be confused with a non-null {@link BuildReference}
-         * with null referent, which just means the record was GCed.)
-         */
-        private final TreeMap<Integer,BuildReference<R>> byNumber;
+    private final Set<Integer> failed = Collections.newSetFromMap(new ConcurrentHashMap<Integer,Boolean>());
 
-        private Index() {
-            byNumber = new TreeMap<Integer,BuildReference<R>>(Collections.reverseOrder());
-        }
+    /**
+     * Retrievals in progress, so that concurrent requests for the same build share the result.
+     */
+    private final ConcurrentMap<Integer,Loading<R>> loading = new ConcurrentHashMap<Integer,Loading<R>>();
 
-        private Index(Index rhs) {
-            byNumber = new TreeMap<Integer,BuildReference<R>>(rhs.byNumber);
-        }
-    }
+    /**
+     * Incremented whenever builds are removed or references dropped,
+     * so that a retrieval which raced with that does not publish a build which is gone.
+     */
+    private volatile int generation;
+
+    private LazyLoadRunMapEntrySet<R> entrySet = new LazyLoadRunMapEntrySet<R>(this);
 
     /**
      * Build numbers found on disk, in the ascending order.
@@ -179,12 +177,19 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      * @since 1.507
      */
     public synchronized void purgeCache() {
-        index = new Index();
+        generation++;
+        byNumber.clear();
+        failed.clear();
         fullyLoaded = false;
         loadNumberOnDisk();
     }
 
     private void loadNumberOnDisk() {
+        SortedIntList fromManifest = BuildNumberManifest.read(dir);
+        if (fromManifest != null) {
+            numberOnDisk = fromManifest;
+            return;
+        }
         String[] kids = dir.list();
         if (kids == null) {
             // the job may have just been created
@@ -200,6 +205,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         }
         list.sort();
         numberOnDisk = list;
+        BuildNumberManifest.write(dir, list);
     }
 
     public Comparator<? super Integer> comparator() {
@@ -221,33 +227,21 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      * Returns a read-only view of records that has already been loaded.
      */
     public SortedMap<Integer,R> getLoadedBuilds() {
-        return Collections.unmodifiableSortedMap(new BuildReferenceMapAdapter<R>(this, index.byNumber));
+        return Collections.unmodifiableSortedMap(new BuildReferenceMapAdapter<R>(this, byNumber));
     }
 
     /**
+     * Returns a read-only view of the builds in a range, which loads them as they are looked up.
+     *
      * @param fromKey
      *      Biggest build number to be in the returned set.
      * @param toKey
      *      Smallest build number-1 to be in the returned set (-1 because this is exclusive)
      */
     public SortedMap<Integer, R> subMap(Integer fromKey, Integer toKey) {
-        // TODO: if this method can produce a lazy map, that'd be wonderful
-        // because due to the lack of floor/ceil/higher/lower kind of methods
-        // to look up keys in SortedMap, various places of Jenkins rely on
-        // subMap+firstKey/lastKey combo.
-
-        R start = search(fromKey, DESC);
-        if (start==null)    return EMPTY_SORTED_MAP;
-
-        R end = search(toKey, ASC);
-        if (end==null)      return EMPTY_SORTED_MAP;
-
-        for (R i=start; i!=end; ) {
-            i = search(getNumberOf(i)-1,DESC);
-            assert i!=null;
-        }
-
-        return Collections.unmodifiableSortedMap(new BuildReferenceMapAdapter<R>(this, index.byNumber.subMap(fromKey, toKey)));
+        // various places of Jenkins rely on subMap+firstKey/lastKey combo in lieu of floor/ceil,
+        // so this had better not load everything in between
+        return range(fromKey, (long) toKey + 1);
     }
 
     public SortedMap<Integer, R> headMap(Integer toKey) {
@@ -255,7 +249,134 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     }
 
     public SortedMap<Integer, R> tailMap(Integer fromKey) {
-        return subMap(fromKey, Integer.MIN_VALUE);
+        return range(fromKey, Integer.MIN_VALUE);
+    }
+
+    private SortedMap<Integer, R> range(long newest, long oldest) {
+        if (newest < oldest) {
+            return EMPTY_SORTED_MAP;
+        }
+        return new RangeView((int) newest, (int) oldest);
+    }
+
+    /**
+     * Lazy view of the builds whose numbers are within the given bounds, both inclusive.
+     */
+    private final class RangeView extends AbstractMap<Integer,R> implements SortedMap<Integer,R> {
+        private final int newest, oldest;
+
+        RangeView(int newest, int oldest) {
+            this.newest = newest;
+            this.oldest = oldest;
+        }
+
+        private boolean inRange(Object key) {
+            if (!(key instanceof Integer)) {
+                return false;
+            }
+            int n = (Integer) key;
+            return oldest <= n && n <= newest;
+        }
+
+        @Override
+        public R get(Object key) {
+            return inRange(key) ? getByNumber((Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Comparator<? super Integer> comparator() {
+            return Collections.reverseOrder();
+        }
+
+        @Override
+        public SortedMap<Integer, R> subMap(Integer fromKey, Integer toKey) {
+            return range(Math.min(newest, fromKey), Math.max(oldest, (long) toKey + 1));
+        }
+
+        @Override
+        public SortedMap<Integer, R> headMap(Integer toKey) {
+            return range(newest, Math.max(oldest, (long) toKey + 1));
+        }
+
+        @Override
+        public SortedMap<Integer, R> tailMap(Integer fromKey) {
+            return range(Math.min(newest, fromKey), oldest);
+        }
+
+        @Override
+        public Integer firstKey() {
+            R r = search(newest, DESC);
+            if (r == null || getNumberOf(r) < oldest) {
+                throw new NoSuchElementException();
+            }
+            return getNumberOf(r);
+        }
+
+        @Override
+        public Integer lastKey() {
+            R r = search(oldest, ASC);
+            if (r == null || getNumberOf(r) > newest) {
+                throw new NoSuchElementException();
+            }
+            return getNumberOf(r);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !entrySet().iterator().hasNext();
+        }
+
+        @Override
+        public Set<Entry<Integer, R>> entrySet() {
+            return new AbstractSet<Entry<Integer, R>>() {
+                @Override
+                public Iterator<Entry<Integer, R>> iterator() {
+                    final Iterator<Integer> numbers = numbersOnDisk(oldest, newest, false).iterator();
+                    return new Iterator<Entry<Integer, R>>() {
+                        private Entry<Integer, R> next;
+
+                        @Override
+                        public boolean hasNext() {
+                            while (next == null && numbers.hasNext()) {
+                                int n = numbers.next();
+                                R r = getByNumber(n);
+                                if (r != null) {
+                                    next = new SimpleImmutableEntry<Integer, R>(n, r);
+                                }
+                            }
+                            return next != null;
+                        }
+
+                        @Override
+                        public Entry<Integer, R> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Integer, R> e = next;
+                            next = null;
+                            return e;
+                        }
+                    };
+                }
+
+                /**
+                 * Counts the builds on disk in the range, like {@link AbstractLazyLoadRunMap#size}, without loading them.
+                 */
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Integer n : numbersOnDisk(oldest, newest, false)) {
+                        size++;
+                    }
+                    return size;
+                }
+            };
+        }
     }
 
     public Integer firstKey() {
@@ -303,6 +424,50 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         return numberOnDisk.contains(number);
     }
 
+    /**
+     * Walks through the build numbers found on disk within a range, whether or not they can be loaded,
+     * without loading anything.
+     *
+     * @param oldest
+     *      Smallest build number to return.
+     * @param newest
+     *      Biggest build number to return.
+     * @param ascending
+     *      Whether to walk from the oldest build to the newest, rather than the other way around.
+     */
+    @Restricted(NoExternalUse.class)
+    public final Iterable<Integer> numbersOnDisk(final int oldest, final int newest, final boolean ascending) {
+        return new Iterable<Integer>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                // a published list is never modified, so there is no need to copy it
+                final SortedIntList list = numberOnDisk;
+                return new Iterator<Integer>() {
+                    int i = ascending ? list.ceil(oldest) : list.floor(newest);
+
+                    @Override
+                    public boolean hasNext() {
+                        if (!list.isInRange(i)) {
+                            return false;
+                        }
+                        int n = list.get(i);
+                        return ascending ? n <= newest : n >= oldest;
+                    }
+
+                    @Override
+                    public Integer next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int n = list.get(i);
+                        i += ascending ? 1 : -1;
+                        return n;
+                    }
+                };
+            }
+        };
+    }
+
     /**
      * Finds the build #M where M is nearby the given 'n'.
      *
@@ -322,11 +487,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         case EXACT:
             return getByNumber(n);
         case ASC:
-            for (int m : numberOnDisk) {
-                if (m < n) {
-                    // TODO could be made more efficient with numberOnDisk.find
-                    continue;
-                }
+            for (int m : numbersOnDisk(n, Integer.MAX_VALUE, true)) {
                 R r = getByNumber(m);
                 if (r != null) {
                     return r;
@@ -334,13 +495,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
             }
             return null;
         case DESC:
-            // TODO again could be made more efficient
-            ListIterator<Integer> iterator = numberOnDisk.listIterator(numberOnDisk.size());
-            while(iterator.hasPrevious()) {
-                int m = iterator.previous();
-                if (m > n) {
-                    continue;
-                }
+            for (int m : numbersOnDisk(Integer.MIN_VALUE, n, false)) {
                 R r = getByNumber(m);
                 if (r != null) {
                     return r;
@@ -357,34 +512,21 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     }
 
     public R getByNumber(int n) {
-        Index snapshot = index;
-        if (snapshot.byNumber.containsKey(n)) {
-            BuildReference<R> ref = snapshot.byNumber.get(n);
-            if (ref==null)      return null;    // known failure
-            R v = unwrap(ref);
-            if (v!=null)        return v;       // already in memory
-            // otherwise fall through to load
-        }
-        synchronized (this) {
-            if (index.byNumber.containsKey(n)) { // JENKINS-22767: recheck inside lock
-                BuildReference<R> ref = index.byNumber.get(n);
-                if (ref == null) {
-                    return null;
-                }
-                R v = unwrap(ref);
-                if (v != null) {
-                    return v;
-                }
-            }
-            return load(n, null);
+        R v = unwrap(byNumber.get(n));
+        if (v != null) {
+            return v;   // already in memory
         }
+        if (failed.contains(n)) {
+            return null;    // known failure
+        }
+        return load(n);
     }
 
     /**
      * @return the highest recorded build number, or 0 if there are none
      */
     @Restricted(NoExternalUse.class)
-    public synchronized int maxNumberOnDisk() {
+    public int maxNumberOnDisk() {
         return numberOnDisk.max();
     }
 
@@ -406,16 +548,17 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     public synchronized R put(Integer key, R r) {
         int n = getNumberOf(r);
 
-        Index copy = copy();
-        BuildReference<R> ref = createReference(r);
-        BuildReference<R> old = copy.byNumber.put(n,ref);
-        index = copy;
+        BuildReference<R> old = byNumber.put(n, createReference(r));
+        failed.remove(n);
 
         if (!numberOnDisk.contains(n)) {
             SortedIntList a = new SortedIntList(numberOnDisk);
             a.add(n);
             a.sort();
             numberOnDisk = a;
+            if (dir != null) {
+                BuildNumberManifest.write(dir, a);
+            }
         }
 
         entrySet.clearCache();
@@ -429,12 +572,11 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
 
     @Override
     public synchronized void putAll(Map<? extends Integer,? extends R> rhs) {
-        Index copy = copy();
         for (R r : rhs.values()) {
-            BuildReference<R> ref = createReference(r);
-            copy.byNumber.put(getNumberOf(r),ref);
+            int n = getNumberOf(r);
+            byNumber.put(n, createReference(r));
+            failed.remove(n);
         }
-        index = copy;
     }
 
     /**
@@ -446,72 +588,127 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      * @return
      *      fully populated map.
      */
-    /*package*/ TreeMap<Integer,BuildReference<R>> all() {
+    /*package*/ SortedMap<Integer,BuildReference<R>> all() {
         if (!fullyLoaded) {
-            synchronized (this) {
-                if (!fullyLoaded) {
-                    Index copy = copy();
-                    for (Integer number : numberOnDisk) {
-                        if (!copy.byNumber.containsKey(number))
-                            load(number, copy);
-                    }
-                    index = copy;
-                    fullyLoaded = true;
+            for (Integer number : numberOnDisk) {
+                if (!byNumber.containsKey(number) && !failed.contains(number) && load(number) == null) {
+                    // remember the failure
+                    // TODO should we also update numberOnDisk?
+                    failed.add(number);
                 }
             }
+            fullyLoaded = true;
         }
-        return index.byNumber;
+        return byNumber;
     }
 
     /**
-     * Creates a duplicate for the COW data structure in preparation for mutation.
-     */
-    private Index copy() {
-        return new Index(index);
-   }
-
-    /**
-     * Tries to load the record #N.
-     * 
+     * Tries to load the record #N, or waits for another thread already doing so.
+     *
      * @return null if the data failed to load.
      */
-    private R load(int n, Index editInPlace) {
-        assert Thread.holdsLock(this);
+    private R load(int n) {
         assert dir != null;
-        R v = load(new File(dir, String.valueOf(n)), editInPlace);
-        if (v==null && editInPlace!=null) {
-            // remember the failure.
-            // if editInPlace==null, we can create a new copy for this, but not sure if it's worth doing,
-            // TODO should we also update numberOnDisk?
-            editInPlace.byNumber.put(n, null);
+        Loading<R> mine = new Loading<R>();
+        Loading<R> other = loading.putIfAbsent(n, mine);
+        if (other != null) {
+            if (Loading.depth.get() == 0) {
+                return other.await();
+            }
+            // We are being called from within retrieve(), perhaps for the very build being loaded;
+            // waiting could deadlock, so load a copy of our own as was always done before.
+            return retrieveAndPublish(n);
+        }
+        try {
+            R r = retrieveAndPublish(n);
+            mine.result.complete(r);
+            return r;
+        } catch (RuntimeException | Error x) {
+            mine.result.completeExceptionally(x);
+            throw x;
+        } finally {
+            loading.remove(n, mine);
         }
-        return v;
     }
 
-    /**
-     * @param editInPlace
-     *      If non-null, update this data structure.
-     *      Otherwise do a copy-on-write of {@link #index}
-     */
-    private R load(File dataDir, Index editInPlace) {
-        assert Thread.holdsLock(this);
+    private R retrieveAndPublish(int n) {
+        R v = unwrap(byNumber.get(n)); // JENKINS-22767: recheck in case we raced with another load
+        if (v != null) {
+            return v;
+        }
+        File dataDir = new File(dir, String.valueOf(n));
+        int gen = generation;
+        R r;
+        Loading.depth.set(Loading.depth.get() + 1);
         try {
-            R r = retrieve(dataDir);
-            if (r==null)    return null;
+            r = retrieve(dataDir);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load "+dataDir,e);
+            return null;
+        } finally {
+            Loading.depth.set(Loading.depth.get() - 1);
+        }
+        if (r == null) {
+            return null;
+        }
+        BuildReference<R> ref = createReference(r);
+        n = getNumberOf(r);
+        R published = publish(n, r, ref);
+        if (gen != generation) {
+            synchronized (this) {
+                if (!numberOnDisk.contains(n)) {
+                    // deleted while we were loading it, perhaps before we published it
+                    byNumber.remove(n, ref);
+                    return null;
+                }
+            }
+        }
+        return published;
+    }
 
-            Index copy = editInPlace!=null ? editInPlace : new Index(index);
+    private R publish(int n, R r, BuildReference<R> ref) {
+        while (true) {
+            BuildReference<R> old = byNumber.putIfAbsent(n, ref);
+            if (old == null) {
+                return r;
+            }
+            R v = old.get();
+            if (v != null) {
+                // somebody else got there first; stick to one instance per build
+                ref.clear();
+                return v;
+            }
+            if (byNumber.replace(n, old, ref)) {
+                return r;
+            }
+        }
+    }
 
-            BuildReference<R> ref = createReference(r);
-            BuildReference<R> old = copy.byNumber.put(getNumberOf(r), ref);
-            assert old == null || old.get() == null : "tried to overwrite " + old + " with " + ref;
+    /**
+     * A retrieval in progress.
+     */
+    private static final class Loading<R> {
+        /**
+         * How many retrievals the current thread is nested in, across all maps.
+         */
+        static final ThreadLocal<Integer> depth = ThreadLocal.withInitial(() -> 0);
 
-            if (editInPlace==null)  index = copy;
+        final CompletableFuture<R> result = new CompletableFuture<R>();
 
-            return r;
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Failed to load "+dataDir,e);
+        R await() {
+            try {
+                return result.join();
+            } catch (CompletionException x) {
+                Throwable cause = x.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw x;
+            }
         }
-        return null;
     }
 
     /**
@@ -546,13 +743,16 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     protected abstract R retrieve(File dir) throws IOException;
 
     public synchronized boolean removeValue(R run) {
-        Index copy = copy();
         int n = getNumberOf(run);
-        BuildReference<R> old = copy.byNumber.remove(n);
+        generation++;
+        BuildReference<R> old = byNumber.remove(n);
+        failed.remove(n);
         SortedIntList a = new SortedIntList(numberOnDisk);
         a.removeValue(n);
         numberOnDisk = a;
-        this.index = copy;
+        if (dir != null) {
+            BuildNumberManifest.write(dir, a);
+        }
 
         entrySet.clearCache();
 
@@ -563,13 +763,12 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      * Replaces all the current loaded Rs with the given ones.
      */
     public synchronized void reset(TreeMap<Integer,R> builds) {
-        Index index = new Index();
+        generation++;
+        byNumber.clear();
+        failed.clear();
         for (R r : builds.values()) {
-            BuildReference<R> ref = createReference(r);
-            index.byNumber.put(getNumberOf(r),ref);
+            byNumber.put(getNumberOf(r), createReference(r));
         }
-
-        this.index = index;
     }
 
     @Override
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.XmlFile;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary copy of a build record, stored in {@value #FILE_NAME} next to {@code build.xml},
+ * when enabled with {@code -Djenkins.model.lazy.BinaryBuildRecord.enabled=true}.
+ *
+ * <p>
+ * The file is a short header followed by the same object graph as {@code build.xml}, in XStream's binary encoding,
+ * and a CRC-32 of all that:
+ * <pre>
+ * int magic, int version, long length and long lastModified of build.xml when written, payload, long checksum
+ * </pre>
+ * Since the payload goes through the same converters as the XML, fields are still matched by name,
+ * so records survive classes gaining or losing fields just as {@code build.xml} does.
+ * A change to the layout of the file itself bumps {@link #VERSION}.
+ *
+ * <p>
+ * {@code build.xml} stays authoritative: the copy is only used while the XML it was written from is unchanged,
+ * so a missing, stale, corrupt or outdated copy just means reading the XML, after which the copy is written anew.
+ */
+@Restricted(NoExternalUse.class)
+public final class BinaryBuildRecord {
+
+    public static /* Script Console modifiable */ boolean ENABLED = SystemProperties.getBoolean(BinaryBuildRecord.class.getName() + ".enabled");
+
+    public static final String FILE_NAME = "build.bin";
+
+    private static final int MAGIC = 0x4A42524E; // JBRN
+    static final int VERSION = 2;
+
+    private BinaryBuildRecord() {}
+
+    private static File file(XmlFile xml) {
+        return new File(xml.getFile().getParentFile(), FILE_NAME);
+    }
+
+    /**
+     * Loads a build record from its binary copy, if it is usable.
+     *
+     * @return false if {@code build.xml} needs to be read instead
+     */
+    public static boolean read(@Nonnull XmlFile xml, @Nonnull Object run) {
+        if (!ENABLED) {
+            return false;
+        }
+        File f = file(xml);
+        try {
+            byte[] data = Files.readAllBytes(f.toPath());
+            // the checksum is verified before anything gets unmarshalled into the build
+            int length = data.length - 8;
+            if (length < 0) {
+                LOGGER.log(Level.FINE, "{0} is truncated", f);
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            if (new DataInputStream(new ByteArrayInputStream(data, length, 8)).readLong() != crc.getValue()) {
+                LOGGER.log(Level.FINE, "{0} is corrupt", f);
+                return false;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.log(Level.FINE, "{0} is in an unknown format", f);
+                return false;
+            }
+            File x = xml.getFile();
+            if (in.readLong() != x.length() || in.readLong() != x.lastModified()) {
+                LOGGER.log(Level.FINE, "{0} is stale", f);
+                return false;
+            }
+            xml.unmarshalBinary(run, in);
+            return true;
+        } catch (FileNotFoundException | NoSuchFileException x) {
+            return false;
+        } catch (EOFException x) {
+            LOGGER.log(Level.FINE, "{0} is truncated", f);
+            return false;
+        } catch (IOException x) {
+            // anything partially loaded gets overwritten by the XML
+            LOGGER.log(Level.FINE, "Failed to read " + f, x);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the binary copy of a build record which was just read from or written to {@code build.xml}.
+     */
+    public static void write(@Nonnull XmlFile xml, @Nonnull Object run) {
+        if (!ENABLED) {
+            return;
+        }
+        File f = file(xml);
+        Path tmp = null;
+        try {
+            File x = xml.getFile();
+            // a unique name, as several threads may load the same build at once
+            tmp = Files.createTempFile(f.getParentFile().toPath(), FILE_NAME, ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(os), crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(x.length());
+                out.writeLong(x.lastModified());
+                xml.writeBinary(run, out);
+                out.flush();
+                // not through the checked stream, which would count it
+                DataOutputStream trailer = new DataOutputStream(os);
+                trailer.writeLong(crc.getValue());
+                trailer.flush();
+            }
+            Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to write " + f, x);
+            // the copy would be stale anyway, but do not leave it around
+            f.delete();
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException x2) {
+                    LOGGER.log(Level.FINE, null, x2);
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BinaryBuildRecord.class.getName());
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Numbers of the builds in a build directory, stored in {@value #FILE_NAME} there,
+ * so that the directory need not be listed whenever a job is loaded.
+ *
+ * <p>
+ * The file is a header, the sorted numbers, and a CRC-32 of all that:
+ * <pre>
+ * int magic, int version, int link count of the directory, int count, int number * count, long checksum
+ * </pre>
+ * On POSIX file systems the link count of a directory is two plus its number of subdirectories,
+ * so it changes whenever a build directory is added or removed, by Jenkins or behind its back,
+ * without anything else written there (permalinks, indices) affecting it; a single {@code stat} thus validates the manifest.
+ * Where the link count says nothing about subdirectories, as on Windows or btrfs, the manifest is not used at all.
+ * A missing, corrupt or stale manifest just means listing the directory and writing it anew.
+ */
+final class BuildNumberManifest {
+
+    static /* Script Console modifiable */ boolean DISABLED = SystemProperties.getBoolean(BuildNumberManifest.class.getName() + ".disabled");
+
+    static final String FILE_NAME = "numbers.manifest";
+
+    private static final int MAGIC = 0x4A424E4D; // JBNM
+    private static final int VERSION = 1;
+
+    private BuildNumberManifest() {}
+
+    /**
+     * @return the number of hard links to a directory, or -1 if that does not reflect its subdirectories
+     */
+    static int linkCount(@Nonnull File dir) {
+        try {
+            Object n = Files.getAttribute(dir.toPath(), "unix:nlink");
+            int links = n instanceof Number ? ((Number) n).intValue() : -1;
+            return links >= 2 ? links : -1;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException x) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the manifest of a build directory.
+     *
+     * @return null if the directory has to be listed instead
+     */
+    static @CheckForNull SortedIntList read(@Nonnull File dir) {
+        if (DISABLED) {
+            return null;
+        }
+        int links = linkCount(dir);
+        if (links == -1) {
+            return null;
+        }
+        File f = new File(dir, FILE_NAME);
+        CRC32 crc = new CRC32();
+        try (InputStream is = Files.newInputStream(f.toPath())) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(is), crc));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.log(Level.FINE, "{0} is in an unknown format", f);
+                return null;
+            }
+            if (in.readInt() != links) {
+                LOGGER.log(Level.FINE, "{0} is stale", f);
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > f.length() / 4) {
+                LOGGER.log(Level.FINE, "{0} is corrupt", f);
+                return null;
+            }
+            SortedIntList list = new SortedIntList(count);
+            for (int i = 0; i < count; i++) {
+                list.add(in.readInt());
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                LOGGER.log(Level.FINE, "{0} is corrupt", f);
+                return null;
+            }
+            list.sort();
+            return list;
+        } catch (NoSuchFileException x) {
+            return null;
+        } catch (EOFException x) {
+            LOGGER.log(Level.FINE, "{0} is truncated", f);
+            return null;
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "Failed to read " + f, x);
+            return null;
+        }
+    }
+
+    /**
+     * Records the numbers of the builds now in a build directory.
+     */
+    static void write(@Nonnull File dir, @Nonnull SortedIntList numbers) {
+        if (DISABLED || !dir.isDirectory()) {
+            return;
+        }
+        File f = new File(dir, FILE_NAME);
+        int links = linkCount(dir);
+        if (links == -1) {
+            return;
+        }
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp.toPath())) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(os), crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(links);
+                out.writeInt(numbers.size());
+                for (int i = 0; i < numbers.size(); i++) {
+                    out.writeInt(numbers.get(i));
+                }
+                out.flush();
+                // not through the checked stream, which would count it
+                DataOutputStream trailer = new DataOutputStream(os);
+                trailer.writeLong(crc.getValue());
+                trailer.flush();
+            }
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "Failed to write " + f, x);
+            f.delete();
+            tmp.delete();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BuildNumberManifest.class.getName());
+}
@@ -0,0 +1,428 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.model.Run;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.lazy.BuildReference.Holder;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Global cache of loaded builds, bounded both by count and by estimated retained size.
+ *
+ * <p>
+ * Used by {@link BuildReference.DefaultHolderFactory} in {@code bounded} mode. Rather than leaving
+ * the decision to the garbage collector as soft references do, builds are held strongly while
+ * in the cache and only weakly once evicted, so an evicted build which is still in use elsewhere
+ * is picked up again without reloading {@code build.xml}.
+ *
+ * <p>
+ * Admission follows the W-TinyLFU scheme: new entries go to a small LRU window, and an entry
+ * leaving the window displaces the least recently used entry of the main area only if it has
+ * been accessed more often recently, as estimated by a {@link FrequencySketch}. This keeps a
+ * sweep over old builds (say, from a history page or an API crawler) from flushing the builds
+ * that are used all the time.
+ *
+ * <p>
+ * Lookups of cached builds do not take the lock of the cache: they are queued and applied to the LRU order
+ * and the frequency sketch in batches by whichever thread finds enough of them, and dropped if they come
+ * in faster than that, so that loading and reading builds of different jobs does not contend on the cache.
+ *
+ * <p>
+ * Limits can be set with the system properties {@code jenkins.model.lazy.BuildReferenceCache.maximumSize}
+ * and {@code jenkins.model.lazy.BuildReferenceCache.maximumWeight} (in bytes), and changed later
+ * with {@link #setMaximumSize} and {@link #setMaximumWeight}, for example from the script console.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class BuildReferenceCache {
+
+    private static final BuildReferenceCache INSTANCE = new BuildReferenceCache(
+            SystemProperties.getInteger(BuildReferenceCache.class.getName() + ".maximumSize", 10000),
+            SystemProperties.getLong(BuildReferenceCache.class.getName() + ".maximumWeight", Runtime.getRuntime().maxMemory() / 8));
+
+    public static @Nonnull BuildReferenceCache get() {
+        return INSTANCE;
+    }
+
+    /** Number of queued lookups at which they are applied. */
+    private static final int DRAIN_THRESHOLD = 64;
+    /** Number of queued lookups beyond which further ones are dropped. */
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private int maximumSize;
+    private long maximumWeight;
+
+    /** Recently admitted entries, in LRU order. */
+    private final LinkedHashMap<Entry<?>,Entry<?>> window = new LinkedHashMap<Entry<?>,Entry<?>>(16, 0.75f, true);
+    /** Entries which made it past the window, in LRU order. */
+    private final LinkedHashMap<Entry<?>,Entry<?>> main = new LinkedHashMap<Entry<?>,Entry<?>>(16, 0.75f, true);
+    private long windowWeight, mainWeight;
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    /** Lookups of cached entries not yet applied to {@link #sketch} and the LRU order. */
+    private final Queue<Entry<?>> reads = new ConcurrentLinkedQueue<Entry<?>>();
+    private final AtomicInteger pendingReads = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private long readmissions, evictions, rejections, evictedWeight;
+
+    BuildReferenceCache(int maximumSize, long maximumWeight) {
+        this.maximumSize = Math.max(1, maximumSize);
+        this.maximumWeight = Math.max(1, maximumWeight);
+        sketch.ensureCapacity(this.maximumSize);
+    }
+
+    /**
+     * Creates a holder for a freshly loaded build and admits it to the cache.
+     */
+    @Nonnull <R> Holder<R> make(@Nonnull R referent) {
+        Entry<R> e = new Entry<R>(this, referent, keyOf(referent), weigh(referent));
+        synchronized (this) {
+            sketch.increment(e.key);
+            admit(e, referent);
+        }
+        return e;
+    }
+
+    private <R> void accessed(Entry<R> e, @CheckForNull R referent) {
+        if (referent == null) {
+            misses.increment();
+            return;
+        }
+        if (e.strong == null) {
+            readmit(e, referent);
+            return;
+        }
+        hits.increment();
+        if (pendingReads.get() < READ_BUFFER_SIZE) {
+            pendingReads.incrementAndGet();
+            reads.add(e);
+        }
+        if (pendingReads.get() >= DRAIN_THRESHOLD && draining.compareAndSet(false, true)) {
+            try {
+                synchronized (this) {
+                    drainReads();
+                }
+            } finally {
+                draining.set(false);
+            }
+        }
+    }
+
+    private synchronized <R> void readmit(Entry<R> e, R referent) {
+        sketch.increment(e.key);
+        if (e.strong != null) {
+            // admitted again by another thread meanwhile
+            hits.increment();
+            (e.inWindow ? window : main).get(e);
+        } else {
+            // evicted but still reachable from elsewhere, so no need to load it again
+            readmissions++;
+            admit(e, referent);
+        }
+    }
+
+    /**
+     * Applies the queued lookups, so that eviction decisions see them.
+     */
+    private void drainReads() {
+        Entry<?> e;
+        while ((e = reads.poll()) != null) {
+            pendingReads.decrementAndGet();
+            sketch.increment(e.key);
+            if (e.strong != null) {
+                (e.inWindow ? window : main).get(e);
+            }
+        }
+    }
+
+    private synchronized void invalidate(Entry<?> e) {
+        if (e.strong != null) {
+            remove(e);
+        }
+        e.clear();
+    }
+
+    synchronized boolean contains(Entry<?> e) {
+        return e.strong != null;
+    }
+
+    private <R> void admit(Entry<R> e, R referent) {
+        e.strong = referent;
+        e.inWindow = true;
+        window.put(e, e);
+        windowWeight += e.weight;
+        enforce();
+    }
+
+    private int windowSize() {
+        return Math.max(1, maximumSize / 100);
+    }
+
+    private long windowMaxWeight() {
+        return Math.max(1, maximumWeight / 100);
+    }
+
+    private void enforce() {
+        drainReads();
+        while (window.size() > windowSize() || windowWeight > windowMaxWeight()) {
+            Entry<?> candidate = window.keySet().iterator().next();
+            window.remove(candidate);
+            windowWeight -= candidate.weight;
+            candidate.inWindow = false;
+            main.put(candidate, candidate);
+            mainWeight += candidate.weight;
+            enforceMain(candidate);
+        }
+        enforceMain(null);
+    }
+
+    private void enforceMain(@CheckForNull Entry<?> candidate) {
+        while (!main.isEmpty() && (main.size() > maximumSize - windowSize() || mainWeight > maximumWeight - windowMaxWeight())) {
+            Entry<?> victim = main.keySet().iterator().next();
+            if (candidate != null && candidate != victim && candidate.strong != null
+                    && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                rejections++;
+                evict(candidate);
+            } else {
+                evict(victim);
+            }
+        }
+    }
+
+    private void evict(Entry<?> e) {
+        remove(e);
+        evictions++;
+        evictedWeight += e.weight;
+    }
+
+    private void remove(Entry<?> e) {
+        if (e.inWindow) {
+            window.remove(e);
+            windowWeight -= e.weight;
+        } else {
+            main.remove(e);
+            mainWeight -= e.weight;
+        }
+        e.strong = null;
+    }
+
+    public synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Changes the maximum number of builds held, evicting immediately if necessary.
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        this.maximumSize = Math.max(1, maximumSize);
+        sketch.ensureCapacity(this.maximumSize);
+        enforce();
+    }
+
+    public synchronized long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Changes the maximum estimated size in bytes of builds held, evicting immediately if necessary.
+     */
+    public synchronized void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = Math.max(1, maximumWeight);
+        enforce();
+    }
+
+    /** Number of builds currently held. */
+    public synchronized int getSize() {
+        return window.size() + main.size();
+    }
+
+    /** Estimated size in bytes of builds currently held. */
+    public synchronized long getWeight() {
+        return windowWeight + mainWeight;
+    }
+
+    /** Lookups of builds held by the cache. */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** Lookups of builds which were evicted and collected, so that they had to be loaded again. */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** Lookups of builds which had been evicted but were still in memory, and were admitted again. */
+    public synchronized long getReadmissionCount() {
+        return readmissions;
+    }
+
+    /** Builds dropped from the cache, including {@linkplain #getRejectionCount rejected} ones. */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /** Builds dropped on leaving the window because they were used less than what they would have displaced. */
+    public synchronized long getRejectionCount() {
+        return rejections;
+    }
+
+    /** Total estimated size in bytes of evicted builds. */
+    public synchronized long getEvictionWeight() {
+        return evictedWeight;
+    }
+
+    public synchronized double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + misses.sum() + readmissions;
+        return total == 0 ? 1.0 : (double) (hits + readmissions) / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BuildReferenceCache[size=%d/%d, weight=%d/%d, hits=%d, misses=%d, readmissions=%d, evictions=%d, rejections=%d]",
+                getSize(), maximumSize, getWeight(), maximumWeight, hits.sum(), misses.sum(), readmissions, evictions, rejections);
+    }
+
+    private static int keyOf(Object referent) {
+        if (referent instanceof Run) {
+            // stable across reloads, unlike the identity of the object
+            return ((Run<?,?>) referent).getExternalizableId().hashCode();
+        }
+        return System.identityHashCode(referent);
+    }
+
+    /**
+     * Roughly estimates the memory retained by a build from the size of its record on disk.
+     */
+    private static long weigh(Object referent) {
+        long size = 0;
+        if (referent instanceof Run) {
+            size = new File(((Run<?,?>) referent).getRootDir(), "build.xml").length();
+        }
+        return 2048 + 2 * size;
+    }
+
+    /**
+     * Holds a build weakly, and strongly while it is in the cache.
+     */
+    static final class Entry<R> extends WeakReference<R> implements Holder<R> {
+        private final BuildReferenceCache cache;
+        final int key;
+        final long weight;
+        /** Written under the lock of {@link #cache}; non-null while cached. */
+        private volatile R strong;
+        private boolean inWindow;
+
+        Entry(BuildReferenceCache cache, R referent, int key, long weight) {
+            super(referent);
+            this.cache = cache;
+            this.key = key;
+            this.weight = weight;
+        }
+
+        @Override
+        public R get() {
+            R r = super.get();
+            cache.accessed(this, r);
+            return r;
+        }
+
+        /**
+         * Drops the build from the cache and releases it.
+         */
+        void invalidate() {
+            cache.invalidate(this);
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters estimating how often each key was accessed recently.
+     * All counters are halved periodically, so that old popularity fades away.
+     */
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x97cb3127, 0xb1a6e5c5, 0x4f7b8c2d, 0x6a09e667};
+
+        private byte[] counters = new byte[0];
+        private int mask;
+        private int additions, sampleSize;
+
+        void ensureCapacity(int maximumSize) {
+            // a few counters per entry keep collisions between rarely used keys from inflating their estimates
+            int width = Integer.highestOneBit((int) Math.max(1024, Math.min(8L * maximumSize, 1 << 20)) - 1) << 1;
+            if (width * DEPTH != counters.length) {
+                counters = new byte[width * DEPTH];
+                mask = width - 1;
+                additions = 0;
+            }
+            sampleSize = 10 * Math.max(maximumSize, 64);
+        }
+
+        private int index(int key, int row) {
+            int h = (key ^ (key >>> 16)) * SEEDS[row];
+            h ^= h >>> 15;
+            return row * (mask + 1) + (h & mask);
+        }
+
+        int frequency(int key) {
+            int min = 15;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[index(key, row)]);
+            }
+            return min;
+        }
+
+        void increment(int key) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(key, row);
+                if (counters[i] < 15) {
+                    counters[i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+    }
+}
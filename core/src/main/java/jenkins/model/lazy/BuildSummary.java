@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.model.Result;
+import hudson.model.Run;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * The few fields of a {@link Run} that history views and filters need, available without loading the build.
+ *
+ * <p>
+ * Summaries of completed builds are kept in a {@link BuildSummaryIndex} next to the build records.
+ *
+ * @see hudson.model.Job#getBuildSummary(int)
+ * @since TODO
+ */
+public final class BuildSummary {
+    private final int number;
+    private final Result result;
+    private final long timestamp;
+    private final long duration;
+    private final boolean building;
+    private final boolean customDisplayName;
+    private final boolean keepLog;
+
+    BuildSummary(int number, @CheckForNull Result result, long timestamp, long duration, boolean building, boolean customDisplayName) {
+        this(number, result, timestamp, duration, building, customDisplayName, false);
+    }
+
+    BuildSummary(int number, @CheckForNull Result result, long timestamp, long duration, boolean building, boolean customDisplayName, boolean keepLog) {
+        this.number = number;
+        this.result = result;
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.building = building;
+        this.customDisplayName = customDisplayName;
+        this.keepLog = keepLog;
+    }
+
+    /**
+     * Summarizes a build.
+     */
+    public static @Nonnull BuildSummary of(@Nonnull Run<?,?> r) {
+        boolean building = r.isBuilding();
+        return new BuildSummary(r.getNumber(), building ? null : r.getResult(), r.getTimeInMillis(),
+                building ? 0 : r.getDuration(), building, r.hasCustomDisplayName(), r.isKeepLogMarked());
+    }
+
+    /**
+     * @see Run#getNumber()
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * The result of the build, or null if it is still {@linkplain #isBuilding() building}.
+     * @see Run#getResult()
+     */
+    public @CheckForNull Result getResult() {
+        return result;
+    }
+
+    /**
+     * @see Run#getTimeInMillis()
+     */
+    public long getTimeInMillis() {
+        return timestamp;
+    }
+
+    /**
+     * @see Run#getDuration()
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @see Run#isBuilding()
+     */
+    public boolean isBuilding() {
+        return building;
+    }
+
+    /**
+     * Whether the display name differs from the default {@code #number}, in which case the build has to be loaded to get it.
+     * @see Run#hasCustomDisplayName()
+     */
+    public boolean hasCustomDisplayName() {
+        return customDisplayName;
+    }
+
+    /**
+     * Whether the build was explicitly marked to be kept forever.
+     * {@link Run#isKeepLog} may still be true for other reasons when this is false.
+     * @see Run#isKeepLogMarked()
+     */
+    public boolean isKeepLogMarked() {
+        return keepLog;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BuildSummary)) {
+            return false;
+        }
+        BuildSummary that = (BuildSummary) o;
+        return number == that.number && result == that.result && timestamp == that.timestamp
+                && duration == that.duration && building == that.building && customDisplayName == that.customDisplayName
+                && keepLog == that.keepLog;
+    }
+
+    @Override
+    public int hashCode() {
+        return number;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + number + " " + (building ? "building" : result) + " at " + timestamp + " for " + duration + "ms";
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.model.Result;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link BuildSummary}s of the completed builds of a job, stored in {@value #FILE_NAME} in its build directory.
+ *
+ * <p>
+ * The file is a short header followed by fixed-width records, appended whenever a summary changes:
+ * <pre>
+ * int number, byte result (0 for none, otherwise {@link Result#ordinal}+1), byte flags, short reserved,
+ * long timestamp, long duration
+ * </pre>
+ * The last record for a number wins, and a record with {@link #DELETED} set removes it. The file is rewritten
+ * without the superseded records once they outnumber the live ones.
+ *
+ * <p>
+ * The index is only a cache: a number missing from it just means the build has to be loaded, so a corrupt or
+ * truncated file is discarded, and builds loaded anyway are added to it as they are found.
+ * Callers must only trust entries for numbers that actually exist on disk.
+ */
+@Restricted(NoExternalUse.class)
+public final class BuildSummaryIndex {
+
+    public static final String FILE_NAME = "summaries.idx";
+
+    private static final int MAGIC = 0x4A425349; // JBSI
+    private static final int VERSION = 1;
+    static final int RECORD_SIZE = 24;
+
+    private static final byte DELETED = 1;
+    private static final byte CUSTOM_DISPLAY_NAME = 2;
+    private static final byte KEEP_LOG = 4;
+
+    private static final Result[] RESULTS = {Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED};
+
+    private final Supplier<File> dir;
+
+    /**
+     * Loaded lazily from the file. Null until then.
+     */
+    private Map<Integer,BuildSummary> summaries;
+
+    /**
+     * Number of records in the file, including superseded ones.
+     */
+    private int records;
+
+    /**
+     * @param dir
+     *      Build directory of the job, looked up every time as it changes when the job is renamed.
+     */
+    public BuildSummaryIndex(@Nonnull Supplier<File> dir) {
+        this.dir = dir;
+    }
+
+    private @CheckForNull File file() {
+        File d = dir.get();
+        return d == null ? null : new File(d, FILE_NAME);
+    }
+
+    /**
+     * Gets the summary of a completed build, if indexed.
+     */
+    public synchronized @CheckForNull BuildSummary get(int number) {
+        return load().get(number);
+    }
+
+    /**
+     * Records the summary of a completed build, unless it is already up to date.
+     */
+    public synchronized void put(@Nonnull BuildSummary s) {
+        Result r = s.getResult();
+        if (s.isBuilding() || r == null || r.ordinal < 0 || r.ordinal >= RESULTS.length || RESULTS[r.ordinal] != r) {
+            return; // nothing we could record faithfully
+        }
+        if (s.equals(load().get(s.getNumber()))) {
+            return;
+        }
+        summaries.put(s.getNumber(), s);
+        append(s.getNumber(), s, (byte) 0);
+    }
+
+    /**
+     * Forgets a build, as when it is deleted.
+     */
+    public synchronized void remove(int number) {
+        if (load().remove(number) != null) {
+            append(number, null, DELETED);
+        }
+    }
+
+    private Map<Integer,BuildSummary> load() {
+        if (summaries != null) {
+            return summaries;
+        }
+        summaries = new HashMap<Integer,BuildSummary>();
+        records = 0;
+        File f = file();
+        if (f == null || !f.isFile()) {
+            return summaries;
+        }
+        try (InputStream is = Files.newInputStream(f.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a build summary index");
+            }
+            while (true) {
+                int number;
+                byte result, flags;
+                long timestamp, duration;
+                try {
+                    number = in.readInt();
+                    result = in.readByte();
+                    flags = in.readByte();
+                    in.readShort();
+                    timestamp = in.readLong();
+                    duration = in.readLong();
+                } catch (EOFException e) {
+                    break; // end of file, or a record cut short by a crash
+                }
+                records++;
+                if ((flags & DELETED) != 0) {
+                    summaries.remove(number);
+                } else {
+                    summaries.put(number, new BuildSummary(number, result > 0 && result <= RESULTS.length ? RESULTS[result - 1] : null,
+                            timestamp, duration, false, (flags & CUSTOM_DISPLAY_NAME) != 0, (flags & KEEP_LOG) != 0));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Discarding unreadable " + f, e);
+            summaries.clear();
+            records = 0;
+            if (!f.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete {0}", f);
+            }
+        }
+        return summaries;
+    }
+
+    private void append(int number, @CheckForNull BuildSummary s, byte flags) {
+        File f = file();
+        if (f == null) {
+            return;
+        }
+        if (records > 2 * summaries.size() + 100) {
+            rewrite(f);
+            return;
+        }
+        try {
+            boolean fresh = !f.isFile() || f.length() == 0;
+            if (!fresh && (f.length() - 8) % RECORD_SIZE != 0) {
+                // cut off a partial record left by a crash, so that this one lines up
+                rewrite(f);
+                return;
+            }
+            try (OutputStream os = new FileOutputStream(f, true);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                if (fresh) {
+                    writeHeader(out);
+                }
+                writeRecord(out, number, s, flags);
+            }
+            records++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update " + f, e);
+        }
+    }
+
+    private void rewrite(File f) {
+        File tmp = new File(f.getPath() + ".tmp");
+        try {
+            try (OutputStream os = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                writeHeader(out);
+                for (BuildSummary s : summaries.values()) {
+                    writeRecord(out, s.getNumber(), s, (byte) 0);
+                }
+            }
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            records = summaries.size();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to rewrite " + f, e);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private static void writeRecord(DataOutputStream out, int number, @CheckForNull BuildSummary s, byte flags) throws IOException {
+        Result result = s == null ? null : s.getResult();
+        if (s != null && s.hasCustomDisplayName()) {
+            flags |= CUSTOM_DISPLAY_NAME;
+        }
+        if (s != null && s.isKeepLogMarked()) {
+            flags |= KEEP_LOG;
+        }
+        out.writeInt(number);
+        out.writeByte(result == null ? 0 : result.ordinal + 1);
+        out.writeByte(flags);
+        out.writeShort(0);
+        out.writeLong(s == null ? 0 : s.getTimeInMillis());
+        out.writeLong(s == null ? 0 : s.getDuration());
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BuildSummaryIndex.class.getName());
+}
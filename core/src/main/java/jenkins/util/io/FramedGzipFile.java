@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads a gzip file written by {@link FramedGzipOutputStream}, starting at any offset of the uncompressed data
+ * without inflating more than one frame of data before it.
+ *
+ * @since TODO
+ */
+public final class FramedGzipFile {
+
+    static final int MAGIC = 0x4a46475a;
+    static final int VERSION = 1;
+
+    private final File file;
+    /** Uncompressed and compressed offsets at which each frame starts, followed by the total lengths. */
+    private final long[] offsets, positions;
+
+    private FramedGzipFile(File file, long[] offsets, long[] positions) {
+        this.file = file;
+        this.offsets = offsets;
+        this.positions = positions;
+    }
+
+    /**
+     * Gets the file the index of the frames of a gzip file is kept in.
+     */
+    public static @Nonnull File getIndexFile(@Nonnull File file) {
+        return new File(file.getParentFile(), file.getName() + ".frames");
+    }
+
+    /**
+     * Opens a gzip file written by {@link FramedGzipOutputStream}.
+     *
+     * @return null if the file has no index of its frames, or one which does not match it
+     */
+    public static @CheckForNull FramedGzipFile open(@Nonnull File file) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(getIndexFile(file).toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (data.length < 16 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            in.readInt(); // frame size, only informative
+            int count = in.readInt();
+            if (count <= 0 || data.length != 16 + (count + 1) * 16L) {
+                return null;
+            }
+            long[] offsets = new long[count + 1], positions = new long[count + 1];
+            for (int i = 0; i <= count; i++) {
+                offsets[i] = in.readLong();
+                positions[i] = in.readLong();
+            }
+            if (positions[count] != file.length()) {
+                return null; // rewritten since
+            }
+            return new FramedGzipFile(file, offsets, positions);
+        }
+    }
+
+    /**
+     * Compresses a file into a framed gzip file, replacing any previous one.
+     * The gzip file and its index are written under temporary names and only then renamed,
+     * so neither is ever seen incomplete.
+     */
+    public static void compress(@Nonnull File source, @Nonnull File target) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        File tmpIndex = getIndexFile(tmp);
+        try {
+            try (InputStream in = Files.newInputStream(source.toPath());
+                 OutputStream out = new FramedGzipOutputStream(tmp, tmpIndex, FramedGzipOutputStream.DEFAULT_FRAME_SIZE)) {
+                IOUtils.copy(in, out);
+            }
+            move(tmp, target);
+            move(tmpIndex, getIndexFile(target));
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+            Files.deleteIfExists(tmpIndex.toPath());
+        }
+    }
+
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Gets the length of the uncompressed data.
+     */
+    public long length() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Gets the number of frames.
+     */
+    public int getFrameCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Reads the uncompressed data from an offset to the end.
+     */
+    public @Nonnull InputStream read(long start) throws IOException {
+        if (start < 0) {
+            throw new IllegalArgumentException("negative offset " + start);
+        }
+        if (start >= length()) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        int i = Arrays.binarySearch(offsets, 0, offsets.length - 1, start);
+        if (i < 0) {
+            i = -i - 2; // the frame containing it
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
+        InputStream in = null;
+        try {
+            channel.position(positions[i]);
+            // reads on through the following members
+            in = new GZIPInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            IOUtils.skipFully(in, start - offsets[i]);
+            return in;
+        } catch (IOException | RuntimeException e) {
+            if (in != null) {
+                in.close();
+            } else {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the uncompressed data for random access, inflating only the frames read.
+     * The last frame read is kept, so that reads near one another, as backwards through a log, inflate each frame once.
+     */
+    public @Nonnull SeekableByteChannel openChannel() throws IOException {
+        try {
+            return new FrameChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private final class FrameChannel implements SeekableByteChannel {
+        private final FileChannel channel;
+        private long position;
+        /** Index of the frame in {@link #frame}, or -1. */
+        private int index = -1;
+        private byte[] frame;
+
+        FrameChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (position >= length()) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(offsets, 0, offsets.length - 1, position);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            if (i != index) {
+                frame = inflate(i);
+                index = i;
+            }
+            int from = (int) (position - offsets[i]);
+            int n = Math.min(dst.remaining(), frame.length - from);
+            dst.put(frame, from, n);
+            position += n;
+            return n;
+        }
+
+        private byte[] inflate(int i) throws IOException {
+            ByteBuffer compressed = ByteBuffer.allocate((int) (positions[i + 1] - positions[i]));
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, positions[i] + compressed.position()) < 0) {
+                    throw new EOFException("truncated frame " + i + " of " + file);
+                }
+            }
+            byte[] data = new byte[(int) (offsets[i + 1] - offsets[i])];
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()))) {
+                IOUtils.readFully(in, data);
+            }
+            return data;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("negative offset " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return length();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            frame = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nonnull;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Writes a gzip file as a series of independently compressed gzip members, or frames, each holding a fixed amount
+ * of the uncompressed data, and records where each frame starts in an index file written on {@link #close}.
+ *
+ * <p>
+ * The result is still an ordinary gzip file, readable by {@link java.util.zip.GZIPInputStream} or {@code zcat};
+ * with the index, {@link FramedGzipFile} can start reading at any offset by inflating at most one frame to get there.
+ * Data is only readable once its frame is complete, so this is meant for writing completed files.
+ *
+ * @see FramedGzipFile
+ * @since TODO
+ */
+public class FramedGzipOutputStream extends OutputStream {
+
+    /**
+     * Default amount of uncompressed data in a frame.
+     */
+    public static final int DEFAULT_FRAME_SIZE = 256 * 1024;
+
+    private final File index;
+    private final int frameSize;
+    private final CountingOutputStream out;
+    /** Uncompressed and compressed offset of each frame, as they are written to the index. */
+    private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    private final DataOutputStream framesData = new DataOutputStream(frames);
+    private int count;
+
+    private GZIPOutputStream frame;
+    private int inFrame;
+    private long length;
+    private boolean closed;
+
+    /**
+     * Writes a file with the index next to it, as {@link FramedGzipFile#getIndexFile}.
+     */
+    public FramedGzipOutputStream(@Nonnull File file) throws IOException {
+        this(file, FramedGzipFile.getIndexFile(file), DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * @param file the gzip file to write
+     * @param index where to write the index of the frames
+     * @param frameSize the amount of uncompressed data in each frame
+     */
+    public FramedGzipOutputStream(@Nonnull File file, @Nonnull File index, int frameSize) throws IOException {
+        if (frameSize <= 0) {
+            throw new IllegalArgumentException("frame size " + frameSize);
+        }
+        this.index = index;
+        this.frameSize = frameSize;
+        try {
+            out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())));
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("closed");
+        }
+        while (len > 0) {
+            if (frame == null) {
+                startFrame();
+            }
+            int n = Math.min(len, frameSize - inFrame);
+            frame.write(b, off, n);
+            inFrame += n;
+            length += n;
+            off += n;
+            len -= n;
+            if (inFrame == frameSize) {
+                endFrame();
+            }
+        }
+    }
+
+    private void startFrame() throws IOException {
+        addFrame();
+        frame = new GZIPOutputStream(new CloseShieldOutputStream(out));
+        inFrame = 0;
+    }
+
+    private void addFrame() throws IOException {
+        framesData.writeLong(length);
+        framesData.writeLong(out.getByteCount());
+        count++;
+    }
+
+    private void endFrame() throws IOException {
+        frame.close(); // only finishes the member, and releases its deflater
+        frame = null;
+    }
+
+    /**
+     * Flushes what was written of completed frames; the current frame is only written when complete.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Completes the last frame and writes the index.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (frame == null && count == 0) {
+                startFrame(); // an empty gzip file is not valid, but an empty member is
+            }
+            if (frame != null) {
+                endFrame();
+            }
+        } finally {
+            out.close();
+        }
+        // the end is recorded like the start of one more frame
+        framesData.writeLong(length);
+        framesData.writeLong(out.getByteCount());
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index.toPath())))) {
+            os.writeInt(FramedGzipFile.MAGIC);
+            os.writeInt(FramedGzipFile.VERSION);
+            os.writeInt(frameSize);
+            os.writeInt(count);
+            frames.writeTo(os);
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
+    }
+}
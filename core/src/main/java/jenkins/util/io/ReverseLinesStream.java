@@ -0,0 +1,281 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util.io;
+
+import com.google.common.collect.AbstractIterator;
+
+import edu.umd.cs.findbugs.annotations.CleanupObligation;
+import edu.umd.cs.findbugs.annotations.DischargesObligation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Represents a stream over the lines of a text file, from the last line to the first.
+ * <p>
+ * The file is read backwards in large blocks, so that reading the last few lines of even a huge file
+ * only costs as much as those lines. Lines are split wherever the charset encodes {@code '\n'},
+ * which works for any charset where that encoding cannot occur within other characters
+ * (ASCII-compatible ones, UTF-16 and UTF-32 included); a {@code '\r'} ending a line is dropped.
+ * A file ending with a newline does not have an empty last line.
+ * <p>
+ * A file whose name ends with {@code .gz} is read through its frames if it was written by {@link FramedGzipOutputStream},
+ * inflating only those holding the lines read. Otherwise it is first inflated to a temporary file,
+ * as it cannot be read backwards, so it costs as much as reading it all.
+ * <p>
+ * As with {@link LinesStream}, use it in a try-with-resources statement, and create at most one iterator:
+ * <pre>
+ *  try (ReverseLinesStream stream = new ReverseLinesStream(...)) {
+ *      for (String line : stream) {
+ *          ...
+ *      }
+ *  }
+ * </pre>
+ *
+ * @since TODO
+ */
+@CleanupObligation
+public class ReverseLinesStream implements Closeable, Iterable<String> {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final @Nonnull Charset charset;
+    private final @Nonnull byte[] newline;
+    private final @Nonnull SeekableByteChannel channel;
+    private final @CheckForNull Path inflated;
+    private transient @Nullable Iterator<String> iterator;
+
+    private final byte[] block = new byte[BLOCK_SIZE];
+    /** File offset of {@code block[0]}. */
+    private long blockStart;
+    /** Bytes of {@link #block} not yet consumed, from its start. */
+    private int cursor;
+    /** File offset at which the line last returned starts. */
+    private long offset;
+
+    /**
+     * Opens the text file at <code>path</code> for reading backwards.
+     * @param path Path to the file to open for reading.
+     * @param charset Encoding of the file.
+     * @throws IOException if the file at <code>path</code> cannot be opened for reading.
+     */
+    public ReverseLinesStream(@Nonnull Path path, @Nonnull Charset charset) throws IOException {
+        this.charset = charset;
+        this.newline = encodedNewline(charset);
+        boolean gzipped = path.getFileName() != null && path.getFileName().toString().endsWith(".gz");
+        FramedGzipFile frames = gzipped ? FramedGzipFile.open(path.toFile()) : null;
+        if (frames != null) {
+            inflated = null;
+            channel = frames.openChannel(); // only the frames read get inflated
+        } else if (gzipped) {
+            inflated = Files.createTempFile("log", ".tmp");
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+                Files.copy(in, inflated, StandardCopyOption.REPLACE_EXISTING);
+                channel = Files.newByteChannel(inflated);
+            } catch (IOException | RuntimeException x) {
+                Files.deleteIfExists(inflated);
+                throw x;
+            }
+        } else {
+            inflated = null;
+            channel = Files.newByteChannel(path);
+        }
+        long end = channel.size();
+        if (end >= newline.length && endsWith(end, newline)) {
+            end -= newline.length; // a trailing newline terminates the last line rather than starting an empty one
+        }
+        blockStart = end;
+        offset = channel.size();
+    }
+
+    /**
+     * Encodes {@code '\n'} alone, without any byte order mark the encoder may start with.
+     */
+    private static byte[] encodedNewline(Charset charset) {
+        byte[] one = "\n".getBytes(charset);
+        byte[] two = "\n\n".getBytes(charset);
+        return Arrays.copyOfRange(two, one.length, two.length);
+    }
+
+    private boolean endsWith(long end, byte[] suffix) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(suffix.length);
+        channel.position(end - suffix.length);
+        while (buf.hasRemaining() && channel.read(buf) != -1) {
+            // keep reading
+        }
+        byte[] b = buf.array();
+        for (int i = 0; i < suffix.length; i++) {
+            if (b[i] != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the offset in bytes from the start of the file (as inflated) at which the line last returned starts.
+     * Before any line is returned, this is the size of the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @DischargesObligation
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (inflated != null) {
+                Files.deleteIfExists(inflated);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        if (iterator!=null)
+            throw new IllegalStateException("Only one Iterator can be created.");
+
+        iterator = new AbstractIterator<String>() {
+            private boolean done = offset == 0; // empty file
+
+            @Override
+            protected String computeNext() {
+                if (done) {
+                    return endOfData();
+                }
+                try {
+                    return readLine();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            private String readLine() throws IOException {
+                Deque<byte[]> pieces = new ArrayDeque<>();
+                while (true) {
+                    if (cursor == 0) {
+                        if (blockStart == 0) {
+                            done = true;
+                            offset = 0;
+                            return decode(pieces);
+                        }
+                        readPreviousBlock();
+                    }
+                    int i = lastIndexOfNewline();
+                    if (i >= 0) {
+                        pieces.addFirst(copy(i + newline.length, cursor));
+                        cursor = i;
+                        offset = blockStart + i + newline.length;
+                        return decode(pieces);
+                    }
+                    pieces.addFirst(copy(0, cursor));
+                    cursor = 0;
+                }
+            }
+        };
+
+        return iterator;
+    }
+
+    private void readPreviousBlock() throws IOException {
+        int len = (int) Math.min(BLOCK_SIZE, blockStart);
+        blockStart -= len;
+        ByteBuffer buf = ByteBuffer.wrap(block, 0, len);
+        channel.position(blockStart);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) == -1) {
+                throw new IOException("File truncated while being read");
+            }
+        }
+        cursor = len;
+    }
+
+    /**
+     * Finds the last newline within {@code block[0..cursor)}, aligned to the width of its encoding.
+     */
+    private int lastIndexOfNewline() {
+        int width = newline.length;
+        if (width == 1) {
+            byte nl = newline[0];
+            for (int i = cursor - 1; i >= 0; i--) {
+                if (block[i] == nl) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        outer:
+        for (int i = cursor - width; i >= 0; i--) {
+            if ((blockStart + i) % width != 0) {
+                continue;
+            }
+            for (int j = 0; j < width; j++) {
+                if (block[i + j] != newline[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private byte[] copy(int from, int to) {
+        byte[] b = new byte[to - from];
+        System.arraycopy(block, from, b, 0, b.length);
+        return b;
+    }
+
+    private String decode(Deque<byte[]> pieces) {
+        String line;
+        if (pieces.size() == 1) {
+            line = new String(pieces.getFirst(), charset);
+        } else {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            for (byte[] piece : pieces) {
+                buf.write(piece, 0, piece.length);
+            }
+            line = new String(buf.toByteArray(), charset);
+        }
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+}
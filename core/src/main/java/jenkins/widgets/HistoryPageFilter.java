@@ -30,8 +30,10 @@ import hudson.model.ParameterValue;
 import hudson.model.ParametersAction;
 import hudson.model.Queue;
 import hudson.model.Run;
+import hudson.model.RunMap;
 import hudson.search.UserSearchProperty;
 import hudson.util.Iterators;
+import hudson.util.RunList;
 import hudson.widgets.HistoryWidget;
 
 import javax.annotation.Nonnull;
@@ -41,6 +43,7 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 
 /**
@@ -115,7 +118,7 @@ public class HistoryPageFilter<T> {
      */
     @Deprecated
     public void add(@Nonnull List<T> runItems) {
-        addInternal(runItems);
+        addInternal(runItems, runItems, Collections.<Queue.Item>emptyList());
     }
 
     /**
@@ -125,7 +128,7 @@ public class HistoryPageFilter<T> {
      * @since 2.17
      */
     public void add(@Nonnull Iterable<T> runItems) {
-        addInternal(runItems);
+        addInternal(runItems, runItems, Collections.<Queue.Item>emptyList());
     }
 
     /**
@@ -137,15 +140,17 @@ public class HistoryPageFilter<T> {
      */
     public void add(@Nonnull Iterable<T> runItems, @Nonnull List<Queue.Item> queueItems) {
         sort(queueItems);
-        addInternal(Iterables.concat(queueItems, runItems));
+        addInternal(Iterables.concat(queueItems, runItems), runItems, queueItems);
     }
 
     /**
      * Add items to the History page, internal implementation.
      * @param items The items to be added.
+     * @param runItems The run items among them.
+     * @param queueItems The queue items among them, preceding the run items, newest first.
      * @param <ItemT> The type of items should either be T or Queue.Item.
      */
-    private <ItemT> void addInternal(@Nonnull Iterable<ItemT> items) {
+    private <ItemT> void addInternal(@Nonnull Iterable<ItemT> items, @Nonnull Iterable<T> runItems, @Nonnull List<Queue.Item> queueItems) {
         // Note that items can be a large lazily evaluated collection,
         // so this method is optimized to only iterate through it as much as needed.
 
@@ -154,6 +159,7 @@ public class HistoryPageFilter<T> {
         }
 
         nextBuildNumber = getNextBuildNumber(items.iterator().next());
+        RunList<?> runs = asRunList(runItems);
 
         if (newerThan == null && olderThan == null) {
             // Just return the first page of entries (newest)
@@ -165,6 +171,8 @@ public class HistoryPageFilter<T> {
                 }
             }
             hasDownPage = iter.hasNext();
+        } else if (runs != null && addWindow(runs, queueItems)) {
+            // served from the builds around the requested page only
         } else if (newerThan != null) {
             int toFillCount = getFillCount();
             if (toFillCount > 0) {
@@ -227,6 +235,92 @@ public class HistoryPageFilter<T> {
         }
     }
 
+    /**
+     * Gets runs as a list which can be walked from a build number, as the builds of a job.
+     *
+     * @return null if they are not such a list
+     */
+    private static RunList<?> asRunList(Iterable<?> runItems) {
+        if (runItems instanceof RunList) {
+            return (RunList<?>) runItems;
+        }
+        if (runItems instanceof RunMap) {
+            return RunList.fromRunMap((RunMap<?>) runItems);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the page of runs next to {@link #newerThan} or {@link #olderThan} without going through
+     * all the newer runs, if the list supports walking from a build number.
+     * Queue items are all newer than any run.
+     *
+     * @param queueItems The queue items, newest first.
+     * @return false if the list does not support it
+     */
+    private boolean addWindow(RunList<?> items, List<Queue.Item> queueItems) {
+        Long entryId = newerThan != null ? newerThan : olderThan;
+        if (entryId > Long.MIN_VALUE + Integer.MAX_VALUE) {
+            return false; // not a build, such as a queue item
+        }
+        int number = (int) (entryId - Long.MIN_VALUE);
+        if (newerThan != null) {
+            Iterable<? extends Run> newer = number == Integer.MAX_VALUE ? Collections.<Run>emptyList() : items.walk(number + 1, true);
+            if (newer == null) {
+                return false;
+            }
+            int toFillCount = getFillCount();
+            if (toFillCount > 0) {
+                // the oldest 'toFillCount' runs, then queue items, newer than 'newerThan'
+                LinkedList<Object> itemsToAdd = new LinkedList<>();
+                int oldestNewer = number + 1;
+                Iterator<? extends Run> iter = newer.iterator();
+                while (itemsToAdd.size() < toFillCount && iter.hasNext()) {
+                    Run run = iter.next();
+                    if (itemsToAdd.isEmpty()) {
+                        oldestNewer = run.getNumber();
+                    }
+                    itemsToAdd.addFirst(run);
+                }
+                ListIterator<Queue.Item> queued = queueItems.listIterator(queueItems.size());
+                while (itemsToAdd.size() < toFillCount && queued.hasPrevious()) {
+                    itemsToAdd.addFirst(queued.previous());
+                }
+                hasUpPage = iter.hasNext() || queued.hasPrevious();
+                if (itemsToAdd.isEmpty()) {
+                    // All builds are older than newerThan ?
+                    hasDownPage = true;
+                } else {
+                    // If there's less than a full page of items newer than
+                    // 'newerThan', then it's ok to fill the page with older items.
+                    Iterator<? extends Run> older = items.walk(oldestNewer - 1, false).iterator();
+                    while (itemsToAdd.size() < toFillCount && older.hasNext()) {
+                        itemsToAdd.addLast(older.next());
+                    }
+                    hasDownPage = older.hasNext();
+                    for (Object item : itemsToAdd) {
+                        add(item);
+                    }
+                }
+            }
+        } else {
+            Iterable<? extends Run> older = items.walk(number - 1, false);
+            if (older == null) {
+                return false;
+            }
+            hasUpPage = !queueItems.isEmpty() || items.walk(number, true).iterator().hasNext();
+            Iterator<? extends Run> iter = older.iterator();
+            while (iter.hasNext()) {
+                add(iter.next());
+                if (isFull()) {
+                    hasDownPage = iter.hasNext();
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
     public int size() {
         return queueItems.size() + runs.size();
     }
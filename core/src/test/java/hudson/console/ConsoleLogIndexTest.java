@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ConsoleLogIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File log;
+    private int stride;
+    private int maxSizeRatio;
+
+    @Before
+    public void setUp() {
+        log = new File(tmp.getRoot(), "log");
+        stride = ConsoleLogIndex.STRIDE;
+        ConsoleLogIndex.STRIDE = 2;
+        // the logs here are too short for their indices to be worth using otherwise
+        maxSizeRatio = ConsoleLogIndex.MAX_SIZE_RATIO;
+        ConsoleLogIndex.MAX_SIZE_RATIO = 0;
+    }
+
+    @After
+    public void tearDown() {
+        ConsoleLogIndex.STRIDE = stride;
+        ConsoleLogIndex.MAX_SIZE_RATIO = maxSizeRatio;
+    }
+
+    private static final String NOTE = ConsoleNote.PREAMBLE_STR + "AAAA" + ConsoleNote.POSTAMBLE_STR;
+
+    private void write(String... chunks) throws Exception {
+        try (OutputStream os = new ConsoleLogIndex.Writer(new FileOutputStream(log, true), log)) {
+            for (String chunk : chunks) {
+                os.write(chunk.getBytes(StandardCharsets.US_ASCII));
+                os.flush();
+            }
+        }
+    }
+
+    @Test
+    public void lines() throws Exception {
+        write("zero\none\n", "two\nthr", "ee\nfour");
+        ConsoleLogIndex index = ConsoleLogIndex.load(log);
+        assertNotNull(index);
+        assertTrue(index.isComplete());
+        assertEquals(log.length(), index.getLength());
+        assertEquals(5, index.getLineCount());
+        assertEquals(0, index.getLineOffset(0));
+        assertEquals(5, index.getLineOffset(1));
+        assertEquals(9, index.getLineOffset(2));
+        assertEquals(13, index.getLineOffset(3));
+        assertEquals(19, index.getLineOffset(4));
+        assertEquals(-1, index.getLineOffset(5));
+        assertEquals(13, index.getTailOffset(2));
+        assertEquals(0, index.getTailOffset(10));
+    }
+
+    @Test
+    public void notes() throws Exception {
+        String text = "a" + NOTE + "b\n" + NOTE.substring(0, 3) + "\nc" + NOTE.substring(0, 7);
+        write(text.substring(0, 4), text.substring(4, 10), text.substring(10) + NOTE.substring(7) + NOTE + "\n");
+        ConsoleLogIndex index = ConsoleLogIndex.load(log);
+        assertNotNull(index);
+        assertArrayEquals(new long[] {1, 23, 38}, index.getNoteOffsets(0, log.length()));
+        assertArrayEquals(new long[] {23}, index.getNoteOffsets(2, 38));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(log.length(), index.writePlainTextTo(0, out));
+        assertEquals("ab\n" + NOTE.substring(0, 3) + "\nc\n", out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void denseNotes() throws Exception {
+        StringBuilder text = new StringBuilder();
+        StringBuilder plain = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append(NOTE).append("line ").append(i).append('\n');
+            plain.append("line ").append(i).append('\n');
+        }
+        write(text.toString());
+        ConsoleLogIndex index = ConsoleLogIndex.load(log);
+        assertNotNull(index);
+        assertEquals(1000, index.getNoteOffsets(0, log.length()).length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(log.length(), index.writePlainTextTo(0, out));
+        assertEquals(plain.toString(), out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void sparseNotes() throws Exception {
+        ConsoleLogIndex.STRIDE = 1000;
+        StringBuilder text = new StringBuilder();
+        StringBuilder plain = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            String line = "line " + i + "\n";
+            text.append(i % 15000 == 1 ? NOTE + line : line);
+            plain.append(line);
+        }
+        write(text.toString());
+        assertTrue(ConsoleLogIndex.hasSparseNotes(log));
+        ConsoleLogIndex index = ConsoleLogIndex.load(log);
+        assertNotNull(index);
+        assertEquals(4, index.getNoteOffsets(0, log.length()).length);
+        assertEquals(3, index.getNoteOffsets(1000, log.length()).length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(log.length(), index.writePlainTextTo(0, out));
+        assertEquals(plain.toString(), out.toString("US-ASCII"));
+        long start = index.getLineOffset(25000);
+        out = new ByteArrayOutputStream();
+        assertEquals(log.length(), index.writePlainTextTo(start, out));
+        assertEquals(plain.substring(plain.indexOf("line 25000\n")), out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void largeIndexIsIgnored() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append(NOTE).append("line ").append(i).append('\n');
+        }
+        write(text.toString());
+        assertNotNull(ConsoleLogIndex.load(log));
+        assertFalse("notes are dense", ConsoleLogIndex.hasSparseNotes(log));
+        ConsoleLogIndex.MAX_SIZE_RATIO = 16;
+        assertNull(ConsoleLogIndex.load(log));
+    }
+
+    @Test
+    public void inProgress() throws Exception {
+        try (OutputStream os = new ConsoleLogIndex.Writer(new FileOutputStream(log), log)) {
+            os.write("one\ntwo\nthree\nfo".getBytes(StandardCharsets.US_ASCII));
+            os.flush();
+            ConsoleLogIndex index = ConsoleLogIndex.load(log);
+            assertNotNull(index);
+            assertFalse(index.isComplete());
+            assertEquals(8, index.getLength());
+            assertEquals(4, index.getLineCount());
+            assertEquals(14, index.getLineOffset(3));
+        }
+    }
+
+    @Test
+    public void existingLogIsNotIndexed() throws Exception {
+        write("one\n");
+        write("two\n");
+        assertNull(ConsoleLogIndex.load(log));
+        assertFalse(ConsoleLogIndex.getIndexFile(log).exists());
+    }
+
+    @Test
+    public void rewrittenLogIsIgnored() throws Exception {
+        write("one\ntwo\n");
+        try (OutputStream os = new FileOutputStream(log, true)) {
+            os.write('x');
+        }
+        assertNull(ConsoleLogIndex.load(log));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NoteStrippingOutputStreamTest {
+
+    private static final String NOTE = ConsoleNote.PREAMBLE_STR + "AAAA" + ConsoleNote.POSTAMBLE_STR;
+
+    private static String strip(String text, int chunk) throws Exception {
+        byte[] b = text.getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NoteStrippingOutputStream s = new NoteStrippingOutputStream(out);
+        for (int i = 0; i < b.length; i += chunk) {
+            if (chunk == 1) {
+                s.write(b[i]);
+            } else {
+                s.write(b, i, Math.min(chunk, b.length - i));
+            }
+        }
+        s.finish();
+        return out.toString("US-ASCII");
+    }
+
+    private static void assertStripped(String expected, String text) throws Exception {
+        for (int chunk : new int[] {1, 2, 3, 7, 1000}) {
+            assertEquals("in chunks of " + chunk, expected, strip(text, chunk));
+        }
+    }
+
+    @Test
+    public void notes() throws Exception {
+        assertStripped("plain\n", "plain\n");
+        assertStripped("Go back to your home.\n", "Go back to " + NOTE + "your home" + NOTE + ".\n");
+        assertStripped("ab\n", NOTE + "a" + NOTE + NOTE + "b\n");
+    }
+
+    @Test
+    public void notQuiteNotes() throws Exception {
+        String partial = ConsoleNote.PREAMBLE_STR.substring(0, 4);
+        assertStripped("x" + partial + "y\n", "x" + partial + "y\n");
+        assertStripped("x\u001B" + "y\n", "x\u001B" + NOTE + "y\n");
+        assertStripped("x" + partial, "x" + partial);
+    }
+
+    @Test
+    public void unterminatedNote() throws Exception {
+        assertStripped("x\ny\n", "x" + ConsoleNote.PREAMBLE_STR + "AAAA\ny\n");
+        assertStripped("x", "x" + ConsoleNote.PREAMBLE_STR + "AA");
+    }
+}
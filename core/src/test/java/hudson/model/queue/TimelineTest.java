@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.model.queue;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimelineTest {
+
+    @Test
+    public void at() {
+        Timeline t = new Timeline();
+        assertEquals(2, t.insert(10, 20, 2));
+        assertEquals(3, t.insert(15, 30, 1));
+        assertEquals(0, t.at(5));
+        assertEquals(2, t.at(10));
+        assertEquals(3, t.at(15));
+        assertEquals(3, t.at(19));
+        assertEquals(1, t.at(25));
+        assertEquals(0, t.at(30));
+    }
+
+    @Test
+    public void fit() {
+        Timeline t = new Timeline();
+        t.insert(10, 20, 2);
+        t.insert(15, 30, 1);
+        assertEquals(Long.valueOf(0), t.fit(0, 10, 0));
+        assertEquals(Long.valueOf(30), t.fit(0, 15, 0));
+        assertEquals(Long.valueOf(20), t.fit(0, 15, 2));
+        assertEquals(Long.valueOf(0), t.fit(0, 100, 3));
+    }
+
+}
@@ -24,6 +24,7 @@
 package jenkins.model.lazy;
 
 import java.io.File;
+import org.apache.commons.io.FileUtils;
 import static org.junit.Assert.*;
 
 import jenkins.model.lazy.AbstractLazyLoadRunMap.Direction;
@@ -42,6 +43,7 @@ import java.util.SortedMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import jenkins.util.Timer;
@@ -257,6 +259,28 @@ public class AbstractLazyLoadRunMapTest {
         b[1].asserts(3);
     }
 
+    @Test
+    public void lazySubMap() throws Exception {
+        SortedMap<Integer,Build> m = a.headMap(2);
+        assertEquals("[]", a.getLoadedBuilds().keySet().toString());
+        assertEquals(2, m.size());
+        assertEquals("size() should not load anything", "[]", a.getLoadedBuilds().keySet().toString());
+        assertEquals(3, m.lastKey().intValue());
+        assertEquals("[3]", a.getLoadedBuilds().keySet().toString());
+        assertNull(m.get(1));
+        assertEquals(1, a.tailMap(2).firstKey().intValue());
+        assertEquals("[3, 1]", a.getLoadedBuilds().keySet().toString());
+        assertEquals("[5]", m.subMap(99, 3).keySet().toString());
+        assertEquals("[3]", m.tailMap(4).keySet().toString());
+        assertTrue(m.headMap(5).isEmpty());
+        try {
+            a.subMap(0, -5).firstKey();
+            fail();
+        } catch (NoSuchElementException e) {
+            // as expected
+        }
+    }
+
     @Test
     public void identity() {
         assertTrue(a.equals(a));
@@ -412,7 +436,7 @@ public class AbstractLazyLoadRunMapTest {
             }
         });
         slowBuilderStartSemaphores.get(2).acquire(1);
-        // now one of them is inside retrieve(…); the other is waiting for the lock
+        // now one of them is inside retrieve(…); the other is waiting for its result
         slowBuilderEndSemaphores.get(2).release(2); // allow both to proceed
         Build first = firstLoad.get();
         Build second = secondLoad.get();
@@ -420,4 +444,63 @@ public class AbstractLazyLoadRunMapTest {
         assertSame(second, first);
     }
 
+    @Test
+    public void parallelRetrieve() throws Exception {
+        for (int i = 1; i <= 2; i++) {
+            slowBuilder.add(i);
+            slowBuilderStartSemaphores.put(i, new Semaphore(0));
+            slowBuilderEndSemaphores.put(i, new Semaphore(0));
+            slowBuilderLoadCount.put(i, new AtomicInteger());
+        }
+        final FakeMap m = slowBuilder.make();
+        Future<Build> firstLoad = Timer.get().submit(new Callable<Build>() {
+            @Override
+            public Build call() throws Exception {
+                return m.getByNumber(1);
+            }
+        });
+        Future<Build> secondLoad = Timer.get().submit(new Callable<Build>() {
+            @Override
+            public Build call() throws Exception {
+                return m.getByNumber(2);
+            }
+        });
+        // both are inside retrieve(…) at the same time
+        assertTrue(slowBuilderStartSemaphores.get(1).tryAcquire(10, TimeUnit.SECONDS));
+        assertTrue(slowBuilderStartSemaphores.get(2).tryAcquire(10, TimeUnit.SECONDS));
+        slowBuilderEndSemaphores.get(1).release();
+        slowBuilderEndSemaphores.get(2).release();
+        firstLoad.get().asserts(1);
+        secondLoad.get().asserts(2);
+        assertEquals("[2, 1]", m.getLoadedBuilds().keySet().toString());
+    }
+
+    @Test
+    public void removeWhileRetrieving() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            slowBuilder.add(i);
+            slowBuilderStartSemaphores.put(i, new Semaphore(0));
+            slowBuilderEndSemaphores.put(i, new Semaphore(0));
+            slowBuilderLoadCount.put(i, new AtomicInteger());
+        }
+        final FakeMap m = slowBuilder.make();
+        Future<Build> load = Timer.get().submit(new Callable<Build>() {
+            @Override
+            public Build call() throws Exception {
+                return m.getByNumber(2);
+            }
+        });
+        assertTrue(slowBuilderStartSemaphores.get(2).tryAcquire(10, TimeUnit.SECONDS));
+        // now it is inside retrieve(…) when the build gets deleted
+        FileUtils.deleteDirectory(new File(slowBuilder.getDir(), "2"));
+        assertFalse(m.removeValue(new Build(2)));
+        slowBuilderEndSemaphores.get(2).release();
+        assertNull(load.get());
+        assertNull(m.getByNumber(2));
+        assertFalse(m.getLoadedBuilds().containsKey(2));
+        slowBuilderEndSemaphores.get(1).release();
+        slowBuilderEndSemaphores.get(3).release();
+        assertEquals("[3, 1]", m.keySet().toString());
+    }
+
 }
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.XmlFile;
+import hudson.util.XStream2;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class BinaryBuildRecordTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Before
+    public void enable() {
+        BinaryBuildRecord.ENABLED = true;
+    }
+
+    @After
+    public void disable() {
+        BinaryBuildRecord.ENABLED = false;
+    }
+
+    public static class Record {
+        String description;
+        long duration;
+        List<String> tags;
+    }
+
+    private XmlFile xml() {
+        return new XmlFile(new XStream2(), new File(tmp.getRoot(), "build.xml"));
+    }
+
+    private XmlFile saved() throws Exception {
+        Record r = new Record();
+        r.description = "first";
+        r.duration = 42;
+        r.tags = Arrays.asList("a", "b");
+        XmlFile xml = xml();
+        xml.write(r);
+        BinaryBuildRecord.write(xml, r);
+        return xml;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        saved();
+        Record loaded = new Record();
+        assertTrue(BinaryBuildRecord.read(xml(), loaded));
+        assertEquals("first", loaded.description);
+        assertEquals(42, loaded.duration);
+        assertEquals(Arrays.asList("a", "b"), loaded.tags);
+    }
+
+    @Test
+    public void staleCopyIsIgnored() throws Exception {
+        XmlFile xml = saved();
+        assertTrue(xml.getFile().setLastModified(xml.getFile().lastModified() - 10000));
+        assertFalse(BinaryBuildRecord.read(xml(), new Record()));
+    }
+
+    @Test
+    public void corruptCopyIsIgnored() throws Exception {
+        saved();
+        File bin = new File(tmp.getRoot(), BinaryBuildRecord.FILE_NAME);
+        Files.write(bin.toPath(), new byte[] {1, 2, 3});
+        assertFalse(BinaryBuildRecord.read(xml(), new Record()));
+        assertTrue(bin.delete());
+        assertFalse(BinaryBuildRecord.read(xml(), new Record()));
+    }
+
+    @Test
+    public void checksumMismatchIsIgnored() throws Exception {
+        saved();
+        File bin = new File(tmp.getRoot(), BinaryBuildRecord.FILE_NAME);
+        byte[] data = Files.readAllBytes(bin.toPath());
+        // a byte of the payload, past the header
+        data[data.length / 2] ^= 0x10;
+        Files.write(bin.toPath(), data);
+        Record loaded = new Record();
+        assertFalse(BinaryBuildRecord.read(xml(), loaded));
+        assertNull("nothing unmarshalled", loaded.description);
+    }
+
+    @Test
+    public void noTemporaryFilesLeft() throws Exception {
+        saved();
+        BinaryBuildRecord.write(xml(), new Record());
+        assertEquals(Arrays.asList("build.bin", "build.xml"), sorted(tmp.getRoot().list()));
+    }
+
+    private static List<String> sorted(String[] names) {
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        saved();
+        BinaryBuildRecord.ENABLED = false;
+        assertFalse(BinaryBuildRecord.read(xml(), new Record()));
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class BuildNumberManifestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot();
+        assumeTrue("link counts reflect subdirectories", BuildNumberManifest.linkCount(dir) != -1);
+        for (String kid : new String[] {"1", "2", "5"}) {
+            assertTrue(new File(dir, kid).mkdir());
+        }
+    }
+
+    private static SortedIntList numbers(int... ns) {
+        SortedIntList list = new SortedIntList(ns.length);
+        for (int n : ns) {
+            list.add(n);
+        }
+        list.sort();
+        return list;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        BuildNumberManifest.write(dir, numbers(1, 2, 5));
+        assertTrue(new File(dir, "lastSuccessfulBuild").createNewFile());
+        assertEquals("files do not invalidate it", Arrays.asList(1, 2, 5), BuildNumberManifest.read(dir));
+    }
+
+    @Test
+    public void newSubdirectoryInvalidates() throws Exception {
+        BuildNumberManifest.write(dir, numbers(1, 2, 5));
+        assertTrue(new File(dir, "7").mkdir());
+        assertNull(BuildNumberManifest.read(dir));
+    }
+
+    @Test
+    public void removedSubdirectoryInvalidates() throws Exception {
+        BuildNumberManifest.write(dir, numbers(1, 2, 5));
+        assertTrue(new File(dir, "2").delete());
+        assertNull(BuildNumberManifest.read(dir));
+    }
+
+    @Test
+    public void corruptionIsDetected() throws Exception {
+        BuildNumberManifest.write(dir, numbers(1, 2, 5));
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, BuildNumberManifest.FILE_NAME), "rw")) {
+            raf.seek(20);
+            raf.writeInt(3);
+        }
+        assertNull(BuildNumberManifest.read(dir));
+    }
+
+    @Test
+    public void truncationIsDetected() throws Exception {
+        BuildNumberManifest.write(dir, numbers(1, 2, 5));
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, BuildNumberManifest.FILE_NAME), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertNull(BuildNumberManifest.read(dir));
+    }
+
+}
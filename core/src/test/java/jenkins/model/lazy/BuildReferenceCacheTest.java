@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BuildReferenceCacheTest {
+
+    @SuppressWarnings("unchecked")
+    private static BuildReferenceCache.Entry<Object> make(BuildReferenceCache cache, Object o) {
+        return (BuildReferenceCache.Entry<Object>) cache.make(o);
+    }
+
+    @Test
+    public void boundedBySize() {
+        BuildReferenceCache cache = new BuildReferenceCache(100, Long.MAX_VALUE);
+        List<Object> objects = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Object o = new Object();
+            objects.add(o);
+            make(cache, o);
+        }
+        assertEquals(100, cache.getSize());
+        assertEquals(900, cache.getEvictionCount());
+    }
+
+    @Test
+    public void boundedByWeight() {
+        BuildReferenceCache cache = new BuildReferenceCache(1000, 2048 * 20);
+        for (int i = 0; i < 100; i++) {
+            make(cache, new Object());
+        }
+        assertTrue(cache.getSize() <= 20);
+        assertTrue(cache.getWeight() <= 2048 * 20);
+    }
+
+    @Test
+    public void frequentlyUsedEntriesSurviveScans() {
+        BuildReferenceCache cache = new BuildReferenceCache(100, Long.MAX_VALUE);
+        List<Object> hotObjects = new ArrayList<>();
+        List<BuildReferenceCache.Entry<Object>> hot = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Object o = new Object();
+            hotObjects.add(o);
+            hot.add(make(cache, o));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (BuildReferenceCache.Entry<Object> e : hot) {
+                assertNotNull(e.get());
+            }
+        }
+        List<Object> cold = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Object o = new Object();
+            cold.add(o);
+            make(cache, o);
+        }
+        for (BuildReferenceCache.Entry<Object> e : hot) {
+            assertTrue(cache.contains(e));
+        }
+        assertTrue(cache.getRejectionCount() > 0);
+    }
+
+    @Test
+    public void lookupsDoNotTakeTheLock() throws Exception {
+        BuildReferenceCache cache = new BuildReferenceCache(100, Long.MAX_VALUE);
+        Object o = new Object();
+        BuildReferenceCache.Entry<Object> e = make(cache, o);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (cache) {
+                assertSame(o, executor.submit(e::get).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void evictedButReachableEntriesAreReadmitted() {
+        BuildReferenceCache cache = new BuildReferenceCache(10, Long.MAX_VALUE);
+        Object o = new Object();
+        BuildReferenceCache.Entry<Object> e = make(cache, o);
+        cache.setMaximumSize(1);
+        make(cache, new Object());
+        make(cache, new Object());
+        assertFalse(cache.contains(e));
+        assertSame(o, e.get());
+        assertEquals(1, cache.getReadmissionCount());
+    }
+
+    @Test
+    public void invalidate() {
+        BuildReferenceCache cache = new BuildReferenceCache(10, Long.MAX_VALUE);
+        Object o = new Object();
+        BuildReferenceCache.Entry<Object> e = make(cache, o);
+        e.invalidate();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getWeight());
+        assertNull(e.get());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void shrinkAtRuntime() {
+        BuildReferenceCache cache = new BuildReferenceCache(100, Long.MAX_VALUE);
+        List<Object> objects = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Object o = new Object();
+            objects.add(o);
+            make(cache, o);
+        }
+        cache.setMaximumSize(10);
+        assertEquals(10, cache.getSize());
+        cache.setMaximumWeight(2048 * 5);
+        assertTrue(cache.getSize() <= 5);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.model.Result;
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class BuildSummaryIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        File dir = tmp.getRoot();
+        BuildSummaryIndex idx = new BuildSummaryIndex(() -> dir);
+        idx.put(new BuildSummary(1, Result.SUCCESS, 1000, 10, false, false));
+        idx.put(new BuildSummary(2, Result.FAILURE, 2000, 20, false, true));
+        idx.put(new BuildSummary(3, null, 3000, 0, true, false));
+        idx.remove(1);
+
+        BuildSummaryIndex reloaded = new BuildSummaryIndex(() -> dir);
+        assertNull(reloaded.get(1));
+        assertEquals(new BuildSummary(2, Result.FAILURE, 2000, 20, false, true), reloaded.get(2));
+        assertNull("builds in progress are not indexed", reloaded.get(3));
+    }
+
+    @Test
+    public void truncatedRecordIsIgnored() throws Exception {
+        File dir = tmp.getRoot();
+        BuildSummaryIndex idx = new BuildSummaryIndex(() -> dir);
+        idx.put(new BuildSummary(1, Result.SUCCESS, 1000, 10, false, false));
+        idx.put(new BuildSummary(2, Result.UNSTABLE, 2000, 20, false, false));
+        File f = new File(dir, BuildSummaryIndex.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        BuildSummaryIndex reloaded = new BuildSummaryIndex(() -> dir);
+        assertEquals(Result.SUCCESS, reloaded.get(1).getResult());
+        assertNull(reloaded.get(2));
+        reloaded.put(new BuildSummary(2, Result.UNSTABLE, 2000, 20, false, false));
+        assertEquals(8 + 2 * BuildSummaryIndex.RECORD_SIZE, f.length());
+        assertEquals(Result.UNSTABLE, new BuildSummaryIndex(() -> dir).get(2).getResult());
+    }
+
+    @Test
+    public void compaction() throws Exception {
+        File dir = tmp.getRoot();
+        BuildSummaryIndex idx = new BuildSummaryIndex(() -> dir);
+        for (int i = 0; i < 500; i++) {
+            idx.put(new BuildSummary(1, Result.SUCCESS, 1000, i, false, false));
+        }
+        File f = new File(dir, BuildSummaryIndex.FILE_NAME);
+        assertTrue(f.length() < 8 + 200 * BuildSummaryIndex.RECORD_SIZE);
+        assertEquals(499, new BuildSummaryIndex(() -> dir).get(1).getDuration());
+    }
+
+    @Test
+    public void garbageIsDiscarded() throws Exception {
+        File dir = tmp.getRoot();
+        hudson.util.TextFile f = new hudson.util.TextFile(new File(dir, BuildSummaryIndex.FILE_NAME));
+        f.write("not an index at all");
+        BuildSummaryIndex idx = new BuildSummaryIndex(() -> dir);
+        assertNull(idx.get(1));
+        assertFalse(f.exists());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util.io;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class FramedGzipFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] text(int size) {
+        Random r = new Random(size);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (r.nextInt(10) == 0 ? '\n' : 'a' + r.nextInt(26));
+        }
+        return data;
+    }
+
+    @Test
+    public void readFromAnyOffset() throws Exception {
+        byte[] data = text(100000);
+        File gz = tmp.newFile("log.gz");
+        try (OutputStream os = new FramedGzipOutputStream(gz, FramedGzipFile.getIndexFile(gz), 4096)) {
+            os.write(data);
+        }
+        FramedGzipFile frames = FramedGzipFile.open(gz);
+        assertNotNull(frames);
+        assertEquals(data.length, frames.length());
+        assertEquals(25, frames.getFrameCount());
+        for (int start : new int[] {0, 1, 4095, 4096, 4097, 50000, 99999, 100000, 200000}) {
+            try (InputStream is = frames.read(start)) {
+                assertArrayEquals("from " + start, Arrays.copyOfRange(data, Math.min(start, data.length), data.length), IOUtils.toByteArray(is));
+            }
+        }
+    }
+
+    @Test
+    public void plainGzip() throws Exception {
+        byte[] data = text(FramedGzipOutputStream.DEFAULT_FRAME_SIZE * 2 + 5);
+        File log = tmp.newFile("log");
+        Files.write(log.toPath(), data);
+        File gz = new File(tmp.getRoot(), "log.gz");
+        FramedGzipFile.compress(log, gz);
+        assertEquals(3, FramedGzipFile.open(gz).getFrameCount());
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(gz.toPath()))) {
+            assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+        assertArrayEquals(new String[] {"log", "log.gz", "log.gz.frames"}, sorted(tmp.getRoot().list()));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        File gz = tmp.newFile("log.gz");
+        new FramedGzipOutputStream(gz).close();
+        FramedGzipFile frames = FramedGzipFile.open(gz);
+        assertNotNull(frames);
+        assertEquals(0, frames.length());
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(gz.toPath()))) {
+            assertEquals(-1, is.read());
+        }
+    }
+
+    @Test
+    public void mismatchedIndex() throws Exception {
+        File gz = tmp.newFile("log.gz");
+        assertNull(FramedGzipFile.open(gz));
+        try (OutputStream os = new FramedGzipOutputStream(gz)) {
+            os.write(text(10));
+        }
+        try (OutputStream os = Files.newOutputStream(gz.toPath())) {
+            os.write(1);
+        }
+        assertNull(FramedGzipFile.open(gz));
+    }
+
+    private static String[] sorted(String[] names) {
+        Arrays.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ReverseLinesStreamTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private List<String> read(File f, Charset charset) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (ReverseLinesStream s = new ReverseLinesStream(f.toPath(), charset)) {
+            for (String line : s) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private File write(String content, Charset charset) throws Exception {
+        File f = tmp.newFile();
+        Files.write(f.toPath(), content.getBytes(charset));
+        return f;
+    }
+
+    @Test
+    public void newestFirst() throws Exception {
+        File f = write("one\ntwo\nthree\n", StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("three", "two", "one"), read(f, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void noTrailingNewline() throws Exception {
+        File f = write("one\n\ntwo", StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("two", "", "one"), read(f, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertEquals(Collections.emptyList(), read(tmp.newFile(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void crlf() throws Exception {
+        File f = write("one\r\ntwo\r\n", StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("two", "one"), read(f, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void linesSpanningBlocks() throws Exception {
+        String big = StringUtils.repeat("x", 100000);
+        String multi = StringUtils.repeat("\u00e9", 70000);
+        File f = write("first\n" + big + "\n" + multi + "\nlast\n", StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("last", multi, big, "first"), read(f, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void wideCharset() throws Exception {
+        // U+010A encodes as 01 0A, which must not be mistaken for a newline
+        File f = write("a\u010Ab\nc\n", StandardCharsets.UTF_16BE);
+        assertEquals(Arrays.asList("c", "a\u010Ab"), read(f, StandardCharsets.UTF_16BE));
+    }
+
+    @Test
+    public void gzipped() throws Exception {
+        File f = new File(tmp.getRoot(), "log.gz");
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(f))) {
+            for (int i = 0; i < 20000; i++) {
+                os.write(("line " + i + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        try (ReverseLinesStream s = new ReverseLinesStream(f.toPath(), StandardCharsets.US_ASCII)) {
+            Iterator<String> it = s.iterator();
+            assertEquals("line 19999", it.next());
+            assertEquals("line 19998", it.next());
+        }
+    }
+
+    @Test
+    public void framedGzip() throws Exception {
+        File f = new File(tmp.getRoot(), "log.gz");
+        List<String> expected = new ArrayList<>();
+        try (OutputStream os = new FramedGzipOutputStream(f, FramedGzipFile.getIndexFile(f), 1000)) {
+            for (int i = 0; i < 5000; i++) {
+                String line = "line " + i + StringUtils.repeat("-", i % 1500);
+                os.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+                expected.add(line);
+            }
+        }
+        Collections.reverse(expected);
+        assertEquals(expected, read(f, StandardCharsets.US_ASCII));
+        try (ReverseLinesStream s = new ReverseLinesStream(f.toPath(), StandardCharsets.US_ASCII)) {
+            Iterator<String> it = s.iterator();
+            assertEquals(expected.get(0), it.next());
+            assertEquals(FramedGzipFile.open(f).length() - expected.get(0).length() - 1, s.getOffset());
+        }
+    }
+
+    @Test
+    public void offset() throws Exception {
+        File f = write("ab\ncd\nef\n", StandardCharsets.UTF_8);
+        try (ReverseLinesStream s = new ReverseLinesStream(f.toPath(), StandardCharsets.UTF_8)) {
+            Iterator<String> it = s.iterator();
+            assertEquals("ef", it.next());
+            assertEquals(6, s.getOffset());
+            assertEquals("cd", it.next());
+            assertEquals(3, s.getOffset());
+            assertEquals("ab", it.next());
+            assertEquals(0, s.getOffset());
+            assertFalse(it.hasNext());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void singleIterator() throws Exception {
+        try (ReverseLinesStream s = new ReverseLinesStream(write("x\n", StandardCharsets.UTF_8).toPath(), StandardCharsets.UTF_8)) {
+            s.iterator();
+            s.iterator();
+        }
+    }
+}
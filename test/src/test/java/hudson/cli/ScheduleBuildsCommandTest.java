@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.cli;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.labels.LabelAtom;
+import jenkins.model.Jenkins;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static hudson.cli.CLICommandInvoker.Matcher.failedWith;
+import static hudson.cli.CLICommandInvoker.Matcher.hasNoStandardOutput;
+import static hudson.cli.CLICommandInvoker.Matcher.succeededSilently;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+public class ScheduleBuildsCommandTest {
+
+    private CLICommandInvoker command;
+
+    @Rule
+    public final JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        command = new CLICommandInvoker(j, "schedule-builds");
+    }
+
+    @Test
+    public void scheduleBuildsShouldFailWithoutBuildPermission() throws Exception {
+        j.createFreeStyleProject("aProject");
+
+        final CLICommandInvoker.Result result = command
+                .authorizedTo(Jenkins.READ, Item.READ)
+                .invokeWithArgs("aProject");
+
+        assertThat(result, failedWith(6));
+        assertThat(result, hasNoStandardOutput());
+        assertThat(result.stderr(), containsString("user is missing the Job/Build permission"));
+        assertThat(j.jenkins.getQueue().isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void scheduleBuildsShouldScheduleAllJobs() throws Exception {
+        FreeStyleProject p1 = j.createFreeStyleProject("aProject1");
+        FreeStyleProject p2 = j.createFreeStyleProject("aProject2");
+        // keep them in the queue
+        p1.setAssignedLabel(new LabelAtom("never_created"));
+        p2.setAssignedLabel(new LabelAtom("never_created"));
+
+        final CLICommandInvoker.Result result = command
+                .authorizedTo(Jenkins.READ, Item.READ, Item.BUILD)
+                .invokeWithArgs("aProject1", "aProject2", "aProject1");
+
+        assertThat(result, succeededSilently());
+        assertThat(j.jenkins.getQueue().getItems(p1), hasSize(1));
+        assertThat(j.jenkins.getQueue().getItems(p2), hasSize(1));
+    }
+
+    @Test
+    public void scheduleBuildsShouldScheduleExistingJobsIfOneDoesNotExist() throws Exception {
+        FreeStyleProject p1 = j.createFreeStyleProject("aProject1");
+        p1.setAssignedLabel(new LabelAtom("never_created"));
+
+        final CLICommandInvoker.Result result = command
+                .authorizedTo(Jenkins.READ, Item.READ, Item.BUILD)
+                .invokeWithArgs("never_created", "aProject1");
+
+        assertThat(result, failedWith(5));
+        assertThat(result, hasNoStandardOutput());
+        assertThat(result.stderr(), containsString("never_created: No such job 'never_created'"));
+        assertThat(result.stderr(), containsString("ERROR: " + CLICommand.CLI_LISTPARAM_SUMMARY_ERROR_TEXT));
+        assertThat(j.jenkins.getQueue().getItems(p1), hasSize(1));
+    }
+
+    @Test
+    public void scheduleBuildsShouldReportDisabledJobs() throws Exception {
+        FreeStyleProject p1 = j.createFreeStyleProject("aProject1");
+        p1.disable();
+
+        final CLICommandInvoker.Result result = command
+                .authorizedTo(Jenkins.READ, Item.READ, Item.BUILD)
+                .invokeWithArgs("aProject1");
+
+        assertThat(result, failedWith(4));
+        assertThat(result.stderr(), containsString(BuildCommand.BUILD_SCHEDULING_REFUSED));
+        assertThat(j.jenkins.getQueue().isEmpty(), equalTo(true));
+    }
+}
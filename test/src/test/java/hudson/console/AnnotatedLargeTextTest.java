@@ -24,25 +24,36 @@
 
 package hudson.console;
 
+import hudson.Launcher;
 import hudson.MarkupText;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.util.List;
 import java.util.logging.Level;
+import jenkins.util.io.FramedGzipFile;
 import org.apache.commons.io.Charsets;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.jvnet.hudson.test.For;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.LoggerRule;
+import org.jvnet.hudson.test.TestBuilder;
 import org.kohsuke.stapler.framework.io.ByteBuffer;
 
-@For({AnnotatedLargeText.class, ConsoleNote.class, ConsoleAnnotationOutputStream.class, PlainTextConsoleOutputStream.class})
+@For({AnnotatedLargeText.class, ConsoleNote.class, ConsoleAnnotationOutputStream.class, PlainTextConsoleOutputStream.class, ConsoleHtmlCache.class})
 public class AnnotatedLargeTextTest {
 
     @ClassRule
@@ -51,6 +62,9 @@ public class AnnotatedLargeTextTest {
     @Rule
     public LoggerRule logging = new LoggerRule().record(ConsoleAnnotationOutputStream.class, Level.FINE).capture(100);
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test
     public void smokes() throws Exception {
         ByteBuffer buf = new ByteBuffer();
@@ -105,8 +119,98 @@ public class AnnotatedLargeTextTest {
         assertThat(logging.getMessages(), hasItem("Failed to resurrect annotation")); // TODO assert that this is IOException: MAC mismatch
     }
 
+    @Test
+    public void framedGzip() throws Exception {
+        File log = tmp.newFile("log");
+        try (PrintStream ps = new PrintStream(new FileOutputStream(log), true)) {
+            for (int i = 0; i < 100000; i++) {
+                ps.print("line " + i + "\n");
+            }
+            ps.print("Go back to " + TestNote.encodeTo("/root", "your home") + ".\n");
+        }
+        long length = log.length();
+        File gz = new File(tmp.getRoot(), "log.gz");
+        FramedGzipFile.compress(log, gz);
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<>(gz, Charsets.UTF_8, true, null);
+        assertEquals(length, text.length());
+        long start = text.getLineOffset(99999);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(length, text.writeLogTo(start, baos));
+        assertEquals("line 99999\nGo back to your home.\n", baos.toString());
+        StringWriter w = new StringWriter();
+        text.writeHtmlTo(start, w);
+        assertEquals("line 99999\nGo back to <a href='/root'>your home</a>.\n", w.toString());
+    }
+
+    @Test
+    public void cachedHtml() throws Exception {
+        FreeStyleBuild b = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        File log = tmp.newFile("log");
+        try (PrintStream ps = new PrintStream(new FileOutputStream(log), true)) {
+            for (int i = 0; i < 1000; i++) {
+                ps.print("line " + i + (i % 7 == 0 ? " of " + TestNote.encodeTo("/" + i, "number " + i) : "") + "\n");
+            }
+        }
+        AnnotatedLargeText<FreeStyleBuild> text = new AnnotatedLargeText<>(log, Charsets.UTF_8, true, b);
+        long start = text.getLineOffset(500);
+        String all, tail;
+        ConsoleHtmlCache.DISABLED = true;
+        try {
+            StringWriter w = new StringWriter();
+            assertEquals(log.length(), text.writeHtmlTo(0, w));
+            all = w.toString();
+            w = new StringWriter();
+            text.writeHtmlTo(start, w);
+            tail = w.toString();
+        } finally {
+            ConsoleHtmlCache.DISABLED = false;
+        }
+        assertThat(all, containsString("line 7 of <a href='/7'>number 7</a>\n"));
+        int chunkSize = ConsoleHtmlCache.CHUNK_SIZE;
+        ConsoleHtmlCache.CHUNK_SIZE = 1024;
+        try {
+            for (int i = 0; i < 2; i++) {
+                StringWriter w = new StringWriter();
+                assertEquals(log.length(), text.writeHtmlTo(0, w));
+                assertEquals(all, w.toString());
+                w = new StringWriter();
+                text.writeHtmlTo(start, w);
+                assertEquals(tail, w.toString());
+            }
+        } finally {
+            ConsoleHtmlCache.CHUNK_SIZE = chunkSize;
+            ConsoleHtmlCache.clear();
+        }
+    }
+
+    @Test
+    public void consolePageLines() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                for (int i = 0; i < 300; i++) {
+                    listener.getLogger().println("line " + i);
+                }
+                return true;
+            }
+        });
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+        List<String> lines = b.getLog(Integer.MAX_VALUE);
+        JenkinsRule.WebClient wc = r.createWebClient();
+        String text = wc.goTo(b.getUrl() + "console?tail=2").asText();
+        assertThat(text, containsString("line 299"));
+        assertThat(text, not(containsString("line 298")));
+        text = wc.goTo(b.getUrl() + "console?line=" + (lines.indexOf("line 100") + 1)).asText();
+        assertThat(text, containsString("line 100"));
+        assertThat(text, containsString("line 299"));
+        assertThat(text, not(containsString("line 99")));
+        text = wc.goTo(b.getUrl() + "console").asText();
+        assertThat(text, containsString("line 0"));
+    }
+
     /** Simplified version of {@link HyperlinkNote}. */
-    static class TestNote extends ConsoleNote<Void> {
+    static class TestNote extends ConsoleNote<Object> {
         private final String url;
         private final int length;
         TestNote(String url, int length) {
@@ -114,7 +218,7 @@ public class AnnotatedLargeTextTest {
             this.length = length;
         }
         @Override
-        public ConsoleAnnotator<?> annotate(Void context, MarkupText text, int charPos) {
+        public ConsoleAnnotator<?> annotate(Object context, MarkupText text, int charPos) {
             text.addMarkup(charPos, charPos + length, "<a href='" + url + "'" + ">", "</a>");
             return null;
         }
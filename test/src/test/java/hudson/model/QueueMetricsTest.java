@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import com.gargoylesoftware.htmlunit.Page;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.sf.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class QueueMetricsTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void recordsBuild() throws Exception {
+        QueueMetrics metrics = r.jenkins.getQueue().getMetrics();
+        long dispatched = metrics.getDispatched();
+        r.buildAndAssertSuccess(r.createFreeStyleProject());
+
+        assertEquals(dispatched + 1, metrics.getDispatched());
+        assertTrue(metrics.getStage(QueueMetrics.Stage.WAITING).getCount() > 0);
+        assertTrue(metrics.getStage(QueueMetrics.Stage.BUILDABLE).getCount() > 0);
+        assertTrue(metrics.getStage(QueueMetrics.Stage.PENDING).getCount() > 0);
+        assertTrue(metrics.getMaintenance().getCount() > 0);
+        assertTrue(metrics.getLockHold().getCount() > 0);
+
+        Page page = r.createWebClient().goTo("queueMetrics/", "application/json");
+        JSONObject json = JSONObject.fromObject(page.getWebResponse().getContentAsString()).getJSONObject("data");
+        assertEquals(metrics.getDispatched(), json.getLong("dispatched"));
+        assertTrue(json.getJSONObject("stages").getJSONObject("waiting").getLong("count") > 0);
+    }
+
+    @Test
+    public void lockHoldExcludesNestingAndWaits() throws Exception {
+        QueueMetrics metrics = new QueueMetrics();
+        ReentrantLock lock = metrics.new InstrumentedLock();
+        Condition condition = lock.newCondition();
+        lock.lock();
+        try {
+            lock.lock();
+            lock.unlock();
+            assertEquals("nested unlock is not a release", 0, metrics.getLockHold().getCount());
+            condition.await(1, TimeUnit.SECONDS);
+            assertEquals("await releases the lock", 1, metrics.getLockHold().getCount());
+        } finally {
+            lock.unlock();
+        }
+        assertEquals(2, metrics.getLockHold().getCount());
+        assertTrue("waiting on the condition is not holding", metrics.getLockHold().getMaxMillis() < 500);
+        assertEquals(1, metrics.getLockWait().getCount());
+    }
+
+}
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class QueueRestartTest {
@@ -77,6 +78,34 @@ public class QueueRestartTest {
         });
     }
 
+    @Test
+    public void persistQueueOnCrashWithJournal() {
+        j.addStepWithDirtyShutdown(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                QueueJournal.ENABLED = true;
+                QueueJournal.CHECKPOINT_SECONDS = 24 * 60 * 60; // only rely on the journal
+                scheduleSomeBuild();
+                assertBuildIsScheduled();
+
+                assertTrue("queue.journal does not exist", j.j.jenkins.getQueue().getJournalFile().exists());
+                assertFalse("queue.xml should not have been written", j.j.jenkins.getQueue().getXMLQueueFile().exists());
+            }
+        });
+        j.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                try {
+                    assertBuildIsScheduled();
+                    // load() checkpoints right away, which makes the old records redundant
+                    assertTrue("queue.xml does not exist", j.j.jenkins.getQueue().getXMLQueueFile().exists());
+                    assertFalse("queue.journal should have been discarded", j.j.jenkins.getQueue().getJournalFile().exists());
+                } finally {
+                    QueueJournal.ENABLED = false;
+                    QueueJournal.CHECKPOINT_SECONDS = 300;
+                }
+            }
+        });
+    }
+
     private void assertBuildIsScheduled() {
         assertEquals(1, j.j.jenkins.getQueue().getItems().length);
     }
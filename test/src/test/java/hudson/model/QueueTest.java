@@ -23,6 +23,9 @@
  */
 package hudson.model;
 
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebRequest;
 import com.gargoylesoftware.htmlunit.html.DomElement;
 import com.gargoylesoftware.htmlunit.html.DomNode;
 import com.gargoylesoftware.htmlunit.html.HtmlFileInput;
@@ -49,6 +52,7 @@ import hudson.model.labels.LabelExpression;
 import hudson.model.listeners.SaveableListener;
 import hudson.model.queue.CauseOfBlockage;
 import hudson.model.queue.QueueTaskDispatcher;
+import hudson.model.queue.QueueSorter;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.model.queue.ScheduleResult;
 import hudson.model.queue.SubTask;
@@ -76,6 +80,8 @@ import jenkins.security.apitoken.ApiTokenPropertyConfiguration;
 import jenkins.security.QueueItemAuthenticatorConfiguration;
 import jenkins.security.apitoken.ApiTokenTestHelper;
 import jenkins.triggers.ReverseBuildTrigger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.acegisecurity.Authentication;
 import org.acegisecurity.GrantedAuthority;
 import org.acegisecurity.acls.sid.PrincipalSid;
@@ -93,6 +99,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
 import org.jvnet.hudson.test.MockQueueItemAuthenticator;
 import org.jvnet.hudson.test.SequenceLock;
 import org.jvnet.hudson.test.SleepBuilder;
@@ -107,10 +114,12 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -604,6 +613,152 @@ public class QueueTest {
         }
     }
 
+    @Test public void taskEqualityWithoutHashCode() throws Exception {
+        AtomicInteger cnt = new AtomicInteger();
+        Queue q = r.jenkins.getQueue();
+        EqualsOnlyTask originalTask = new EqualsOnlyTask(cnt);
+        ScheduleResult result = q.schedule2(originalTask, 0);
+        assertTrue(result.isCreated());
+        EqualsOnlyTask equalTask = new EqualsOnlyTask(cnt);
+        assertEquals(result.getItem().getId(), q.getItem(equalTask).getId());
+        assertTrue(q.contains(equalTask));
+        assertFalse(q.schedule2(equalTask, 0).isCreated());
+        originalTask.isBlocked = false;
+        result.getItem().getFuture().get();
+        r.waitUntilNoActivity();
+        assertEquals(1, cnt.get());
+        assertFalse(q.contains(equalTask));
+    }
+    /**
+     * Like {@link TestTask} but only overrides {@link #equals(Object)}, as some older plugins do.
+     */
+    static class EqualsOnlyTask implements Queue.Task {
+        private final AtomicInteger cnt;
+        volatile boolean isBlocked = true;
+
+        EqualsOnlyTask(AtomicInteger cnt) {
+            this.cnt = cnt;
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof EqualsOnlyTask && cnt == ((EqualsOnlyTask) o).cnt;
+        }
+        @Override public CauseOfBlockage getCauseOfBlockage() {return isBlocked ? CauseOfBlockage.fromMessage(Messages._Queue_Unknown()) : null;}
+        @Override public String getName() {return "test";}
+        @Override public String getFullDisplayName() {return "Test";}
+        @Override public void checkAbortPermission() {}
+        @Override public boolean hasAbortPermission() {return true;}
+        @Override public String getUrl() {return "test/";}
+        @Override public String getDisplayName() {return "Test";}
+        @Override public ResourceList getResourceList() {return new ResourceList();}
+        @Override public Executable createExecutable() throws IOException {
+            return new Executable() {
+                @Override public SubTask getParent() {return EqualsOnlyTask.this;}
+                @Override public long getEstimatedDuration() {return -1;}
+                @Override public void run() {
+                    cnt.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void lookupsFollowItemsAcrossStages() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        Queue q = r.jenkins.getQueue();
+        AtomicInteger cnt = new AtomicInteger();
+        TestTask task = new TestTask(cnt, true);
+        long id = q.schedule2(task, 1000).getItem().getId();
+        assertStage(q, task, id, WaitingItem.class);
+
+        q.schedule2(task, 0); // shortens the quiet period of the waiting item
+        q.maintain();
+        assertStage(q, task, id, BlockedItem.class);
+
+        task.isBlocked = false;
+        q.maintain();
+        assertStage(q, task, id, Queue.BuildableItem.class);
+
+        r.jenkins.setNumExecutors(1);
+        q.getItem(id).getFuture().get(10, TimeUnit.SECONDS);
+        r.waitUntilNoActivity();
+        assertEquals(1, cnt.get());
+        assertNull(q.getItem(task));
+        assertTrue(q.getItems(task).isEmpty());
+        assertFalse(q.contains(task));
+        assertTrue(q.getItem(id) instanceof Queue.LeftItem);
+    }
+
+    private static void assertStage(Queue q, Queue.Task task, long id, Class<? extends Queue.Item> stage) {
+        Queue.Item item = q.getItem(task);
+        assertTrue(String.valueOf(item), stage.isInstance(item));
+        assertEquals(id, item.getId());
+        assertSame(item, q.getItem(id));
+        assertEquals(Collections.singletonList(item), q.getItems(task));
+        assertEquals(Collections.singletonList(item), Arrays.asList(q.getItems()));
+        assertTrue(q.contains(task));
+    }
+
+    @Test
+    public void buildablesStayIndexedAfterSorting() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        Queue q = r.jenkins.getQueue();
+        QueueSorter original = q.getSorter();
+        try {
+            q.setSorter(new NameSorter(false));
+            List<FreeStyleProject> projects = new ArrayList<>();
+            for (String name : new String[] {"b", "d", "a", "c"}) {
+                FreeStyleProject p = r.createFreeStyleProject(name);
+                p.scheduleBuild2(0);
+                projects.add(p);
+            }
+            q.maintain();
+            assertEquals(Arrays.asList("a", "b", "c", "d"), buildableNames(q));
+            assertIndexed(q, projects);
+
+            q.setSorter(new NameSorter(true));
+            q.maintain();
+            assertEquals(Arrays.asList("d", "c", "b", "a"), buildableNames(q));
+            assertIndexed(q, projects);
+        } finally {
+            q.setSorter(original);
+        }
+    }
+
+    private static List<String> buildableNames(Queue q) {
+        List<String> names = new ArrayList<>();
+        for (Queue.BuildableItem item : q.getBuildableItems()) {
+            names.add(item.task.getName());
+        }
+        return names;
+    }
+
+    private static void assertIndexed(Queue q, List<FreeStyleProject> projects) {
+        for (FreeStyleProject p : projects) {
+            Queue.Item item = q.getItem(p);
+            assertTrue(String.valueOf(item), item instanceof Queue.BuildableItem);
+            assertSame(p, item.task);
+            assertSame(item, q.getItem(item.getId()));
+            assertEquals(Collections.singletonList(item), q.getItems(p));
+            assertTrue(q.contains(p));
+        }
+    }
+
+    private static class NameSorter extends QueueSorter {
+        private final boolean descending;
+
+        NameSorter(boolean descending) {
+            this.descending = descending;
+        }
+
+        @Override
+        public void sortBuildableItems(List<Queue.BuildableItem> buildables) {
+            Collections.sort(buildables, (a, b) -> descending
+                    ? b.task.getName().compareTo(a.task.getName())
+                    : a.task.getName().compareTo(b.task.getName()));
+        }
+    }
+
     @Test public void waitForStart() throws Exception {
         final OneShotEvent ev = new OneShotEvent();
         FreeStyleProject p = r.createFreeStyleProject();
@@ -1049,6 +1204,111 @@ public class QueueTest {
         assertEquals(expected.getShortDescription(), actual.getShortDescription());
     }
 
+    @Test
+    public void scheduleBuildsOverRest() throws Exception {
+        r.jenkins.setQuietPeriod(9999);
+        FreeStyleProject a = r.createFreeStyleProject("a");
+        FreeStyleProject b = r.createFreeStyleProject("b");
+        FreeStyleProject disabled = r.createFreeStyleProject("disabled");
+        disabled.disable();
+        r.jenkins.setSecurityRealm(r.createDummySecurityRealm());
+        r.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ, Item.READ).everywhere().to("dev")
+                .grant(Item.BUILD).onItems(a, disabled).to("dev"));
+        Queue q = r.jenkins.getQueue();
+        URL url = new URL(r.getURL(), "queue/scheduleBuilds?job=a&job=b&job=missing&job=disabled");
+
+        JenkinsRule.WebClient wc = r.createWebClient();
+        wc.setThrowExceptionOnFailingStatusCode(false);
+        assertEquals("not allowed without Overall/Read", HttpURLConnection.HTTP_FORBIDDEN,
+                wc.getPage(wc.addCrumb(new WebRequest(url, HttpMethod.POST))).getWebResponse().getStatusCode());
+        wc.login("dev");
+        assertEquals("POST only", HttpURLConnection.HTTP_BAD_METHOD,
+                wc.getPage(new WebRequest(url)).getWebResponse().getStatusCode());
+        assertEquals(0, q.getItems().length);
+
+        Page page = wc.getPage(wc.addCrumb(new WebRequest(url, HttpMethod.POST)));
+        assertEquals(HttpURLConnection.HTTP_OK, page.getWebResponse().getStatusCode());
+        JSONArray items = JSONObject.fromObject(page.getWebResponse().getContentAsString()).getJSONObject("data").getJSONArray("items");
+        assertEquals(4, items.size());
+        Queue.Item item = q.getItem(a);
+        assertNotNull(item);
+        assertEquals("a", items.getJSONObject(0).getString("job"));
+        assertEquals(item.getId(), items.getJSONObject(0).getLong("id"));
+        assertEquals(item.getUrl(), items.getJSONObject(0).getString("url"));
+        for (int i = 1; i < 4; i++) {
+            assertTrue(items.getJSONObject(i).toString(), items.getJSONObject(i).getBoolean("refused"));
+        }
+        assertEquals("b", items.getJSONObject(1).getString("job"));
+        assertEquals("missing", items.getJSONObject(2).getString("job"));
+        assertEquals("disabled", items.getJSONObject(3).getString("job"));
+        assertEquals(1, q.getItems().length);
+    }
+
+    @Test
+    public void maintenanceMinInterval() throws Exception {
+        Queue q = r.jenkins.getQueue();
+        long interval = Queue.MAINTENANCE_MIN_INTERVAL_MILLIS;
+        Queue.MAINTENANCE_MIN_INTERVAL_MILLIS = 2000;
+        try {
+            q.scheduleMaintenance().get();
+            long start = System.nanoTime();
+            Future<?> first = q.scheduleMaintenance();
+            Future<?> second = q.scheduleMaintenance();
+            assertSame("requests within the interval share a pass", first, second);
+            assertFalse(first.isDone());
+            first.get(10, TimeUnit.SECONDS);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("waited " + elapsed + "ms", elapsed >= 1900);
+        } finally {
+            Queue.MAINTENANCE_MIN_INTERVAL_MILLIS = interval;
+        }
+    }
+
+    @Test
+    public void labelRestrictedItemIsOnlyOfferedInLabelExecutors() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        DumbSlave in = r.createOnlineSlave(Label.get("in"));
+        DumbSlave out = r.createOnlineSlave(Label.get("out"));
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.setAssignedLabel(Label.get("in"));
+
+        Queue q = r.jenkins.getQueue();
+        HoldingQueueTaskDispatcher.offered.clear();
+        HoldingQueueTaskDispatcher.hold = true;
+        QueueTaskFuture<FreeStyleBuild> f = p.scheduleBuild2(0);
+        q.maintain();
+        Queue.Item item = q.getItem(p);
+        assertTrue(item instanceof Queue.BuildableItem);
+        assertEquals(Collections.singleton(in.getNodeName()), HoldingQueueTaskDispatcher.offered);
+        // rejections by nodes outside the label are still reported alongside the dispatcher's
+        String why = item.getWhy();
+        assertTrue(why, why.contains("held for test"));
+        assertTrue(why, why.contains(Messages.Node_LabelMissing(out.getDisplayName(), "in")));
+
+        HoldingQueueTaskDispatcher.hold = false;
+        assertEquals(in, r.assertBuildStatusSuccess(f).getBuiltOn());
+    }
+
+    @TestExtension("labelRestrictedItemIsOnlyOfferedInLabelExecutors")
+    public static class HoldingQueueTaskDispatcher extends QueueTaskDispatcher {
+        static final Set<String> offered = Collections.synchronizedSet(new HashSet<>());
+        static volatile boolean hold;
+        @Override
+        public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+            offered.add(node.getNodeName());
+            if (!hold) {
+                return null;
+            }
+            return new CauseOfBlockage() {
+                @Override
+                public String getShortDescription() {
+                    return "held for test";
+                }
+            };
+        }
+    }
+
     @Test @LocalData
     public void load_queue_xml() {
         Queue q = r.getInstance().getQueue();
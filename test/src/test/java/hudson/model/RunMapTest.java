@@ -1,6 +1,10 @@
 package hudson.model;
 
 import hudson.model.queue.QueueTaskFuture;
+import hudson.util.RunList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import static org.junit.Assert.*;
@@ -123,4 +127,38 @@ public class RunMapTest {
         assertEquals(0, runs.size());
     }
 
+    @Test public void rangeQueriesOnlyLoadTheRequestedWindow() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        for (int i = 0; i < 6; i++) {
+            r.buildAndAssertSuccess(p);
+        }
+        RunMap<FreeStyleBuild> runs = p._getRuns();
+
+        runs.purgeCache();
+        assertEquals(6, p.getBuilds().size());
+        List<FreeStyleBuild> page = p.getNewBuilds().subList(2, 4);
+        assertEquals(Arrays.asList(4, 3), numbers(page));
+        assertEquals("[4, 3]", runs.getLoadedBuilds().keySet().toString());
+
+        runs.purgeCache();
+        RunList<FreeStyleBuild> window = p.getBuilds().byNumber(2, 4);
+        assertEquals(Arrays.asList(3, 2), numbers(window));
+        assertEquals("[3, 2]", runs.getLoadedBuilds().keySet().toString());
+
+        runs.purgeCache();
+        assertEquals(Arrays.asList(3, 4, 5, 6), numbers(p.getBuilds().walk(3, true)));
+        assertEquals(5, runs.headMap(4).lastKey().intValue());
+        assertEquals("[6, 5, 4, 3]", runs.getLoadedBuilds().keySet().toString());
+        assertEquals(2, runs.tailMap(2).firstKey().intValue());
+        assertEquals("[6, 5, 4, 3, 2]", runs.getLoadedBuilds().keySet().toString());
+    }
+
+    private static List<Integer> numbers(Iterable<? extends Run<?,?>> builds) {
+        List<Integer> numbers = new ArrayList<>();
+        for (Run<?,?> b : builds) {
+            numbers.add(b.getNumber());
+        }
+        return numbers;
+    }
+
 }
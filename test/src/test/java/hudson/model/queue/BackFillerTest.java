@@ -0,0 +1,126 @@
+package hudson.model.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.Queue;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.Executable;
+import hudson.model.Queue.Task;
+import hudson.model.ResourceList;
+import hudson.util.OneShotEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BackFillerTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @TestExtension("shortItemIsBackfilledAndOverlappingItemIsHeldBack")
+    public static class BackFillerImpl extends BackFiller {}
+
+    /**
+     * The scenario is:
+     *
+     * - a computer with 2 executors, one of which runs a build predicted to take 10 more minutes.
+     * - the item at the head of the queue needs both executors, so it reserves them once that build is done.
+     * - an item that would still be running by then must not take the idle executor,
+     *   while one that is predicted to be done before can.
+     */
+    @Test
+    public void shortItemIsBackfilledAndOverlappingItemIsHeldBack() throws Exception {
+        r.jenkins.setNumExecutors(2);
+        Queue q = r.jenkins.getQueue();
+        OneShotEvent done = new OneShotEvent();
+
+        Queue.Item running = q.schedule2(new TestTask("running", 10, 1, done), 0).getItem();
+        running.getFuture().waitForStart();
+
+        Queue.Item wide = q.schedule2(new TestTask("wide", 10, 2, done), 0).getItem();
+        Queue.Item overlapping = q.schedule2(new TestTask("overlapping", 20, 1, done), 0).getItem();
+        q.maintain();
+        assertTrue(q.getItem(wide.getId()) instanceof BuildableItem);
+        assertTrue(q.getItem(overlapping.getId()) instanceof BuildableItem);
+        assertEquals(1, r.jenkins.toComputer().countIdle());
+
+        Queue.Item backfilled = q.schedule2(new TestTask("short", 1, 1, done), 0).getItem();
+        backfilled.getFuture().waitForStart();
+        assertTrue(q.getItem(overlapping.getId()) instanceof BuildableItem);
+
+        done.signal();
+        for (Queue.Item item : new Queue.Item[] {running, wide, overlapping, backfilled}) {
+            item.getFuture().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private static class TestTask implements Task {
+        private final String name;
+        private final long duration;
+        private final List<SubTask> subTasks = new ArrayList<>();
+        private final OneShotEvent done;
+
+        /**
+         * @param minutes estimated duration
+         * @param width number of executors the task occupies
+         */
+        TestTask(String name, int minutes, int width, OneShotEvent done) {
+            this.name = name;
+            this.duration = TimeUnit.MINUTES.toMillis(minutes);
+            this.done = done;
+            subTasks.add(this);
+            for (int i = 1; i < width; i++) {
+                subTasks.add(new Part(this));
+            }
+        }
+
+        @Override public String getName() {return name;}
+        @Override public String getFullDisplayName() {return name;}
+        @Override public String getDisplayName() {return name;}
+        @Override public void checkAbortPermission() {}
+        @Override public boolean hasAbortPermission() {return true;}
+        @Override public String getUrl() {return name + "/";}
+        @Override public ResourceList getResourceList() {return new ResourceList();}
+        @Override public long getEstimatedDuration() {return duration;}
+        @Override public Collection<? extends SubTask> getSubTasks() {return subTasks;}
+        @Override public Executable createExecutable() {return new BlockingExecutable(this);}
+
+        private class BlockingExecutable implements Executable {
+            private final SubTask parent;
+
+            BlockingExecutable(SubTask parent) {
+                this.parent = parent;
+            }
+
+            @Override public SubTask getParent() {return parent;}
+            @Override public long getEstimatedDuration() {return duration;}
+            @Override public void run() {
+                try {
+                    done.block();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private static class Part implements SubTask {
+            private final TestTask owner;
+
+            Part(TestTask owner) {
+                this.owner = owner;
+            }
+
+            @Override public Task getOwnerTask() {return owner;}
+            @Override public String getDisplayName() {return owner.name;}
+            @Override public long getEstimatedDuration() {return owner.duration;}
+            @Override public Executable createExecutable() {return owner.new BlockingExecutable(this);}
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+public class FairShareQueueSorterTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void folderOf() throws Exception {
+        MockFolder a = r.createFolder("a");
+        MockFolder b = a.createProject(MockFolder.class, "b");
+        assertEquals(FairShareQueueSorter.ROOT, FairShareQueueSorter.folderOf(r.createFreeStyleProject("p")));
+        assertEquals("a", FairShareQueueSorter.folderOf(a.createProject(FreeStyleProject.class, "p")));
+        assertEquals("a", FairShareQueueSorter.folderOf(b.createProject(FreeStyleProject.class, "p")));
+    }
+
+    @Test
+    public void leastUsedFolderFirst() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        FairShareQueueSorter sorter = new FairShareQueueSorter();
+        Queue q = r.jenkins.getQueue();
+        q.setSorter(sorter);
+
+        FreeStyleProject pa = r.createFolder("a").createProject(FreeStyleProject.class, "p");
+        FreeStyleProject pb = r.createFolder("b").createProject(FreeStyleProject.class, "p");
+        sorter.charge("a", null, 60000);
+        sorter.charge("b", null, 30000);
+
+        q.schedule2(pa, 0);
+        q.schedule2(pb, 0);
+        q.maintain();
+        List<Queue.BuildableItem> buildables = q.getBuildableItems();
+        assertEquals(2, buildables.size());
+        assertSame(pb, buildables.get(0).task);
+
+        // a larger share makes up for the usage
+        sorter.setWeight("a", 1000);
+        q.maintain();
+        assertSame(pa, q.getBuildableItems().get(0).task);
+    }
+
+}
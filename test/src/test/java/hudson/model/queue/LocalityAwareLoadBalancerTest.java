@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.LoadBalancer;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.DumbSlave;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class LocalityAwareLoadBalancerTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void prefersNodeOfRecentBuilds() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        r.jenkins.getQueue().setLoadBalancer(new LocalityAwareLoadBalancer());
+        DumbSlave s1 = r.createOnlineSlave(new LabelAtom("home"));
+        r.createOnlineSlave();
+
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.setAssignedLabel(new LabelAtom("home"));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(s1.getNodeName(), r.buildAndAssertSuccess(p).getBuiltOnStr());
+        }
+
+        // both nodes are idle, so the one holding the history of the job wins
+        p.setAssignedLabel(null);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(s1.getNodeName(), r.buildAndAssertSuccess(p).getBuiltOnStr());
+        }
+    }
+
+    @Test
+    public void prefersNodeOfRecentBuildsOverConsistentHash() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        DumbSlave s1 = r.createOnlineSlave();
+        DumbSlave s2 = r.createOnlineSlave();
+        FreeStyleProject p = r.createFreeStyleProject();
+
+        // find out where the default load balancer sends the job, and build it elsewhere
+        r.jenkins.getQueue().setLoadBalancer(LoadBalancer.CONSISTENT_HASH);
+        String hashed = r.buildAndAssertSuccess(p).getBuiltOnStr();
+        DumbSlave other = hashed.equals(s1.getNodeName()) ? s2 : s1;
+        r.jenkins.getQueue().setLoadBalancer(new LocalityAwareLoadBalancer());
+        p.setAssignedLabel(other.getSelfLabel());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(other.getNodeName(), r.buildAndAssertSuccess(p).getBuiltOnStr());
+        }
+
+        p.setAssignedLabel(null);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(other.getNodeName(), r.buildAndAssertSuccess(p).getBuiltOnStr());
+        }
+
+        r.jenkins.getQueue().setLoadBalancer(LoadBalancer.CONSISTENT_HASH);
+        assertEquals(hashed, r.buildAndAssertSuccess(p).getBuiltOnStr());
+    }
+
+}
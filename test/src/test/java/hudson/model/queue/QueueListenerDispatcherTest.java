@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+public class QueueListenerDispatcherTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void slowAsynchronousListenerDoesNotHoldUpQueue() throws Exception {
+        SlowListener l = r.jenkins.getExtensionList(QueueListener.class).get(SlowListener.class);
+        FreeStyleProject p = r.createFreeStyleProject();
+        r.buildAndAssertSuccess(p);
+        assertEquals("the build went through while the listener was still stuck", 1, l.release.getCount());
+
+        l.release.countDown();
+        assertTrue(l.left.await(10, TimeUnit.SECONDS));
+        for (QueueListenerDispatcher.Statistics s : QueueListenerDispatcher.getStatistics()) {
+            if (s.getListener().equals(SlowListener.class.getName())) {
+                assertEquals(0, s.getDropped());
+                return;
+            }
+        }
+        fail("no statistics for " + SlowListener.class);
+    }
+
+    @TestExtension("slowAsynchronousListenerDoesNotHoldUpQueue")
+    public static class SlowListener extends QueueListener {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch left = new CountDownLatch(1);
+
+        @Override
+        public boolean isAsynchronous() {
+            return true;
+        }
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            left.countDown();
+        }
+    }
+
+}
@@ -1,6 +1,11 @@
 package hudson.widgets;
 
+import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.RunMap;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
@@ -24,4 +29,33 @@ public class HistoryWidgetTest {
         wc.goTo("job/" + p.getName() + "/buildHistory/all");
     }
 
+    @Test
+    public void pagesOnlyLoadTheirBuilds() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        for (int x = 0; x < 35; x++) {
+            j.buildAndAssertSuccess(p);
+        }
+        RunMap<FreeStyleBuild> runs = p._getRuns();
+        JenkinsRule.WebClient wc = j.createWebClient();
+        wc.setJavaScriptEnabled(false);
+
+        runs.purgeCache();
+        wc.goTo("job/" + p.getName() + "/buildHistory/ajax?older-than=" + (Long.MIN_VALUE + 10));
+        for (int n = 1; n < 10; n++) {
+            assertTrue("#" + n + " is on the page", runs.getLoadedBuilds().containsKey(n));
+        }
+        for (int n = 11; n < 35; n++) {
+            assertFalse("#" + n + " is newer than the page", runs.getLoadedBuilds().containsKey(n));
+        }
+
+        runs.purgeCache();
+        wc.goTo("job/" + p.getName() + "/buildHistory/ajax?newer-than=" + (Long.MIN_VALUE + 3));
+        for (int n = 4; n < 34; n++) {
+            assertTrue("#" + n + " is on the page", runs.getLoadedBuilds().containsKey(n));
+        }
+        for (int n = 1; n < 3; n++) {
+            assertFalse("#" + n + " is older than the page", runs.getLoadedBuilds().containsKey(n));
+        }
+    }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import hudson.model.FreeStyleProject;
+import hudson.tasks.LogRotator;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class BackgroundBuildDiscarderTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Before
+    public void enable() {
+        BackgroundBuildDiscarder.ENABLED = true;
+    }
+
+    @After
+    public void disable() {
+        BackgroundBuildDiscarder.ENABLED = false;
+    }
+
+    @Test
+    public void discardsInBackground() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.setBuildDiscarder(new LogRotator(-1, 2, -1, -1));
+        r.buildAndAssertSuccess(p);
+        r.buildAndAssertSuccess(p).keepLog(true);
+        for (int i = 0; i < 3; i++) {
+            r.buildAndAssertSuccess(p);
+        }
+        BackgroundBuildDiscarder discarder = BackgroundBuildDiscarder.get();
+        while (!discarder.isIdle()) {
+            Thread.sleep(100);
+        }
+        assertNull(p.getBuildByNumber(1));
+        assertNotNull("kept forever", p.getBuildByNumber(2));
+        assertNull(p.getBuildByNumber(3));
+        assertNotNull(p.getBuildByNumber(4));
+        assertNotNull(p.getBuildByNumber(5));
+        JSONObject stats = discarder.toJSON();
+        assertEquals(2, stats.getLong("buildsDeleted"));
+        assertEquals(0, stats.getInt("backlog"));
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.AbstractItem;
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.TopLevelItem;
+import hudson.model.TopLevelItemDescriptor;
+import hudson.model.listeners.ItemListener;
+import hudson.util.OneShotEvent;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+public class LazyItemsTest {
+
+    @Rule
+    public RestartableJenkinsRule rr = new RestartableJenkinsRule();
+
+    @Test
+    public void lazyLoading() {
+        rr.then(r -> {
+            r.createFreeStyleProject("a").setDescription("first");
+            r.createFreeStyleProject("b");
+            LazyItems.ENABLED = true;
+        });
+        rr.then(r -> {
+            try {
+                assertEquals("first", r.jenkins.getItemByFullName("a", FreeStyleProject.class).getDescription());
+                assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(r.jenkins.getTopLevelItemNames()));
+                Listener listener = ItemListener.all().get(Listener.class);
+                while (listener.itemsWhenLoaded == -1) {
+                    Thread.sleep(100);
+                }
+                assertEquals("all items were loaded before onLoaded", 2, listener.itemsWhenLoaded);
+                assertEquals(2, r.jenkins.getItems().size());
+                assertTrue(r.jenkins.getItem("b") instanceof FreeStyleProject);
+            } finally {
+                LazyItems.ENABLED = false;
+            }
+        });
+    }
+
+    @Test
+    public void startupDoesNotWaitForItems() {
+        rr.then(r -> {
+            r.createFreeStyleProject("a");
+            r.jenkins.createProject(SlowItem.class, "slow");
+            LazyItems.ENABLED = true;
+        });
+        rr.then(r -> {
+            try {
+                assertFalse("still being loaded by the warmer", r.jenkins.items.containsKey("slow"));
+                assertTrue(r.jenkins.getTopLevelItemNames().contains("slow"));
+                SlowItem.LOADING.signal();
+                assertTrue(r.jenkins.getItemByFullName("slow") instanceof SlowItem);
+                assertNotNull(r.jenkins.getItemByFullName("a"));
+            } finally {
+                SlowItem.LOADING.signal();
+                LazyItems.ENABLED = false;
+            }
+        });
+    }
+
+    public static final class SlowItem extends AbstractItem implements TopLevelItem {
+        static final OneShotEvent LOADING = new OneShotEvent();
+
+        public SlowItem(ItemGroup parent, String name) {
+            super(parent, name);
+        }
+
+        @Override
+        public void onLoad(ItemGroup<? extends Item> parent, String name) throws IOException {
+            try {
+                LOADING.block(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException x) {
+                throw new IOException(x);
+            }
+            super.onLoad(parent, name);
+        }
+
+        @Override
+        public Collection<? extends Job> getAllJobs() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public TopLevelItemDescriptor getDescriptor() {
+            return Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+        }
+
+        @TestExtension("startupDoesNotWaitForItems")
+        public static final class DescriptorImpl extends TopLevelItemDescriptor {
+            @Override
+            public TopLevelItem newInstance(ItemGroup parent, String name) {
+                return new SlowItem(parent, name);
+            }
+        }
+    }
+
+    @TestExtension("lazyLoading")
+    public static class Listener extends ItemListener {
+        volatile int itemsWhenLoaded = -1;
+
+        @Override
+        public void onLoaded() {
+            itemsWhenLoaded = Jenkins.getInstance().items.size();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.PermalinkProjectAction.Permalink;
+import hudson.model.Result;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.util.OneShotEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+public class PermalinkCacheTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void maintainedAndPersisted() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b1 = r.buildAndAssertSuccess(p);
+        b1.setDisplayName("first");
+        p.getBuildersList().add(new FailureBuilder());
+        FreeStyleBuild b2 = r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+        assertEquals(1, p.getPermalinkCache().getNumber(Permalink.LAST_SUCCESSFUL_BUILD.getId()));
+        assertEquals(2, p.getPermalinkCache().getNumber(Permalink.LAST_FAILED_BUILD.getId()));
+        assertEquals(2, p.getPermalinkCache().getNumber(Permalink.LAST_COMPLETED_BUILD.getId()));
+        assertEquals(1, p.getBuildHealthReports().size());
+
+        PermalinkCache reloaded = new PermalinkCache(p);
+        PermalinkCache.Target lsb = reloaded.get(Permalink.LAST_SUCCESSFUL_BUILD.getId());
+        assertNotNull(lsb);
+        assertEquals("first", lsb.getDisplayName());
+        assertEquals(b1.getTimeInMillis(), lsb.getTimeInMillis());
+        assertEquals("#2", reloaded.get(Permalink.LAST_FAILED_BUILD.getId()).getDisplayName());
+        assertNull("nothing unstable yet", reloaded.get(Permalink.LAST_UNSTABLE_BUILD.getId()));
+        assertNotNull(p.getPermalinkCache().getHealthReports(2));
+        assertNull("health reports are recomputed after a restart", reloaded.getHealthReports(2));
+
+        b2.delete();
+        assertEquals(0, p.getPermalinkCache().getNumber(Permalink.LAST_FAILED_BUILD.getId()));
+        assertEquals(-1, p.getPermalinkCache().getNumber(Permalink.LAST_COMPLETED_BUILD.getId()));
+        assertEquals(b1, p.getLastCompletedBuild());
+        assertEquals(1, p.getPermalinkCache().getNumber(Permalink.LAST_COMPLETED_BUILD.getId()));
+    }
+
+    @Test
+    public void lastCompletedNotMovedBackWhileFinishing() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b1 = r.buildAndAssertSuccess(p);
+        final OneShotEvent started = new OneShotEvent();
+        final OneShotEvent proceed = new OneShotEvent();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
+                started.signal();
+                proceed.block();
+                return true;
+            }
+        });
+        QueueTaskFuture<FreeStyleBuild> f = p.scheduleBuild2(0);
+        started.block();
+        FreeStyleBuild b2 = p.getBuildByNumber(2);
+        assertEquals(b1, p.getLastCompletedBuild());
+        assertEquals(1, p.getPermalinkCache().getNumber(Permalink.LAST_COMPLETED_BUILD.getId()));
+        // as if recorded just as it was completing
+        p.getPermalinkCache().update(Permalink.LAST_COMPLETED_BUILD.getId(), b2);
+        assertEquals(b1, p.getLastCompletedBuild());
+        assertEquals(2, p.getPermalinkCache().getNumber(Permalink.LAST_COMPLETED_BUILD.getId()));
+        proceed.signal();
+        r.assertBuildStatusSuccess(f);
+        assertEquals(b2, p.getLastCompletedBuild());
+        assertEquals(2, p.getPermalinkCache().getNumber(Permalink.LAST_COMPLETED_BUILD.getId()));
+    }
+
+}